@@ -0,0 +1,77 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.RailwayModel;
+import dz.kalbo.emulator.model.Speed;
+import dz.kalbo.emulator.model.Tram;
+import dz.kalbo.emulator.tram.DiscreteEventEngine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH version of the model cases of {@link SimulationBenchmark}, a network of the given number of tranches with
+ * as many trams. The sparse cases run one second of a network where only one tram out of a hundred moves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelBenchmark {
+
+    private static final int TICK = 15;
+    private static final int SPARSE_TICKS = 1000 / TICK;
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private RailwayModel model;
+    private RailwayModel sparseModel;
+    private RailwayModel sparseEventsModel;
+    private DiscreteEventEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = NetworkGenerator.generate(size, size);
+        sparseModel = newSparseModel(size);
+        sparseEventsModel = newSparseModel(size);
+        engine = new DiscreteEventEngine(sparseEventsModel);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        model.close();
+        sparseModel.close();
+        sparseEventsModel.close();
+    }
+
+    private static RailwayModel newSparseModel(int size) {
+        RailwayModel model = NetworkGenerator.generate(size, size);
+        for (int i = 0; i < size; i++) {
+            Tram tram = model.getTrams().get(i);
+            if (i % 100 != 0)
+                tram.updatePosition(tram.getHeadTranche(), tram.getHeadProgress(), new Speed());
+        }
+        return model;
+    }
+
+    @Benchmark
+    public void update(Blackhole blackhole) {
+        model.update(TICK);
+        blackhole.consume(model.getTramStore().getMovedTrams());
+    }
+
+    @Benchmark
+    public void sparseTicks(Blackhole blackhole) {
+        for (int tick = 0; tick < SPARSE_TICKS; tick++)
+            sparseModel.update(TICK);
+        blackhole.consume(sparseModel.getTramStore().getMovedTrams());
+    }
+
+    @Benchmark
+    public void sparseEvents(Blackhole blackhole) {
+        blackhole.consume(engine.runFor(SPARSE_TICKS * TICK));
+    }
+}
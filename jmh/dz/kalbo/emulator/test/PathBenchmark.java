@@ -0,0 +1,60 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH version of the single element cases of {@link SimulationBenchmark}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathBenchmark {
+
+    private static final int TICK = 15;
+
+    private ArcTranche arc;
+    private AbstractTranche.Traverser traverser;
+    private Context context;
+    private Tram tram;
+    private int iteration;
+
+    @Setup
+    public void setUp() {
+        Context arcContext = new Context(700, 500, 1f, 0);
+        arc = new ArcTranche(1, new ScalablePoint(420, 220, 1f), new ScalablePoint(560, 160, 1f), arcContext);
+
+        RailwayModel model = NetworkGenerator.generate(NetworkGenerator.TRANCHES_PER_LOOP, 0);
+        AbstractTranche head = model.getRoads().get(0).getHeadTranches().peekFirst();
+        traverser = new AbstractTranche.Traverser(head, 0f);
+
+        // a tram on its own is updated by itself
+        context = model.getContext();
+        tram = new Tram(1, 15, 20, 4, 5, context);
+        tram.updatePosition(head, 0.5f, new Speed(0.05));
+    }
+
+    @Benchmark
+    public void arc(Blackhole blackhole) {
+        float progress = (iteration++ & 1023) / 1024f;
+        blackhole.consume(arc.getX(progress) + arc.getY(progress));
+    }
+
+    @Benchmark
+    public void traverser(Blackhole blackhole) {
+        traverser.move(7.5f, (iteration++ & 1) == 0 ? 1 : -0.5);
+        blackhole.consume(traverser.getX());
+    }
+
+    @Benchmark
+    public void tram(Blackhole blackhole) {
+        tram.update(new Context(context.getWidth(), context.getHeight(), context.getZoom(), (long) iteration++ * TICK));
+        blackhole.consume(tram.getHeadTranche());
+    }
+}
@@ -0,0 +1,70 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+import dz.kalbo.emulator.tools.Kit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * shortest route searches on joined loops, with the landmarks and as plain Dijkstra, the cache is off so every
+ * query is a search
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+
+    private static final int PAIRS = 1024;
+
+    @Param({"4000"})
+    public int size;
+
+    private RailwayModel model;
+    private AbstractTranche[] origins;
+    private AbstractTranche[] destinations;
+    private Router landmarks;
+    private Router plain;
+    private int iteration;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        NetworkGenerator generator = new NetworkGenerator(size);
+        model = generator.newModel();
+        generator.addRoads(model);
+        generator.joinLoops(model, size, 7);
+        TrackGraph graph = model.getTrackGraph();
+        landmarks = new Router(graph, Kit.ROUTING_LANDMARKS, 0);
+        plain = new Router(graph, 0, 0);
+
+        Random random = new Random(11);
+        origins = new AbstractTranche[PAIRS];
+        destinations = new AbstractTranche[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            origins[i] = graph.getTranche(random.nextInt(graph.size()));
+            destinations[i] = graph.getTranche(random.nextInt(graph.size()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        model.close();
+    }
+
+    @Benchmark
+    public void landmarks(Blackhole blackhole) {
+        int pair = iteration++ & (PAIRS - 1);
+        blackhole.consume(landmarks.findRoute(origins[pair], destinations[pair], true));
+    }
+
+    @Benchmark
+    public void dijkstra(Blackhole blackhole) {
+        int pair = iteration++ & (PAIRS - 1);
+        blackhole.consume(plain.findRoute(origins[pair], destinations[pair], true));
+    }
+}
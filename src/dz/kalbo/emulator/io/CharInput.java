@@ -0,0 +1,128 @@
+package dz.kalbo.emulator.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A fixed size window over a character stream, text importers read through it so a document of any size only
+ * costs the window in memory. Numbers are parsed straight from the window without building strings.
+ */
+class CharInput {
+
+    static final int EOF = -1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final char[] number = new char[64];
+    private final StringBuilder text = new StringBuilder();
+    private int position;
+    private int limit;
+    private long offset;
+
+    CharInput(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @return the next character without consuming it or {@link #EOF}
+     */
+    final int peekChar() throws IOException {
+        if (position == limit && !fill())
+            return EOF;
+        return buffer[position];
+    }
+
+    final int readChar() throws IOException {
+        if (position == limit && !fill())
+            return EOF;
+        offset++;
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        int read;
+        do {
+            read = reader.read(buffer, 0, buffer.length);
+        } while (read == 0);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    /**
+     * @return how many characters were consumed, used to locate errors
+     */
+    final long getOffset() {
+        return offset;
+    }
+
+    final StringBuilder text() {
+        text.setLength(0);
+        return text;
+    }
+
+    final IOException error(String message) {
+        return new IOException(message + " at character " + offset);
+    }
+
+    /**
+     * read an integer, a number written with a fraction or an exponent is rounded
+     */
+    final int readInt() throws IOException {
+        int length = readNumber();
+        long value = 0;
+        int i = number[0] == '-' || number[0] == '+' ? 1 : 0;
+        if (i == length)
+            throw error("number expected");
+        for (; i < length; i++) {
+            char c = number[i];
+            if (c < '0' || c > '9')
+                return roundToInt(length);
+            value = value * 10 + (c - '0');
+            if (value > Integer.MAX_VALUE + 1L)
+                throw error("number too big");
+        }
+        if (number[0] != '-' && value > Integer.MAX_VALUE)
+            throw error("number too big");
+        return (int) (number[0] == '-' ? -value : value);
+    }
+
+    private int roundToInt(int length) throws IOException {
+        long value;
+        try {
+            value = Math.round(Double.parseDouble(new String(number, 0, length)));
+        } catch (NumberFormatException e) {
+            throw error("invalid number " + new String(number, 0, length));
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            throw error("number too big");
+        return (int) value;
+    }
+
+    final double readDouble() throws IOException {
+        int length = readNumber();
+        try {
+            return Double.parseDouble(new String(number, 0, length));
+        } catch (NumberFormatException e) {
+            throw error("invalid number " + new String(number, 0, length));
+        }
+    }
+
+    private int readNumber() throws IOException {
+        int length = 0;
+        int c;
+        while ((c = peekChar()) != EOF && isNumberChar((char) c)) {
+            if (length == number.length)
+                throw error("number too long");
+            number[length++] = (char) readChar();
+        }
+        if (length == 0)
+            throw error(c == EOF ? "unexpected end of input" : "unexpected '" + (char) c + "'");
+        return length;
+    }
+
+    private static boolean isNumberChar(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+}
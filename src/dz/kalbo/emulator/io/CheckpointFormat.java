@@ -0,0 +1,26 @@
+package dz.kalbo.emulator.io;
+
+/**
+ * Layout of the checkpoint files, big endian. A file is a sequence of frames appended one after the other, the
+ * first one is full and the next ones only hold the trams changed since the previous frame. A full frame is written
+ * again from time to time, the frames before it are no longer needed to restore.
+ * <pre>
+ * frame    magic, version, kind, frame size in bytes, time, width, height, zoom, removed count, trams count
+ * removed  tram id                             (trams removed since the previous frame)
+ * trams    tram id, state written by TramStore.writeState
+ * </pre>
+ * a frame cut by a crash while it was written is ignored when restoring
+ */
+final class CheckpointFormat {
+
+    static final int MAGIC = 0x5257434B; // RWCK
+    static final short VERSION = 3;
+
+    static final short FULL = 0;
+    static final short DELTA = 1;
+
+    static final int FRAME_HEADER_SIZE = 4 + 2 + 2 + 4 + 8 + 4 + 4 + 4 + 4 + 4;
+
+    private CheckpointFormat() {
+    }
+}
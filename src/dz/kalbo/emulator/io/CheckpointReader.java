@@ -0,0 +1,134 @@
+package dz.kalbo.emulator.io;
+
+import dz.kalbo.emulator.model.AbstractTranche;
+import dz.kalbo.emulator.model.RailwayModel;
+import dz.kalbo.emulator.model.TrackGraph;
+import dz.kalbo.emulator.model.Tram;
+import dz.kalbo.emulator.model.TramStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static dz.kalbo.emulator.io.CheckpointFormat.*;
+
+/**
+ * Restores a model from a checkpoint file written by {@link CheckpointWriter}. The frames from the last full one are
+ * replayed to find the last state of every tram, then only that state is read. The model must already hold the network the checkpoint was
+ * taken on and the engine must not be running.
+ */
+public final class CheckpointReader {
+
+    private CheckpointReader() {
+    }
+
+    /**
+     * put the trams of the model in the state of the last complete checkpoint, trams missing from the model are
+     * created and the ones missing from the checkpoint are removed
+     *
+     * @return the restored simulated time
+     */
+    public static long restore(RailwayModel model, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize > Integer.MAX_VALUE)
+                throw new IOException(file + " is too big");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            return restore(model, buffer, file);
+        }
+    }
+
+    private static long restore(RailwayModel model, MappedByteBuffer buffer, Path file) throws IOException {
+        // frame headers are enough to find the last full frame, only the frames from there are replayed
+        int first = -1;
+        int end = 0;
+        int limit = buffer.capacity();
+        while (limit - end >= FRAME_HEADER_SIZE) {
+            if (buffer.getInt(end) != MAGIC)
+                throw new IOException(file + " is not a checkpoint file");
+            short version = buffer.getShort(end + 4);
+            if (version != VERSION)
+                throw new IOException("unsupported checkpoint version " + version + " in " + file);
+            int size = buffer.getInt(end + 8);
+            if (size < FRAME_HEADER_SIZE || size > limit - end)
+                break; // the last frame was not completely written
+            if (buffer.getShort(end + 6) == FULL)
+                first = end;
+            end += size;
+        }
+        if (first < 0)
+            throw new IOException(file + " holds no complete checkpoint");
+
+        // offset of the last state of every tram, in checkpoint order
+        Map<Integer, Integer> states = new LinkedHashMap<>();
+        long time = 0;
+        for (int offset = first; offset < end; ) {
+            int size = buffer.getInt(offset + 8);
+            time = buffer.getLong(offset + 12);
+            int removed = buffer.getInt(offset + 32);
+            int trams = buffer.getInt(offset + 36);
+
+            int position = offset + FRAME_HEADER_SIZE;
+            for (int i = 0; i < removed; i++, position += 4)
+                states.remove(buffer.getInt(position));
+            for (int i = 0; i < trams; i++) {
+                int id = buffer.getInt(position);
+                states.remove(id);
+                states.put(id, position + 4);
+                position += 4 + TramStore.getStateSize(buffer, position + 4);
+            }
+            if (position != offset + size)
+                throw new IOException("corrupted checkpoint frame at byte " + offset + " in " + file);
+            offset += size;
+        }
+
+        apply(model, buffer, states);
+        model.restoreTime(time);
+        return time;
+    }
+
+    private static void apply(RailwayModel model, ByteBuffer buffer, Map<Integer, Integer> states) throws IOException {
+        TrackGraph graph = model.getTrackGraph();
+        Map<Integer, AbstractTranche> tranches = new HashMap<>(graph.size() * 2);
+        for (int i = 0; i < graph.size(); i++)
+            tranches.put(graph.getTranche(i).getId(), graph.getTranche(i));
+
+        Map<Integer, Tram> existing = new HashMap<>();
+        for (Tram tram : model.getTrams())
+            existing.put(tram.getId(), tram);
+
+        TramStore store = model.getTramStore();
+        ByteBuffer state = buffer.duplicate();
+        List<Tram> added = new ArrayList<>();
+        try {
+            for (Map.Entry<Integer, Integer> entry : states.entrySet()) {
+                Tram tram = existing.remove(entry.getKey());
+                if (tram == null) {
+                    tram = new Tram(store, entry.getKey(), 0, 0, 0, 0);
+                    added.add(tram);
+                }
+                state.position(entry.getValue());
+                store.readState(store.slotOf(tram), state, id -> {
+                    AbstractTranche tranche = tranches.get(id);
+                    if (tranche == null)
+                        throw new IllegalArgumentException("unknown tranche #" + id);
+                    return tranche;
+                });
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("checkpoint does not match the network: " + e.getMessage(), e);
+        }
+
+        model.addTrams(added);
+        for (Tram tram : existing.values())
+            model.removeTram(tram);
+    }
+}
@@ -0,0 +1,133 @@
+package dz.kalbo.emulator.io;
+
+import dz.kalbo.emulator.model.Context;
+import dz.kalbo.emulator.model.RailwayModel;
+import dz.kalbo.emulator.model.Tram;
+import dz.kalbo.emulator.model.TramStore;
+import dz.kalbo.emulator.tools.Kit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static dz.kalbo.emulator.io.CheckpointFormat.*;
+
+/**
+ * Appends checkpoints of a running model to a file, see {@link CheckpointFormat}. The first checkpoint holds every
+ * tram and the next ones only the trams changed since the previous one, so parked trams cost nothing. A full
+ * checkpoint is written again every few frames so restoring never replays more than that many frames. Checkpoints
+ * must be taken between ticks, from the engine thread or inside {@link RailwayModel#write}.
+ */
+public final class CheckpointWriter implements Closeable {
+
+    private final FileChannel channel;
+    private final int fullFrameInterval;
+    private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+    // the store whose changes are tracked, a checkpoint of another one is full
+    private TramStore store;
+    private int framesSinceFull;
+    private long frames;
+    private long bytes;
+
+    /**
+     * start a new checkpoint file, an existing one is replaced
+     */
+    public CheckpointWriter(Path file) throws IOException {
+        this(file, Kit.CHECKPOINT_FULL_FRAME_INTERVAL);
+    }
+
+    /**
+     * @param fullFrameInterval a full checkpoint is written every that many checkpoints
+     */
+    public CheckpointWriter(Path file, int fullFrameInterval) throws IOException {
+        if (fullFrameInterval <= 0)
+            throw new IllegalArgumentException("full frame interval must be positive");
+        this.fullFrameInterval = fullFrameInterval;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @return number of trams written in the checkpoint
+     */
+    public int write(RailwayModel model) throws IOException {
+        TramStore store = model.getTramStore();
+        List<Tram> trams = model.getTrams();
+        if (this.store != store) {
+            if (this.store != null)
+                this.store.setChangesTracked(false);
+            this.store = store;
+            store.setChangesTracked(true);
+            framesSinceFull = fullFrameInterval;
+        }
+        boolean full = framesSinceFull >= fullFrameInterval;
+        int removed = full ? 0 : store.getReleasedCount();
+
+        int tramsCount = 0;
+        long size = FRAME_HEADER_SIZE + removed * 4L;
+        for (Tram tram : trams) {
+            int slot = store.slotOf(tram);
+            if (full || store.isChanged(slot)) {
+                size += 4 + store.getStateSize(slot);
+                tramsCount++;
+            }
+        }
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("checkpoint too big");
+
+        ByteBuffer buffer = buffer((int) size);
+        Context context = model.getContext();
+        buffer.putInt(MAGIC).putShort(VERSION).putShort(full ? FULL : DELTA).putInt((int) size)
+                .putLong(context.getTime())
+                .putInt(context.getWidth()).putInt(context.getHeight()).putFloat(context.getZoom())
+                .putInt(removed).putInt(tramsCount);
+        for (int i = 0; i < removed; i++)
+            buffer.putInt(store.getReleasedId(i));
+        for (Tram tram : trams) {
+            int slot = store.slotOf(tram);
+            if (full || store.isChanged(slot)) {
+                buffer.putInt(tram.getId());
+                store.writeState(slot, buffer);
+            }
+        }
+
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        store.clearChanges();
+
+        framesSinceFull = full ? 1 : framesSinceFull + 1;
+        frames++;
+        bytes += size;
+        return tramsCount;
+    }
+
+    private ByteBuffer buffer(int size) {
+        if (buffer.capacity() < size)
+            buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        buffer.clear();
+        return buffer;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * stop tracking the changes of the model, must be called between ticks like {@link #write(RailwayModel)}
+     */
+    @Override
+    public void close() throws IOException {
+        if (store != null)
+            store.setChangesTracked(false);
+        channel.close();
+    }
+}
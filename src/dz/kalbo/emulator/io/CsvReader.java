@@ -0,0 +1,146 @@
+package dz.kalbo.emulator.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads comma separated records field by field, a record ends with its line. Blank lines and lines starting with
+ * '#' are skipped, fields may be quoted with '"'. The first record can be declared a header naming the fields, it
+ * is then skipped.
+ */
+final class CsvReader extends CharInput {
+
+    private static final char SEPARATOR = ',';
+
+    // true when the current record still has fields to read
+    private boolean inRecord;
+
+    // true until the header record is skipped
+    private boolean header;
+
+    /**
+     * @param header true if the first record names the fields
+     */
+    CsvReader(Reader reader, boolean header) {
+        super(reader);
+        this.header = header;
+    }
+
+    /**
+     * move to the next record, what is left of the current one is skipped
+     *
+     * @return false when the input ended
+     */
+    boolean nextRecord() throws IOException {
+        if (header) {
+            header = false;
+            if (!skipToRecord())
+                return false;
+            skipLine();
+        }
+        if (inRecord)
+            skipLine();
+        return skipToRecord();
+    }
+
+    private boolean skipToRecord() throws IOException {
+        while (true) {
+            int c = peekChar();
+            if (c == CharInput.EOF)
+                return inRecord = false;
+            if (c == '\n' || c == '\r')
+                readChar();
+            else if (c == '#')
+                skipLine();
+            else
+                return inRecord = true;
+        }
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        while ((c = readChar()) != CharInput.EOF && c != '\n') ;
+        inRecord = false;
+    }
+
+    boolean hasField() throws IOException {
+        skipSpaces();
+        return inRecord;
+    }
+
+    private void skipSpaces() throws IOException {
+        int c;
+        while ((c = peekChar()) == ' ' || c == '\t')
+            readChar();
+    }
+
+    /**
+     * consume the separator after a field, or the end of the record
+     */
+    private void endField() throws IOException {
+        skipSpaces();
+        int c = peekChar();
+        if (c == SEPARATOR) {
+            readChar();
+        } else if (c == '\r' || c == '\n' || c == CharInput.EOF) {
+            skipLine();
+        } else {
+            throw error("unexpected '" + (char) c + "'");
+        }
+    }
+
+    private void checkField() throws IOException {
+        if (!hasField())
+            throw error("missing field");
+    }
+
+    String nextString() throws IOException {
+        checkField();
+        StringBuilder text = text();
+        int c = peekChar();
+        if (c == '"') {
+            readChar();
+            while (true) {
+                c = readChar();
+                if (c == CharInput.EOF)
+                    throw error("unterminated quoted field");
+                if (c == '"') {
+                    if (peekChar() != '"')
+                        break;
+                    readChar();
+                }
+                text.append((char) c);
+            }
+        } else {
+            while ((c = peekChar()) != SEPARATOR && c != '\r' && c != '\n' && c != CharInput.EOF)
+                text.append((char) readChar());
+            while (text.length() > 0 && text.charAt(text.length() - 1) <= ' ')
+                text.setLength(text.length() - 1);
+        }
+        endField();
+        return text.toString();
+    }
+
+    int nextInt() throws IOException {
+        checkField();
+        int value = readInt();
+        endField();
+        return value;
+    }
+
+    double nextDouble() throws IOException {
+        checkField();
+        double value = readDouble();
+        endField();
+        return value;
+    }
+
+    boolean nextBoolean() throws IOException {
+        String value = nextString();
+        if (value.equals("true") || value.equals("1"))
+            return true;
+        if (value.equals("false") || value.equals("0") || value.isEmpty())
+            return false;
+        throw error("boolean expected but found " + value);
+    }
+}
@@ -0,0 +1,172 @@
+package dz.kalbo.emulator.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A pull tokenizer for JSON, values are read one after the other as the importer asks for them so nothing but the
+ * current token is kept in memory. Commas are treated as separators and are not strictly checked.
+ */
+final class JsonReader extends CharInput {
+
+    JsonReader(Reader reader) {
+        super(reader);
+    }
+
+    /**
+     * @return the next significant character without consuming it or {@link #EOF}
+     */
+    int peek() throws IOException {
+        int c;
+        while ((c = peekChar()) == ' ' || c == '\n' || c == '\r' || c == '\t')
+            readChar();
+        return c;
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peek();
+        if (c != expected)
+            throw error(c == EOF ? "expected '" + expected + "' but input ended" : "expected '" + expected + "' but found '" + (char) c + "'");
+        readChar();
+    }
+
+    void beginObject() throws IOException {
+        expect('{');
+    }
+
+    void endObject() throws IOException {
+        expect('}');
+    }
+
+    void beginArray() throws IOException {
+        expect('[');
+    }
+
+    void endArray() throws IOException {
+        expect(']');
+    }
+
+    /**
+     * @return true if the current object or array has another member, the separating comma is consumed
+     */
+    boolean hasNext() throws IOException {
+        int c = peek();
+        if (c == ',') {
+            readChar();
+            c = peek();
+        }
+        return c != '}' && c != ']' && c != EOF;
+    }
+
+    String nextName() throws IOException {
+        String name = nextString();
+        expect(':');
+        return name;
+    }
+
+    String nextString() throws IOException {
+        expect('"');
+        StringBuilder text = text();
+        int c;
+        while ((c = readChar()) != '"') {
+            if (c == EOF)
+                throw error("unterminated string");
+            if (c == '\\')
+                text.append(readEscape());
+            else
+                text.append((char) c);
+        }
+        return text.toString();
+    }
+
+    private char readEscape() throws IOException {
+        int c = readChar();
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++)
+                    value = value * 16 + Character.digit(readChar(), 16);
+                return (char) value;
+            case EOF:
+                throw error("unterminated string");
+            default:
+                return (char) c;
+        }
+    }
+
+    int nextInt() throws IOException {
+        peek();
+        return readInt();
+    }
+
+    double nextDouble() throws IOException {
+        peek();
+        return readDouble();
+    }
+
+    boolean nextBoolean() throws IOException {
+        int c = peek();
+        if (c == 't') {
+            expectLiteral("true");
+            return true;
+        }
+        if (c == 'f') {
+            expectLiteral("false");
+            return false;
+        }
+        throw error("boolean expected");
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++)
+            if (readChar() != literal.charAt(i))
+                throw error(literal + " expected");
+    }
+
+    /**
+     * skip the next value whatever it is, nested objects and arrays included
+     */
+    void skipValue() throws IOException {
+        int c = peek();
+        switch (c) {
+            case '{':
+                beginObject();
+                while (hasNext()) {
+                    nextName();
+                    skipValue();
+                }
+                endObject();
+                break;
+            case '[':
+                beginArray();
+                while (hasNext())
+                    skipValue();
+                endArray();
+                break;
+            case '"':
+                nextString();
+                break;
+            case 't':
+            case 'f':
+                nextBoolean();
+                break;
+            case 'n':
+                expectLiteral("null");
+                break;
+            case EOF:
+                throw error("unexpected end of input");
+            default:
+                readDouble();
+        }
+    }
+}
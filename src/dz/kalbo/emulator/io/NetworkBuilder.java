@@ -0,0 +1,131 @@
+package dz.kalbo.emulator.io;
+
+import dz.kalbo.emulator.model.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects streamed records into a model. Records refer to tranches by id and may come before the tranches they
+ * refer to, links are made as soon as both ends are known and the others wait for {@link #build()}.
+ */
+final class NetworkBuilder {
+
+    // tranches are built before the model exists, geometry is in world units so any zoom 1 context does
+    private final Context buildContext = new Context(0, 0, 1f);
+
+    private final Map<Integer, AbstractTranche> tranches = new HashMap<>();
+    private final List<Road> roads = new ArrayList<>();
+    private final List<int[]> roadsHeads = new ArrayList<>();
+
+    // (from, to) ids of the links waiting for a tranche
+    private int[] pendingLinks = new int[64];
+    private int pendingLinksCount;
+
+    private int width;
+    private int height;
+    private int maxX;
+    private int maxY;
+    private long elements;
+
+    void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * @return number of records given so far, tranches, links and roads
+     */
+    long getElements() {
+        return elements;
+    }
+
+    void addStraightTranche(int id, int startX, int startY, int endX, int endY) throws IOException {
+        addTranche(id, startX, startY, endX, endY, false, false);
+    }
+
+    void addArcTranche(int id, int startX, int startY, int endX, int endY, boolean southDirection) throws IOException {
+        addTranche(id, startX, startY, endX, endY, true, southDirection);
+    }
+
+    private void addTranche(int id, int startX, int startY, int endX, int endY, boolean arc, boolean southDirection) throws IOException {
+        ScalablePoint start = new ScalablePoint(startX, startY);
+        ScalablePoint end = new ScalablePoint(endX, endY);
+        AbstractTranche tranche;
+        try {
+            if (arc) {
+                ArcTranche arcTranche = new ArcTranche(id, start, end, buildContext);
+                arcTranche.setSouthDirection(southDirection);
+                tranche = arcTranche;
+            } else {
+                tranche = new StraightTranche(id, start, end, buildContext);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("tranche #" + id + ": " + e.getMessage(), e);
+        }
+        if (tranches.putIfAbsent(id, tranche) != null)
+            throw new IOException("duplicated tranche #" + id);
+
+        maxX = Math.max(maxX, Math.max(startX, endX));
+        maxY = Math.max(maxY, Math.max(startY, endY));
+        elements++;
+    }
+
+    void addLink(int fromId, int toId) {
+        AbstractTranche from = tranches.get(fromId);
+        AbstractTranche to = tranches.get(toId);
+        if (from != null && to != null) {
+            from.addNext(to);
+        } else {
+            if (pendingLinksCount + 2 > pendingLinks.length)
+                pendingLinks = Arrays.copyOf(pendingLinks, pendingLinks.length * 2);
+            pendingLinks[pendingLinksCount++] = fromId;
+            pendingLinks[pendingLinksCount++] = toId;
+        }
+        elements++;
+    }
+
+    /**
+     * @param headIds ids of the road head tranches in their priority order
+     */
+    void addRoad(int id, int radios, int thickness, int[] headIds) {
+        roads.add(new Road(id, buildContext, radios, thickness));
+        roadsHeads.add(headIds);
+        elements++;
+    }
+
+    private AbstractTranche resolve(int id, String usage) throws IOException {
+        AbstractTranche tranche = tranches.get(id);
+        if (tranche == null)
+            throw new IOException("unknown tranche #" + id + " in " + usage);
+        return tranche;
+    }
+
+    RailwayModel build() throws IOException {
+        for (int i = 0; i < pendingLinksCount; i += 2) {
+            String usage = "link " + pendingLinks[i] + " -> " + pendingLinks[i + 1];
+            resolve(pendingLinks[i], usage).addNext(resolve(pendingLinks[i + 1], usage));
+        }
+
+        // heads are added after links, setHead would link the previous heads otherwise
+        for (int i = 0; i < roads.size(); i++) {
+            Road road = roads.get(i);
+            for (int headId : roadsHeads.get(i))
+                road.addLastToHead(resolve(headId, "road #" + road.getId()));
+        }
+
+        // without a given size the model is made just big enough for the network
+        RailwayModel model = new RailwayModel(width > 0 ? width : maxX + 1, height > 0 ? height : maxY + 1);
+        Context context = model.getContext();
+        for (AbstractTranche tranche : tranches.values())
+            tranche.update(context);
+        for (Road road : roads)
+            road.update(context);
+        model.addRoads(roads);
+        return model;
+    }
+}
@@ -0,0 +1,40 @@
+package dz.kalbo.emulator.io;
+
+/**
+ * Layout of the binary network files, all numbers are big endian and every section is made of fixed size
+ * records so a loader can jump to any record without parsing the ones before it.
+ * <pre>
+ * header   magic, version, width, height, then the roads, tranches, heads, links and trams counts
+ * roads    id, radios, thickness
+ * tranches id, type, flags, start x, start y, end x, end y
+ * heads    road index, tranche index          (in the order of the road head tranches)
+ * links    from tranche index, to tranche index (a next link, the previews link is implied)
+ * trams    id, locomotive length, wagon length, wagons count, width, flags, head tranche index, progress, speed
+ * </pre>
+ * tranches are referenced by their index in the tranches section, not by their id
+ */
+final class NetworkFormat {
+
+    static final int MAGIC = 0x52574E46; // RWNF
+    static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 4 + 2 + 2 + 4 + 4 + 5 * 4;
+    static final int ROAD_SIZE = 3 * 4;
+    static final int TRANCHE_SIZE = 4 + 1 + 1 + 2 + 4 * 4;
+    static final int HEAD_SIZE = 2 * 4;
+    static final int LINK_SIZE = 2 * 4;
+    static final int TRAM_SIZE = 4 + 4 * 4 + 4 + 4 + 4 + 8;
+
+    static final byte STRAIGHT_TRANCHE = 0;
+    static final byte ARC_TRANCHE = 1;
+
+    static final byte SOUTH_DIRECTION = 1;
+
+    static final int DOUBLE_LOCOMOTIVE = 1;
+    static final int DIRECTION_TO_START = 1 << 1;
+
+    static final int NO_TRANCHE = -1;
+
+    private NetworkFormat() {
+    }
+}
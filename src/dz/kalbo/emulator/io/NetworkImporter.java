@@ -0,0 +1,359 @@
+package dz.kalbo.emulator.io;
+
+import dz.kalbo.emulator.model.RailwayModel;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Imports layouts exported as text by planning tools. Documents are streamed record by record so their size does
+ * not matter, only the built model is kept in memory. Records may refer to tranches defined further on.
+ * <p>
+ * JSON layout, members can come in any order and unknown ones are skipped:
+ * <pre>
+ * {
+ *   "width": 700, "height": 500,
+ *   "tranches": [{"id": 1, "type": "straight", "start": [270, 140], "end": [230, 50], "next": [2]},
+ *                {"id": 2, "type": "arc", "start": [230, 50], "end": [420, 90], "south": true}],
+ *   "links": [{"from": 2, "to": 1}],
+ *   "roads": [{"id": 1, "radios": 2, "thickness": 4, "heads": [1]}]
+ * }
+ * </pre>
+ * CSV layout, one record per line and the record type first:
+ * <pre>
+ * size,700,500
+ * straight,1,270,140,230,50
+ * arc,2,230,50,420,90,true
+ * link,1,2
+ * road,1,2,4,1          (id, radios, thickness then the head tranches ids)
+ * </pre>
+ * width and height are optional, the model is made as big as the network without them. A CSV layout may start with
+ * a line naming the columns when the importer is told so with {@link #setCsvHeader(boolean)}.
+ */
+public final class NetworkImporter {
+
+    public enum Format {
+        JSON, CSV;
+
+        public static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            return name.endsWith(".csv") ? CSV : JSON;
+        }
+    }
+
+    private boolean csvHeader;
+
+    private long elements;
+    private long characters;
+    private long elapsedNanos;
+
+    public boolean isCsvHeader() {
+        return csvHeader;
+    }
+
+    /**
+     * @param csvHeader true if the first line of CSV layouts names the columns, it is skipped
+     */
+    public void setCsvHeader(boolean csvHeader) {
+        this.csvHeader = csvHeader;
+    }
+
+    public RailwayModel importFile(Path file) throws IOException {
+        return importFile(file, Format.of(file));
+    }
+
+    public RailwayModel importFile(Path file, Format format) throws IOException {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            return format == Format.CSV ? importCsv(reader) : importJson(reader);
+        }
+    }
+
+    public RailwayModel importJson(Reader reader) throws IOException {
+        long start = System.nanoTime();
+        JsonReader json = new JsonReader(reader);
+        NetworkBuilder builder = new NetworkBuilder();
+        int width = 0;
+        int height = 0;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "width":
+                    width = json.nextInt();
+                    break;
+                case "height":
+                    height = json.nextInt();
+                    break;
+                case "tranches":
+                    json.beginArray();
+                    while (json.hasNext())
+                        readJsonTranche(json, builder);
+                    json.endArray();
+                    break;
+                case "links":
+                    json.beginArray();
+                    while (json.hasNext())
+                        readJsonLink(json, builder);
+                    json.endArray();
+                    break;
+                case "roads":
+                    json.beginArray();
+                    while (json.hasNext())
+                        readJsonRoad(json, builder);
+                    json.endArray();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+
+        builder.setSize(width, height);
+        return finish(builder, json, start);
+    }
+
+    private static void readJsonTranche(JsonReader json, NetworkBuilder builder) throws IOException {
+        int id = 0;
+        boolean hasId = false;
+        String type = null;
+        int[] start = null;
+        int[] end = null;
+        boolean south = false;
+        int[] next = null;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id":
+                    id = json.nextInt();
+                    hasId = true;
+                    break;
+                case "type":
+                    type = json.nextString();
+                    break;
+                case "start":
+                    start = readJsonInts(json);
+                    break;
+                case "end":
+                    end = readJsonInts(json);
+                    break;
+                case "south":
+                    south = json.nextBoolean();
+                    break;
+                case "next":
+                    next = readJsonInts(json);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+
+        if (!hasId)
+            throw json.error("a tranche needs an id");
+        if (start == null || start.length != 2 || end == null || end.length != 2)
+            throw json.error("tranche #" + id + " needs a start and an end point");
+        if ("arc".equals(type))
+            builder.addArcTranche(id, start[0], start[1], end[0], end[1], south);
+        else if (type == null || "straight".equals(type))
+            builder.addStraightTranche(id, start[0], start[1], end[0], end[1]);
+        else
+            throw json.error("unknown tranche type " + type + " for tranche #" + id);
+
+        if (next != null)
+            for (int nextId : next)
+                builder.addLink(id, nextId);
+    }
+
+    /**
+     * a link is either {"from": 1, "to": 2} or [1, 2]
+     */
+    private static void readJsonLink(JsonReader json, NetworkBuilder builder) throws IOException {
+        if (json.peek() == '[') {
+            int[] link = readJsonInts(json);
+            if (link.length != 2)
+                throw json.error("a link needs two tranches");
+            builder.addLink(link[0], link[1]);
+            return;
+        }
+
+        int from = 0;
+        int to = 0;
+        boolean hasFrom = false;
+        boolean hasTo = false;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "from":
+                    from = json.nextInt();
+                    hasFrom = true;
+                    break;
+                case "to":
+                    to = json.nextInt();
+                    hasTo = true;
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (!hasFrom || !hasTo)
+            throw json.error("a link needs a from and a to tranche");
+        builder.addLink(from, to);
+    }
+
+    private static void readJsonRoad(JsonReader json, NetworkBuilder builder) throws IOException {
+        int id = 0;
+        boolean hasId = false;
+        int radios = 0;
+        int thickness = 0;
+        int[] heads = new int[0];
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id":
+                    id = json.nextInt();
+                    hasId = true;
+                    break;
+                case "radios":
+                    radios = json.nextInt();
+                    break;
+                case "thickness":
+                    thickness = json.nextInt();
+                    break;
+                case "heads":
+                    heads = readJsonInts(json);
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        if (!hasId)
+            throw json.error("a road needs an id");
+        builder.addRoad(id, radios, thickness, heads);
+    }
+
+    private static int[] readJsonInts(JsonReader json) throws IOException {
+        int[] values = new int[2];
+        int count = 0;
+        json.beginArray();
+        while (json.hasNext()) {
+            if (count == values.length)
+                values = Arrays.copyOf(values, count * 2);
+            values[count++] = json.nextInt();
+        }
+        json.endArray();
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    public RailwayModel importCsv(Reader reader) throws IOException {
+        long start = System.nanoTime();
+        CsvReader csv = new CsvReader(reader, csvHeader);
+        NetworkBuilder builder = new NetworkBuilder();
+
+        while (csv.nextRecord()) {
+            String type = csv.nextString();
+            switch (type) {
+                case "size":
+                    builder.setSize(csv.nextInt(), csv.nextInt());
+                    break;
+                case "straight":
+                    builder.addStraightTranche(csv.nextInt(), csv.nextInt(), csv.nextInt(), csv.nextInt(), csv.nextInt());
+                    break;
+                case "arc":
+                    int id = csv.nextInt();
+                    int startX = csv.nextInt();
+                    int startY = csv.nextInt();
+                    int endX = csv.nextInt();
+                    int endY = csv.nextInt();
+                    builder.addArcTranche(id, startX, startY, endX, endY, csv.hasField() && csv.nextBoolean());
+                    break;
+                case "link":
+                    builder.addLink(csv.nextInt(), csv.nextInt());
+                    break;
+                case "road":
+                    int roadId = csv.nextInt();
+                    int radios = csv.nextInt();
+                    int thickness = csv.nextInt();
+                    int[] heads = new int[2];
+                    int count = 0;
+                    while (csv.hasField()) {
+                        if (count == heads.length)
+                            heads = Arrays.copyOf(heads, count * 2);
+                        heads[count++] = csv.nextInt();
+                    }
+                    builder.addRoad(roadId, radios, thickness, Arrays.copyOf(heads, count));
+                    break;
+                default:
+                    throw csv.error("unknown record " + type);
+            }
+        }
+
+        return finish(builder, csv, start);
+    }
+
+    private RailwayModel finish(NetworkBuilder builder, CharInput input, long start) throws IOException {
+        RailwayModel model = builder.build();
+        this.elements = builder.getElements();
+        this.characters = input.getOffset();
+        this.elapsedNanos = System.nanoTime() - start;
+        return model;
+    }
+
+    /**
+     * @return number of tranches, links and roads read by the last import
+     */
+    public long getElements() {
+        return elements;
+    }
+
+    public long getCharacters() {
+        return characters;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getElementsPerSecond() {
+        return elapsedNanos > 0 ? elements * 1_000_000_000d / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "imported %d elements (%d characters) in %.1f ms, %.0f elements/s",
+                elements, characters, elapsedNanos / 1_000_000d, getElementsPerSecond());
+    }
+
+    /**
+     * import a JSON or CSV layout and print the throughput, the network is saved in the binary format when an
+     * output file is given, --header tells that a CSV layout starts with a line naming the columns. Parse errors are
+     * thrown, the JVM exits once the model threads are stopped.
+     */
+    public static void main(String[] args) throws IOException {
+        int first = args.length > 0 && args[0].equals("--header") ? 1 : 0;
+        if (args.length == first) {
+            System.out.println("usage: NetworkImporter [--header] <layout.json|layout.csv> [network.bin]");
+            return;
+        }
+        NetworkImporter importer = new NetworkImporter();
+        importer.setCsvHeader(first > 0);
+        RailwayModel model = importer.importFile(Paths.get(args[first]));
+        System.out.println(importer);
+        try {
+            if (args.length > first + 1)
+                NetworkWriter.write(model, Paths.get(args[first + 1]));
+        } finally {
+            model.close();
+        }
+    }
+}
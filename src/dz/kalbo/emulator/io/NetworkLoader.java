@@ -0,0 +1,141 @@
+package dz.kalbo.emulator.io;
+
+import dz.kalbo.emulator.model.*;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static dz.kalbo.emulator.io.NetworkFormat.*;
+
+/**
+ * Builds a model from a {@link NetworkFormat binary network file}. The file is memory mapped and records are read
+ * with absolute gets at their fixed offsets, there is no parsing and no intermediate objects. The model is built
+ * at zoom 1 so saved world units are used as they are.
+ */
+public final class NetworkLoader {
+
+    private NetworkLoader() {
+    }
+
+    public static RailwayModel load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE)
+                throw new IOException(file + " is not a network file");
+            if (fileSize > Integer.MAX_VALUE)
+                throw new IOException(file + " is too big");
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            return load(buffer, file);
+        }
+    }
+
+    private static RailwayModel load(MappedByteBuffer buffer, Path file) throws IOException {
+        if (buffer.getInt(0) != MAGIC)
+            throw new IOException(file + " is not a network file");
+        short version = buffer.getShort(4);
+        if (version != VERSION)
+            throw new IOException("unsupported network file version " + version + " in " + file);
+
+        int width = buffer.getInt(8);
+        int height = buffer.getInt(12);
+        int roadsCount = buffer.getInt(16);
+        int tranchesCount = buffer.getInt(20);
+        int headsCount = buffer.getInt(24);
+        int linksCount = buffer.getInt(28);
+        int tramsCount = buffer.getInt(32);
+
+        if (roadsCount < 0 || tranchesCount < 0 || headsCount < 0 || linksCount < 0 || tramsCount < 0)
+            throw new IOException(file + " is corrupted, negative count");
+        // in long so corrupted counts can not overflow, the end is checked before any int offset is used
+        long end = HEADER_SIZE + (long) roadsCount * ROAD_SIZE + (long) tranchesCount * TRANCHE_SIZE
+                + (long) headsCount * HEAD_SIZE + (long) linksCount * LINK_SIZE + (long) tramsCount * TRAM_SIZE;
+        if (end > buffer.capacity())
+            throw new IOException(file + " is truncated");
+
+        int roadsOffset = HEADER_SIZE;
+        int tranchesOffset = roadsOffset + roadsCount * ROAD_SIZE;
+        int headsOffset = tranchesOffset + tranchesCount * TRANCHE_SIZE;
+        int linksOffset = headsOffset + headsCount * HEAD_SIZE;
+        int tramsOffset = linksOffset + linksCount * LINK_SIZE;
+
+        RailwayModel model = new RailwayModel(width, height);
+        Context context = model.getContext();
+
+        Road[] roads = new Road[roadsCount];
+        for (int i = 0, offset = roadsOffset; i < roadsCount; i++, offset += ROAD_SIZE)
+            roads[i] = new Road(buffer.getInt(offset), context, buffer.getInt(offset + 4), buffer.getInt(offset + 8));
+
+        AbstractTranche[] tranches = new AbstractTranche[tranchesCount];
+        for (int i = 0, offset = tranchesOffset; i < tranchesCount; i++, offset += TRANCHE_SIZE)
+            tranches[i] = readTranche(buffer, offset, context);
+
+        // links before heads, setHead would link the previous heads to the new one otherwise
+        for (int i = 0, offset = linksOffset; i < linksCount; i++, offset += LINK_SIZE)
+            tranches[index(buffer, offset, tranchesCount, "link")]
+                    .addNext(tranches[index(buffer, offset + 4, tranchesCount, "link")]);
+
+        for (int i = 0, offset = headsOffset; i < headsCount; i++, offset += HEAD_SIZE)
+            roads[index(buffer, offset, roadsCount, "head")]
+                    .addLastToHead(tranches[index(buffer, offset + 4, tranchesCount, "head")]);
+
+        model.addRoads(Arrays.asList(roads));
+
+        TramStore store = model.getTramStore();
+        Tram[] trams = new Tram[tramsCount];
+        for (int i = 0, offset = tramsOffset; i < tramsCount; i++, offset += TRAM_SIZE)
+            trams[i] = readTram(buffer, offset, store, tranches);
+        model.addTrams(Arrays.asList(trams));
+
+        return model;
+    }
+
+    /**
+     * @return the index read at the offset, checked against the size of the section it points into
+     */
+    private static int index(MappedByteBuffer buffer, int offset, int count, String record) throws IOException {
+        int index = buffer.getInt(offset);
+        if (index < 0 || index >= count)
+            throw new IOException("corrupted " + record + " record at " + offset + ", index " + index
+                    + " is out of 0.." + (count - 1));
+        return index;
+    }
+
+    private static AbstractTranche readTranche(MappedByteBuffer buffer, int offset, Context context) throws IOException {
+        int id = buffer.getInt(offset);
+        byte type = buffer.get(offset + 4);
+        ScalablePoint start = new ScalablePoint(buffer.getInt(offset + 8), buffer.getInt(offset + 12));
+        ScalablePoint end = new ScalablePoint(buffer.getInt(offset + 16), buffer.getInt(offset + 20));
+        try {
+            switch (type) {
+                case STRAIGHT_TRANCHE:
+                    return new StraightTranche(id, start, end, context);
+                case ARC_TRANCHE:
+                    ArcTranche arc = new ArcTranche(id, start, end, context);
+                    arc.setSouthDirection((buffer.get(offset + 5) & SOUTH_DIRECTION) != 0);
+                    return arc;
+                default:
+                    throw new IOException("unknown tranche type " + type + " for tranche #" + id);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupted tranche record at " + offset + ", tranche #" + id + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Tram readTram(MappedByteBuffer buffer, int offset, TramStore store, AbstractTranche[] tranches)
+            throws IOException {
+        Tram tram = new Tram(store, buffer.getInt(offset), buffer.getInt(offset + 4), buffer.getInt(offset + 8),
+                buffer.getInt(offset + 12), buffer.getInt(offset + 16));
+        int flags = buffer.getInt(offset + 20);
+        tram.setDoubleLocomotive((flags & DOUBLE_LOCOMOTIVE) != 0);
+        tram.setDirectionToStart((flags & DIRECTION_TO_START) != 0);
+
+        if (buffer.getInt(offset + 24) != NO_TRANCHE)
+            tram.updatePosition(tranches[index(buffer, offset + 24, tranches.length, "tram")], buffer.getFloat(offset + 28), new Speed(buffer.getDouble(offset + 32)));
+        return tram;
+    }
+}
@@ -0,0 +1,111 @@
+package dz.kalbo.emulator.io;
+
+import dz.kalbo.emulator.model.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+
+import static dz.kalbo.emulator.io.NetworkFormat.*;
+
+/**
+ * Saves roads, tranches, their links and trams in the {@link NetworkFormat binary network format}. Only tranches
+ * reachable from the roads heads are saved. The model is encoded under its read lock with the graph it runs on,
+ * the file is written once the lock is released.
+ */
+public final class NetworkWriter {
+
+    private NetworkWriter() {
+    }
+
+    public static void write(RailwayModel model, Path file) throws IOException {
+        ByteBuffer[] encoded = new ByteBuffer[1];
+        model.read(m -> encoded[0] = encode(m));
+        ByteBuffer buffer = encoded[0];
+        if (buffer == null)
+            throw new InterruptedIOException("interrupted while waiting for the model");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer encode(RailwayModel model) {
+        List<Road> roads = model.getRoads();
+        List<Tram> trams = model.getTrams();
+        // the graph of the model, compiling another one would renumber the tranches the trams are running on
+        TrackGraph graph = model.getTrackGraph();
+
+        int headsCount = 0;
+        for (Road road : roads)
+            headsCount += road.getHeadTranches().size();
+        int linksCount = 0;
+        for (int i = 0; i < graph.size(); i++)
+            linksCount += graph.getNextCount(i);
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + roads.size() * ROAD_SIZE + graph.size() * TRANCHE_SIZE
+                + headsCount * HEAD_SIZE + linksCount * LINK_SIZE + trams.size() * TRAM_SIZE);
+
+        Context context = model.getContext();
+        buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                .putInt(context.getWidth()).putInt(context.getHeight())
+                .putInt(roads.size()).putInt(graph.size()).putInt(headsCount).putInt(linksCount).putInt(trams.size());
+
+        for (Road road : roads)
+            buffer.putInt(road.getId()).putInt(road.getRadios()).putInt(road.getThickness());
+
+        for (int i = 0; i < graph.size(); i++)
+            putTranche(buffer, graph.getTranche(i));
+
+        for (int r = 0; r < roads.size(); r++)
+            putHeads(buffer, r, roads.get(r).getHeadTranches(), graph);
+
+        for (int i = 0; i < graph.size(); i++)
+            for (int n = 0; n < graph.getNextCount(i); n++)
+                buffer.putInt(i).putInt(graph.getNext(i, n));
+
+        for (Tram tram : trams)
+            putTram(buffer, tram, graph);
+
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void putTranche(ByteBuffer buffer, AbstractTranche tranche) {
+        boolean arc = tranche instanceof ArcTranche;
+        boolean south = arc && ((ArcTranche) tranche).isSouthDirection();
+        ScalablePoint start = tranche.getStart();
+        ScalablePoint end = tranche.getEnd();
+        buffer.putInt(tranche.getId())
+                .put(arc ? ARC_TRANCHE : STRAIGHT_TRANCHE)
+                .put(south ? SOUTH_DIRECTION : 0)
+                .putShort((short) 0)
+                .putInt(start.x).putInt(start.y).putInt(end.x).putInt(end.y);
+    }
+
+    private static void putHeads(ByteBuffer buffer, int road, Collection<AbstractTranche> heads, TrackGraph graph) {
+        for (AbstractTranche head : heads)
+            buffer.putInt(road).putInt(graph.indexOf(head));
+    }
+
+    private static void putTram(ByteBuffer buffer, Tram tram, TrackGraph graph) {
+        AbstractTranche head = tram.getHeadTranche();
+        int flags = (tram.isDoubleLocomotive() ? DOUBLE_LOCOMOTIVE : 0) | (tram.isDirectionToStart() ? DIRECTION_TO_START : 0);
+        buffer.putInt(tram.getId())
+                .putInt(tram.getLocomotiveLength().length)
+                .putInt(tram.getWagonLength().length)
+                .putInt(tram.getWagonsCount())
+                .putInt(tram.getWidth())
+                .putInt(flags)
+                .putInt(head != null ? graph.indexOf(head) : NO_TRANCHE)
+                .putFloat(tram.getHeadProgress())
+                .putDouble(tram.getSpeed().speed);
+    }
+}
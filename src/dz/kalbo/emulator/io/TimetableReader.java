@@ -0,0 +1,120 @@
+package dz.kalbo.emulator.io;
+
+import dz.kalbo.emulator.model.Route;
+import dz.kalbo.emulator.model.Timetable;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a {@link Timetable} from CSV, one record per line and the record type first. Routes are named once and
+ * shared by all their departures:
+ * <pre>
+ * route,A,end,1,2,3,4      (name, way then the tranches ids)
+ * route,B,start,4,3,2,1
+ * departure,06:00,A,50,15,20,4,5
+ * departure,06:07:30,A,50,15,20,2,5
+ * </pre>
+ * a route going to the end follows next links, one going to the start follows previews links. A departure gives
+ * its time, its route, the speed in world units per second, the locomotive length, the wagon length, the wagons
+ * count and the width. Times are hh:mm[:ss] or a number of ms since the model start.
+ */
+public final class TimetableReader {
+
+    private TimetableReader() {
+    }
+
+    public static Timetable read(Path file) throws IOException {
+        return read(file, false);
+    }
+
+    /**
+     * @param header true if the first line names the columns, it is skipped
+     */
+    public static Timetable read(Path file, boolean header) throws IOException {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8)) {
+            return read(reader, header);
+        }
+    }
+
+    public static Timetable read(Reader reader) throws IOException {
+        return read(reader, false);
+    }
+
+    /**
+     * @param header true if the first line names the columns, it is skipped
+     */
+    public static Timetable read(Reader reader, boolean header) throws IOException {
+        CsvReader csv = new CsvReader(reader, header);
+        Timetable timetable = new Timetable();
+        Map<String, Route> routes = new HashMap<>();
+
+        while (csv.nextRecord()) {
+            String type = csv.nextString();
+            switch (type) {
+                case "route":
+                    String name = csv.nextString();
+                    boolean towardNext = parseWay(csv.nextString(), csv);
+                    int[] ids = new int[8];
+                    int count = 0;
+                    while (csv.hasField()) {
+                        if (count == ids.length)
+                            ids = Arrays.copyOf(ids, count * 2);
+                        ids[count++] = csv.nextInt();
+                    }
+                    if (count == 0)
+                        throw csv.error("route " + name + " has no tranche");
+                    routes.put(name, new Route(towardNext, Arrays.copyOf(ids, count)));
+                    break;
+                case "departure":
+                    long time = parseTime(csv.nextString(), csv);
+                    String routeName = csv.nextString();
+                    Route route = routes.get(routeName);
+                    if (route == null)
+                        throw csv.error("unknown route " + routeName);
+                    double speed = csv.nextDouble() / 1000d;
+                    if (speed <= 0)
+                        throw csv.error("departure speed must be positive");
+                    timetable.add(time, route, speed, csv.nextInt(), csv.nextInt(), csv.nextInt(), csv.nextInt());
+                    break;
+                default:
+                    throw csv.error("unknown record " + type);
+            }
+        }
+        return timetable;
+    }
+
+    private static boolean parseWay(String text, CsvReader csv) throws IOException {
+        switch (text) {
+            case "end":
+                return true;
+            case "start":
+                return false;
+            default:
+                throw csv.error("route way must be end or start but found " + text);
+        }
+    }
+
+    private static long parseTime(String text, CsvReader csv) throws IOException {
+        try {
+            if (text.indexOf(':') < 0)
+                return Long.parseLong(text);
+            String[] parts = text.split(":");
+            if (parts.length > 3)
+                throw csv.error("invalid time " + text);
+            long seconds = 0;
+            for (int i = 0; i < 3; i++)
+                seconds = seconds * 60 + (i < parts.length ? Integer.parseInt(parts[i]) : 0);
+            return seconds * 1000;
+        } catch (NumberFormatException e) {
+            throw csv.error("invalid time " + text);
+        }
+    }
+}
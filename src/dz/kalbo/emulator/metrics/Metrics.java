@@ -0,0 +1,142 @@
+package dz.kalbo.emulator.metrics;
+
+import dz.kalbo.emulator.tools.Kit;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named histograms and counters shared by the engine, the model and the view. Instruments are created on first
+ * use and kept forever, callers look them up once and keep the reference. The registry can be published through
+ * JMX and dumped periodically to a CSV file, one line per instrument and dump.
+ */
+public final class Metrics {
+
+    public static final String OBJECT_NAME = "dz.kalbo.emulator:type=Metrics";
+
+    private static final Metrics instance = new Metrics();
+
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService dumper;
+    private boolean reporting;
+
+    public static Metrics getInstance() {
+        return instance;
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, Histogram::new);
+    }
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, Counter::new);
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    public Map<String, Counter> getCounters() {
+        return counters;
+    }
+
+    public void reset() {
+        histograms.values().forEach(Histogram::reset);
+        counters.values().forEach(Counter::reset);
+    }
+
+    /**
+     * publish the registry through JMX and start the CSV dump when {@link Kit#METRICS_DUMP_FILE} is set, engines
+     * call it when they are created so every application reports the same way. Calling it again does nothing.
+     */
+    public synchronized void startReporting() {
+        if (reporting)
+            return;
+        reporting = true;
+        registerMBean();
+        if (Kit.METRICS_DUMP_FILE != null && dumper == null)
+            startDump(Paths.get(Kit.METRICS_DUMP_FILE), Kit.METRICS_DUMP_PERIOD);
+    }
+
+    /**
+     * publish the registry on the platform MBean server, calling it again does nothing
+     */
+    public synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new MetricsMBean(this), name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * append the state of every instrument to the given CSV file at a fixed rate, from a daemon thread. values
+     * are cumulative since the start, or since the last {@link #reset()}
+     */
+    public synchronized void startDump(Path file, long periodMillis) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> {
+            try {
+                dump(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    public void dump(Path file) throws IOException {
+        boolean newFile = !Files.exists(file);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (newFile) {
+                writer.write("time,name,count,mean,p50,p90,p99,p999,max");
+                writer.newLine();
+            }
+            long time = System.currentTimeMillis();
+            for (Histogram histogram : histograms.values()) {
+                writer.write(time + "," + histogram.getName() + ',' + histogram.getCount()
+                        + ',' + (long) histogram.getMean()
+                        + ',' + histogram.getValueAtPercentile(50)
+                        + ',' + histogram.getValueAtPercentile(90)
+                        + ',' + histogram.getValueAtPercentile(99)
+                        + ',' + histogram.getValueAtPercentile(99.9)
+                        + ',' + histogram.getMax());
+                writer.newLine();
+            }
+            for (Counter counter : counters.values()) {
+                writer.write(time + "," + counter.getName() + ',' + counter.get() + ",,,,,,");
+                writer.newLine();
+            }
+        }
+    }
+}
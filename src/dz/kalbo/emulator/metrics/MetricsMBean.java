@@ -0,0 +1,105 @@
+package dz.kalbo.emulator.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read only JMX view of a {@link Metrics} registry. Counters are attributes of their own name, histograms give
+ * one attribute per statistic, "model.update.p99" for instance. Instruments created later show up the next time
+ * the info is read.
+ */
+final class MetricsMBean implements DynamicMBean {
+
+    private static final String[] STATISTICS = {"count", "mean", "p50", "p90", "p99", "p999", "max"};
+
+    private final Metrics metrics;
+
+    MetricsMBean(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Counter counter = metrics.getCounters().get(attribute);
+        if (counter != null)
+            return counter.get();
+
+        int dot = attribute.lastIndexOf('.');
+        Histogram histogram = dot > 0 ? metrics.getHistograms().get(attribute.substring(0, dot)) : null;
+        if (histogram == null)
+            throw new AttributeNotFoundException(attribute);
+        switch (attribute.substring(dot + 1)) {
+            case "count":
+                return histogram.getCount();
+            case "mean":
+                return (long) histogram.getMean();
+            case "p50":
+                return histogram.getValueAtPercentile(50);
+            case "p90":
+                return histogram.getValueAtPercentile(90);
+            case "p99":
+                return histogram.getValueAtPercentile(99);
+            case "p999":
+                return histogram.getValueAtPercentile(99.9);
+            case "max":
+                return histogram.getMax();
+            default:
+                throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("metrics are read only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes)
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // unknown attributes are left out as the JMX contract asks
+            }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName)) {
+            metrics.reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : metrics.getCounters().keySet())
+            attributes.add(new MBeanAttributeInfo(name, "long", "counter", true, false, false));
+        for (String name : metrics.getHistograms().keySet())
+            for (String statistic : STATISTICS)
+                attributes.add(new MBeanAttributeInfo(name + '.' + statistic, "long", "histogram " + statistic,
+                        true, false, false));
+
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "clear every instrument", null, "void",
+                MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "emulator metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+    }
+}
@@ -18,6 +18,13 @@ public abstract class AbstractTranche implements Drawable, Comparable<AbstractTr
     protected float length;
     protected int priority;
 
+    // id given by the last compiled TrackGraph
+    int graphIndex = TrackGraph.NONE;
+
+    // link taken at each end where there are many, null for the highest priority one
+    AbstractTranche nextSwitch;
+    AbstractTranche previewsSwitch;
+
     public AbstractTranche(int id, ScalablePoint start, ScalablePoint end, Context currentContext) {
         this.id = id;
         this.start = Objects.requireNonNull(start);
@@ -46,46 +53,57 @@ public abstract class AbstractTranche implements Drawable, Comparable<AbstractTr
         return currentContext;
     }
 
+    /**
+     * geometry is kept in world units so a new context, even with another zoom, does not change the tranche
+     */
     @Override
     public final void update(Context newContext) {
-        if (needUpdate(newContext)) {
-            float zoom = newContext.getZoom();
-            start.scale(zoom);
-            end.scale(zoom);
-        }
-        this.currentContext = newContext;
-        onUpdate();
-    }
-
-    public boolean needUpdate(Context newContext) {
-        return Float.compare(newContext.getZoom(), currentContext.getZoom()) != 0;
+        this.currentContext = Objects.requireNonNull(newContext);
     }
 
+    /**
+     * recompute the derived geometry after the start, the end or the shape changed
+     */
     abstract void onUpdate();
 
     public ScalablePoint getStart() {
         return start;
     }
 
+    /**
+     * a tranche of a model changes its length, {@link RailwayModel#invalidateTopology()} must be called after so
+     * the compiled graph and the spatial index see it
+     */
     public void setStart(ScalablePoint start) {
-        this.start = start;
-        update(currentContext);
+        this.start = Objects.requireNonNull(start);
+        onUpdate();
     }
 
     public ScalablePoint getEnd() {
         return end;
     }
 
+    /**
+     * a tranche of a model changes its length, {@link RailwayModel#invalidateTopology()} must be called after so
+     * the compiled graph and the spatial index see it
+     */
     public void setEnd(ScalablePoint end) {
-        this.end = end;
-        update(currentContext);
+        this.end = Objects.requireNonNull(end);
+        onUpdate();
     }
 
     public float getLength() {
         return length;
     }
 
-    protected abstract float calcLength(int width, int height);
+    /**
+     * @return the box enclosing the tranche in world units, for both straight and quarter arc tranches it is
+     * the box of the start and end points
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(Math.min(start.x, end.x), Math.min(start.y, end.y),
+                Math.abs(end.x - start.x), Math.abs(end.y - start.y));
+    }
 
     public void addNext(AbstractTranche nextTranche) {
         Objects.requireNonNull(nextTranche);
@@ -115,6 +133,34 @@ public abstract class AbstractTranche implements Drawable, Comparable<AbstractTr
             return previews.first();
     }
 
+    /**
+     * @return the next tranche the switch at the end of this one leads to, the first next one by default
+     */
+    public AbstractTranche getSelectedNext() {
+        return nextSwitch != null ? nextSwitch : getFirstNext();
+    }
+
+    public AbstractTranche getSelectedPreviews() {
+        return previewsSwitch != null ? previewsSwitch : getFirsPreviews();
+    }
+
+    /**
+     * set the switch of the end this tranche shares with the given linked one
+     *
+     * @return true if the target is a next tranche, false if it is a previews one
+     */
+    boolean switchTo(AbstractTranche target) {
+        if (next.contains(target)) {
+            nextSwitch = target;
+            return true;
+        }
+        if (previews.contains(target)) {
+            previewsSwitch = target;
+            return false;
+        }
+        throw new IllegalArgumentException(target + " is not linked to " + this);
+    }
+
     public NavigableSet<AbstractTranche> getNext() {
         return next;
     }
@@ -164,17 +210,76 @@ public abstract class AbstractTranche implements Drawable, Comparable<AbstractTr
         return direction > 0 ? progress : 1f - progress;
     }
 
+    /**
+     * walks the tranches graph from a position, a traverser can be reset and reused so moving does not allocate
+     */
     public static class Traverser {
 
         private AbstractTranche tranche;
         private float progress;
 
-        private Integer currentX;
-        private Integer currentY;
+        // when the current tranche is part of the compiled graph links are followed through its arrays
+        private TrackGraph graph;
+        private int index = TrackGraph.NONE;
+
+        // graph ids of the tranches a routed tram follows, and where it is on it
+        private int[] route;
+        private int routePosition;
+        private boolean routeTowardNext;
+
+        // tranches entered since the last reset in the order they were entered
+        private AbstractTranche[] entered = new AbstractTranche[4];
+        private int enteredCount;
+
+        private boolean positionKnown;
+        private int currentX;
+        private int currentY;
+
+        public Traverser() {
+        }
 
         public Traverser(AbstractTranche tranche, float progress) {
-            this.tranche = Objects.requireNonNull(tranche);
+            reset(tranche, progress);
+        }
+
+        public Traverser reset(AbstractTranche tranche, float progress) {
+            return reset(null, tranche, progress);
+        }
+
+        public Traverser reset(TrackGraph graph, AbstractTranche tranche, float progress) {
+            this.graph = graph;
+            setTranche(Objects.requireNonNull(tranche));
             this.progress = progress;
+            this.positionKnown = false;
+            this.route = null;
+            this.enteredCount = 0;
+            return this;
+        }
+
+        /**
+         * follow the given route instead of the switches until its end when moving the way it goes, the current
+         * tranche must be the one at the given position
+         *
+         * @param route graph ids resolved by {@link Route#resolve(TrackGraph)} against the traverser graph
+         */
+        public Traverser setRoute(int[] route, int position, boolean towardNext) {
+            this.route = route;
+            this.routePosition = position;
+            this.routeTowardNext = towardNext;
+            return this;
+        }
+
+        public int getRoutePosition() {
+            return routePosition;
+        }
+
+        private void setTranche(AbstractTranche tranche) {
+            this.tranche = tranche;
+            this.index = graph != null ? graph.indexOf(tranche) : TrackGraph.NONE;
+        }
+
+        private float getCurrentLength() {
+            return index != TrackGraph.NONE ? graph.getLength(index) : tranche.getLength();
         }
 
         public Traverser moveTowardStart(float length) {
@@ -186,23 +291,29 @@ public abstract class AbstractTranche implements Drawable, Comparable<AbstractTr
         }
 
         public Traverser move(float length, double direction) {
-            float coveredDistance = AbstractTranche.absProgress(progress, direction) * tranche.getLength();
+            float trancheLength = getCurrentLength();
+            float coveredDistance = AbstractTranche.absProgress(progress, direction) * trancheLength;
             float distance = coveredDistance + length;
 
-            while (Float.compare(distance, tranche.getLength()) > 0) {
-                distance -= tranche.getLength();
+            while (Float.compare(distance, trancheLength) > 0) {
+                distance -= trancheLength;
                 AbstractTranche nextTranche = getNextTranche(direction);
                 if (nextTranche == null) {
-                    distance = tranche.getLength();
+                    distance = trancheLength;
                     break;
                 } else {
-                    tranche = nextTranche;
+                    setTranche(nextTranche);
+                    if (enteredCount == entered.length)
+                        entered = Arrays.copyOf(entered, enteredCount * 2);
+                    entered[enteredCount++] = nextTranche;
+                    if (route != null && routePosition + 1 < route.length && index == route[routePosition + 1])
+                        routePosition++;
+                    trancheLength = getCurrentLength();
                 }
             }
 
-            progress = AbstractTranche.absProgress(distance / tranche.getLength(), direction);
-            currentX = null;
-            currentY = null;
+            progress = AbstractTranche.absProgress(distance / trancheLength, direction);
+            positionKnown = false;
             return this;
         }
 
@@ -211,7 +322,24 @@ public abstract class AbstractTranche implements Drawable, Comparable<AbstractTr
         }
 
         public AbstractTranche getNextTranche(double direction) {
-            return Double.compare(direction, 0d) > 0 ? tranche.getFirstNext() : tranche.getFirsPreviews();
+            if (index != TrackGraph.NONE) {
+                // a route is a successor table, the next tranche is read at the next position
+                int nextIndex = route != null && routePosition + 1 < route.length && (direction > 0) == routeTowardNext
+                        ? route[routePosition + 1] : graph.next(index, direction);
+                return nextIndex != TrackGraph.NONE ? graph.getTranche(nextIndex) : null;
+            }
+            return Double.compare(direction, 0d) > 0 ? tranche.getSelectedNext() : tranche.getSelectedPreviews();
+        }
+
+        /**
+         * @return number of tranches entered by the moves since the last reset
+         */
+        public int getEnteredCount() {
+            return enteredCount;
+        }
+
+        public AbstractTranche getEntered(int position) {
+            return entered[position];
         }
 
         public AbstractTranche getCurrentTranche() {
@@ -222,15 +350,21 @@ public abstract class AbstractTranche implements Drawable, Comparable<AbstractTr
             return progress;
         }
 
-        public int getX() {
-            if (currentX == null)
+        private void calcPosition() {
+            if (!positionKnown) {
                 currentX = tranche.getX(progress);
+                currentY = tranche.getY(progress);
+                positionKnown = true;
+            }
+        }
+
+        public int getX() {
+            calcPosition();
             return currentX;
         }
 
         public int getY() {
-            if (currentY == null)
-                currentY = tranche.getY(progress);
+            calcPosition();
             return currentY;
         }
 
@@ -249,19 +383,48 @@ public abstract class AbstractTranche implements Drawable, Comparable<AbstractTr
         }
     }
 
+    /**
+     * a traverser that follows a given sequence of tranches instead of the graph, the sequence may wrap around
+     * the end of its array like in a ring buffer
+     */
     public static class StaticTraverser extends Traverser {
 
-        private final Iterator<? extends AbstractTranche> iterator;
+        private AbstractTranche[] tranches;
+        private int start;
+        private int count;
+        private int position;
 
-        public StaticTraverser(Deque<? extends AbstractTranche> tranches, float progress) {
-            super(tranches.peekFirst(), progress);
-            this.iterator = tranches.iterator();
-            this.iterator.next();
+        public StaticTraverser() {
+        }
+
+        public StaticTraverser(AbstractTranche[] tranches, int count, float progress) {
+            reset(tranches, count, progress);
+        }
+
+        public StaticTraverser reset(AbstractTranche[] tranches, int count, float progress) {
+            return reset(tranches, 0, count, progress);
+        }
+
+        /**
+         * @param start index in the array of the first tranche
+         */
+        public StaticTraverser reset(AbstractTranche[] tranches, int start, int count, float progress) {
+            if (count < 1)
+                throw new IllegalArgumentException("at least one tranche is needed");
+            this.tranches = tranches;
+            this.start = start;
+            this.count = count;
+            this.position = 1;
+            reset(tranches[start], progress);
+            return this;
         }
 
         @Override
         public AbstractTranche getNextTranche(double direction) {
-            return iterator.hasNext() ? iterator.next() : null;
+            if (position == count)
+                return null;
+            int index = start + position++;
+            return tranches[index < tranches.length ? index : index - tranches.length];
         }
     }
 }
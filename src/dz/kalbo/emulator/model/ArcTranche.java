@@ -15,12 +15,20 @@ public class ArcTranche extends AbstractTranche {
     public static final int DRAWING_ARC_ANGLE = 90;
     public static final double DRAWING_ARC_ANGLE_IN_RADIAN = Math.toRadians(DRAWING_ARC_ANGLE);
 
+    private static final int DENSE_SAMPLES = Kit.ARC_SAMPLES * 4;
+    private static final ThreadLocal<DenseSamples> DENSE = ThreadLocal.withInitial(DenseSamples::new);
+
     private Rectangle rectangle;
     private int drawingAngle;
     private double startPointAngle;
     private double endPointAngle;
     private boolean southDirection;
 
+    // positions sampled at equal arc length steps, rebuilt on every geometry change
+    private float[] samplesX;
+    private float[] samplesY;
+    private float[] samplesAngle;
+
     public ArcTranche(int id, ScalablePoint start, ScalablePoint end, Context context) {
         super(id, start, end, context);
     }
@@ -52,75 +60,98 @@ public class ArcTranche extends AbstractTranche {
     @Override
     public int getX(float progress) {
         if (Float.compare(progress, 1f) < 0) {
-            if (Float.compare(progress, 0f) > 0) {
-                int a = getA();
-                int b = getB();
-                double angle = Kit.normalizeAngle(getProgressAngle(progress));
-                double tan = Math.tan(angle);
-                double delta = (a * b) / Math.sqrt(b * b + a * a * tan * tan);
-                return (int) (rectangle.x + deltaX(delta, angle));
-            } else
+            if (Float.compare(progress, 0f) > 0)
+                return (int) interpolate(samplesX, progress);
+            else
                 return start.x;
         } else
             return end.x;
     }
 
-    private double deltaX(double delta, double angle) {
-        int r = rectangle.width / 2;
-        if (Double.compare(angle, Kit.BOTTOM_ANGLE) >= 0)
-            return r - delta;
-        else if (Double.compare(angle, Kit.LEFT_ANGLE) >= 0)
-            return r - delta;
-        else if (Double.compare(angle, Kit.TOP_ANGLE) >= 0)
-            return r + delta;
-        else
-            return r + delta;
-    }
-
     @Override
     public int getY(float progress) {
         if (Float.compare(progress, 1f) < 0) {
-            if (Float.compare(progress, 0f) > 0) {
-                int a = getA();
-                int b = getB();
-                double angle = Kit.normalizeAngle(getProgressAngle(progress));
-                double tan = Math.tan(angle);
-                double delta = (a * b * tan) / Math.sqrt(b * b + a * a * tan * tan);
-                return (int) (rectangle.y + deltaY(delta, angle));
-            } else
+            if (Float.compare(progress, 0f) > 0)
+                return (int) interpolate(samplesY, progress);
+            else
                 return start.y;
         } else
             return end.y;
     }
 
-    private double deltaY(double delta, double angle) {
-        int r = rectangle.height / 2;
-        if (Double.compare(angle, Kit.BOTTOM_ANGLE) >= 0)
-            return r + delta;
-        else if (Double.compare(angle, Kit.LEFT_ANGLE) >= 0)
-            return r + delta;
-        else if (Double.compare(angle, Kit.TOP_ANGLE) >= 0)
-            return r - delta;
-        else
-            return r - delta;
+    /**
+     * @return the parametric angle of the ellipse point reached after covering the given part of the arc length
+     */
+    public double getProgressAngle(float progress) {
+        return interpolate(samplesAngle, Kit.bound(progress));
     }
 
-    private int getA() {
-        return end.x - start.x;
+    private static float interpolate(float[] samples, float progress) {
+        float position = progress * (samples.length - 1);
+        int index = Math.min((int) position, samples.length - 2);
+        float fraction = position - index;
+        return samples[index] + (samples[index + 1] - samples[index]) * fraction;
     }
 
-    private int getB() {
-        return end.y - start.y;
-    }
+    /**
+     * sample the arc densely by parametric angle then resample it at equal arc length steps, so a progress
+     * maps to a table index directly and trams move at constant speed on elliptical arcs
+     *
+     * @return the arc length
+     */
+    private float buildSamples() {
+        double a = rectangle.width / 2d;
+        double b = rectangle.height / 2d;
+        double centerX = rectangle.x + a;
+        double centerY = rectangle.y + b;
+
+        DenseSamples samples = DENSE.get();
+        double[] denseX = samples.x;
+        double[] denseY = samples.y;
+        double[] denseLength = samples.length;
+        denseLength[0] = 0;
+
+        // the angle step is constant, points are rotated by it instead of calling cos and sin for each one
+        double step = (endPointAngle - startPointAngle) / DENSE_SAMPLES;
+        double stepCos = Math.cos(step);
+        double stepSin = Math.sin(step);
+        double cos = Math.cos(startPointAngle);
+        double sin = Math.sin(startPointAngle);
+        denseX[0] = centerX + a * cos;
+        denseY[0] = centerY - b * sin;
+        for (int i = 1; i <= DENSE_SAMPLES; i++) {
+            double nextCos = cos * stepCos - sin * stepSin;
+            sin = sin * stepCos + cos * stepSin;
+            cos = nextCos;
+            denseX[i] = centerX + a * cos;
+            denseY[i] = centerY - b * sin;
+            // steps are tiny, Math.hypot overflow care is not needed and it is several times slower
+            double dx = denseX[i] - denseX[i - 1];
+            double dy = denseY[i] - denseY[i - 1];
+            denseLength[i] = denseLength[i - 1] + Math.sqrt(dx * dx + dy * dy);
+        }
 
-    public double getProgressAngle(float progress) {
-        float distance = getLength() * progress;
-        int a = getA();
-        int b = getB();
-        // improve implementation TODO
-        // https://mysite.du.edu/~jcalvert/math/ellarc.htm#:~:text=Finding%20the%20lengths%20of%20circular,d%20%3D%202r%20is%20the%20diameter
-        // https://math.stackexchange.com/questions/433094/how-to-determine-the-arc-length-of-ellipse#comment3969027_433908
-        return startPointAngle + (endPointAngle - startPointAngle) * progress;
+        double totalLength = denseLength[DENSE_SAMPLES];
+        float[] samplesX = new float[Kit.ARC_SAMPLES + 1];
+        float[] samplesY = new float[Kit.ARC_SAMPLES + 1];
+        float[] samplesAngle = new float[Kit.ARC_SAMPLES + 1];
+        int dense = 0;
+        for (int i = 0; i <= Kit.ARC_SAMPLES; i++) {
+            double distance = totalLength * i / Kit.ARC_SAMPLES;
+            while (dense < DENSE_SAMPLES - 1 && denseLength[dense + 1] < distance)
+                dense++;
+            double segment = denseLength[dense + 1] - denseLength[dense];
+            double fraction = segment > 0 ? (distance - denseLength[dense]) / segment : 0;
+            // dense points are close enough for the chord between them to stand for the arc
+            samplesX[i] = (float) (denseX[dense] + (denseX[dense + 1] - denseX[dense]) * fraction);
+            samplesY[i] = (float) (denseY[dense] + (denseY[dense + 1] - denseY[dense]) * fraction);
+            samplesAngle[i] = (float) (startPointAngle + step * (dense + fraction));
+        }
+
+        this.samplesX = samplesX;
+        this.samplesY = samplesY;
+        this.samplesAngle = samplesAngle;
+        return (float) totalLength;
     }
 
     @Override
@@ -132,25 +163,20 @@ public class ArcTranche extends AbstractTranche {
         return southDirection;
     }
 
+    /**
+     * changes the length of the arc, see {@link #setStart(ScalablePoint)}
+     */
     public void setSouthDirection(boolean southDirection) {
         if (this.southDirection != southDirection) {
             this.southDirection = southDirection;
-            update(currentContext);
+            onUpdate();
         }
     }
 
-    @Override
-    protected float calcLength(int width, int height) {
-        int smallSide = Math.min(width, height);
-        int extra = Math.max(width, height) - smallSide;
-        return Math.abs(Kit.PI_DIV_2 * smallSide + extra);
-    }
-
     @Override
     void onUpdate() {
         int width = distance(start.x, end.x);
         int height = distance(start.y, end.y);
-        this.length = calcLength(width, height);
         if (southDirection) {
             calcSouthRectangle(width, height);
             calcSouthStartAngle();
@@ -158,6 +184,7 @@ public class ArcTranche extends AbstractTranche {
             calcNorthRectangle(width, height);
             calcNorthStartAngle();
         }
+        this.length = buildSamples();
     }
 
     public void calcNorthRectangle(int width, int height) {
@@ -256,7 +283,12 @@ public class ArcTranche extends AbstractTranche {
         }
     }
 
-    private static int doubleDistance(int first, int second) {
-        return distance(first, second) * 2;
+    /**
+     * scratch points used while sampling, networks are built with many arcs and these would be garbage right away
+     */
+    private static final class DenseSamples {
+        final double[] x = new double[DENSE_SAMPLES + 1];
+        final double[] y = new double[DENSE_SAMPLES + 1];
+        final double[] length = new double[DENSE_SAMPLES + 1];
     }
-}
\ No newline at end of file
+}
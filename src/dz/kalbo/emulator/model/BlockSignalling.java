@@ -0,0 +1,455 @@
+package dz.kalbo.emulator.model;
+
+import dz.kalbo.emulator.metrics.Counter;
+import dz.kalbo.emulator.metrics.Metrics;
+import dz.kalbo.emulator.tools.Kit;
+
+import java.util.Arrays;
+
+/**
+ * Splits the track in blocks and slows trams down according to the occupancy of the blocks in front of them. A
+ * block is a chain of tranches without junction inside, no longer than the block length unless a single tranche
+ * is. The aspect a tram sees is:
+ * <ul>
+ * <li>stop: the next block is occupied and the head is at the end of its block</li>
+ * <li>approach: the next block is occupied, or the one after it, or another tram shares the head block</li>
+ * <li>proceed: otherwise</li>
+ * </ul>
+ * Blocks occupancy is only touched when a tram crosses a tranche boundary, a tram that stays on the same
+ * tranches keeps its blocks and only its aspect is looked at, which is a few array reads.
+ * <p>
+ * With events a tram is refreshed alone at each of its events, the trams whose head is up to two blocks before a
+ * block whose occupancy changed then see their aspect again. A tram that will have to stop gets an event at its
+ * stop point, see {@link #getDistanceToStop(int)}.
+ */
+public final class BlockSignalling {
+
+    public static final int NO_BLOCK = -1;
+    private static final int NO_SLOT = -1;
+
+    private static final Counter STOPS = Metrics.getInstance().counter("signal.stops");
+
+    public enum Aspect {
+        STOP(0f),
+        APPROACH(Kit.APPROACH_SPEED_FACTOR),
+        PROCEED(1f);
+
+        public final float speedFactor;
+
+        Aspect(float speedFactor) {
+            this.speedFactor = speedFactor;
+        }
+    }
+
+    private static final Aspect[] ASPECTS = Aspect.values();
+
+    private final TramStore store;
+    private final float blockLength;
+    private TrackGraph graph;
+
+    // per tranche of the graph
+    private int[] blockOf = new int[0];
+    private float[] offsetInBlock = new float[0];
+
+    // per block
+    private int blocksCount;
+    private float[] blocksLength = new float[0];
+    private int[] firstTranche = new int[0];
+    private int[] lastTranche = new int[0];
+    private int[] occupancy = new int[0];
+
+    // blocks under every slot, kept until the tram crosses a boundary
+    private int[][] slotBlocks = new int[0][];
+    private int[] slotBlocksCount = new int[0];
+    private AbstractTranche[] registeredHead = new AbstractTranche[0];
+    private AbstractTranche[] registeredTail = new AbstractTranche[0];
+    private int[] registeredCount = new int[0];
+    private byte[] aspect = new byte[0];
+    // true when the next block is occupied, the tram then has a stop point
+    private boolean[] stopAhead = new boolean[0];
+
+    // trams by the block of their head, linked through the slots
+    private int[] firstHead = new int[0];
+    private int[] headBlock = new int[0];
+    private int[] nextHead = new int[0];
+    private int[] previousHead = new int[0];
+
+    // blocks around a changed one, stamped to visit each once
+    private int[] nearBlocks = new int[0];
+    private int[] blockStamp = new int[0];
+    private int currentStamp;
+
+    BlockSignalling(TramStore store, float blockLength) {
+        if (blockLength <= 0)
+            throw new IllegalArgumentException("block length must be positive");
+        this.store = store;
+        this.blockLength = blockLength;
+    }
+
+    public int getBlocksCount() {
+        return blocksCount;
+    }
+
+    /**
+     * @return the block of the tranche or {@link #NO_BLOCK} if it is not part of the signalled graph
+     */
+    public int getBlock(AbstractTranche tranche) {
+        int index = graph != null ? graph.indexOf(tranche) : TrackGraph.NONE;
+        return index != TrackGraph.NONE ? blockOf[index] : NO_BLOCK;
+    }
+
+    public float getBlockLength(int block) {
+        return blocksLength[block];
+    }
+
+    /**
+     * @return number of trams with a part in the block
+     */
+    public int getOccupancy(int block) {
+        return occupancy[block];
+    }
+
+    public Aspect getAspect(int slot) {
+        return slot < aspect.length ? ASPECTS[aspect[slot]] : Aspect.PROCEED;
+    }
+
+    /**
+     * move the trams that crossed a boundary to their new blocks, then give every tram the speed factor of the
+     * aspect it sees
+     */
+    void refresh() {
+        TrackGraph graph = store.getGraph();
+        if (graph == null)
+            return;
+        if (graph != this.graph)
+            divide(graph);
+        int size = store.getSize();
+        if (slotBlocksCount.length < size)
+            grow(size);
+
+        for (int slot = 0; slot < size; slot++) {
+            if (store.getTram(slot) == null) {
+                unregister(slot);
+                continue;
+            }
+            if (isMoved(slot)) {
+                unregister(slot);
+                register(slot);
+            }
+        }
+
+        long time = store.getContext().getTime();
+        for (int slot = 0; slot < size; slot++)
+            if (store.getTram(slot) != null)
+                updateAspect(slot, time);
+    }
+
+    /**
+     * move one tram to its new blocks at one of its events, then give it and the trams that may see the blocks it
+     * left or entered their aspect
+     */
+    void refresh(int slot, long time) {
+        TrackGraph graph = store.getGraph();
+        if (graph == null)
+            return;
+        if (graph != this.graph || slotBlocksCount.length < store.getSize()) {
+            refresh();
+            return;
+        }
+
+        if (isMoved(slot)) {
+            // the occupancy changes in the blocks left and entered, and a new head block changes what is ahead
+            int stamp = nextStamp();
+            int nearCount = addBlocksOf(stamp, 0, slot);
+            unregister(slot);
+            register(slot);
+            nearCount = addBlocksOf(stamp, nearCount, slot);
+            updateNear(slot, nearCount, time);
+        }
+        updateAspect(slot, time);
+    }
+
+    /**
+     * forget a tram leaving the store, the trams that waited for its blocks see their aspect again
+     */
+    void release(int slot, long time) {
+        if (slot >= slotBlocksCount.length)
+            return;
+        int nearCount = addBlocksOf(nextStamp(), 0, slot);
+        unregister(slot);
+        if (graph == store.getGraph())
+            updateNear(slot, nearCount, time);
+    }
+
+    private int addBlocksOf(int stamp, int nearCount, int slot) {
+        nearCount = addNear(stamp, nearCount, headBlock[slot]);
+        for (int i = 0; i < slotBlocksCount[slot]; i++)
+            nearCount = addNear(stamp, nearCount, slotBlocks[slot][i]);
+        return nearCount;
+    }
+
+    /**
+     * update the aspect of the trams whose head is in one of the collected blocks or up to two blocks before one,
+     * as far as a tram looks ahead
+     */
+    private void updateNear(int slot, int nearCount, long time) {
+        int stamp = currentStamp;
+        for (int depth = 0, from = 0; depth < 2; depth++) {
+            int to = nearCount;
+            for (int i = from; i < to; i++)
+                nearCount = addNeighbours(stamp, nearCount, nearBlocks[i]);
+            from = to;
+        }
+        for (int i = 0; i < nearCount; i++)
+            for (int other = firstHead[nearBlocks[i]]; other != NO_SLOT; other = nextHead[other])
+                if (other != slot)
+                    updateAspect(other, time);
+    }
+
+    private boolean isMoved(int slot) {
+        int count = store.getTranchesUnderTramCount(slot);
+        AbstractTranche tail = count > 0 ? store.getTrancheUnderTram(slot, count - 1) : null;
+        return registeredHead[slot] != store.getHeadTranche(slot) || registeredTail[slot] != tail
+                || registeredCount[slot] != count;
+    }
+
+    private int nextStamp() {
+        if (++currentStamp == 0) {
+            Arrays.fill(blockStamp, 0);
+            currentStamp = 1;
+        }
+        return currentStamp;
+    }
+
+    private int addNear(int stamp, int nearCount, int block) {
+        if (block == NO_BLOCK || blockStamp[block] == stamp)
+            return nearCount;
+        blockStamp[block] = stamp;
+        if (nearCount == nearBlocks.length)
+            nearBlocks = Arrays.copyOf(nearBlocks, Math.max(nearCount * 2, 8));
+        nearBlocks[nearCount] = block;
+        return nearCount + 1;
+    }
+
+    /**
+     * add the blocks linked to the ends of the given one, a tram going either way can come from them
+     */
+    private int addNeighbours(int stamp, int nearCount, int block) {
+        int first = firstTranche[block];
+        for (int i = 0, count = graph.getPreviewsCount(first); i < count; i++)
+            nearCount = addNear(stamp, nearCount, blockOf[graph.getPreviews(first, i)]);
+        int last = lastTranche[block];
+        for (int i = 0, count = graph.getNextCount(last); i < count; i++)
+            nearCount = addNear(stamp, nearCount, blockOf[graph.getNext(last, i)]);
+        return nearCount;
+    }
+
+    private void updateAspect(int slot, long time) {
+        Aspect newAspect = aspectOf(slot);
+        if (newAspect == Aspect.STOP && aspect[slot] != Aspect.STOP.ordinal())
+            STOPS.increment();
+        aspect[slot] = (byte) newAspect.ordinal();
+        boolean newStopAhead = newAspect == Aspect.STOP || getDistanceToStop(slot) != Float.POSITIVE_INFINITY;
+        boolean scheduled = store.setSpeedFactor(slot, newAspect.speedFactor, time);
+        // a stop point that appears or goes away moves the next event of the tram even at the same speed
+        if (newStopAhead != stopAhead[slot] && !scheduled)
+            store.schedule(slot);
+        stopAhead[slot] = newStopAhead;
+    }
+
+    /**
+     * give every tranche a block, a block starts at a tranche not taken yet and follows the first next links while
+     * there is no junction and it is shorter than the block length
+     */
+    private void divide(TrackGraph graph) {
+        this.graph = graph;
+        int count = graph.size();
+        blockOf = new int[count];
+        offsetInBlock = new float[count];
+        Arrays.fill(blockOf, NO_BLOCK);
+        blocksLength = new float[Math.max(count, 1)];
+        lastTranche = new int[Math.max(count, 1)];
+        firstTranche = new int[Math.max(count, 1)];
+        blocksCount = 0;
+
+        for (int index = 0; index < count; index++) {
+            if (blockOf[index] != NO_BLOCK)
+                continue;
+            int block = blocksCount++;
+            firstTranche[block] = index;
+            int tranche = index;
+            while (true) {
+                blockOf[tranche] = block;
+                offsetInBlock[tranche] = blocksLength[block];
+                blocksLength[block] += graph.getLength(tranche);
+                lastTranche[block] = tranche;
+
+                int next = graph.getFirstNext(tranche);
+                if (next == TrackGraph.NONE || blockOf[next] != NO_BLOCK || blocksLength[block] >= blockLength
+                        || graph.getNextCount(tranche) != 1 || graph.getPreviewsCount(next) != 1)
+                    break;
+                tranche = next;
+            }
+        }
+
+        blocksLength = Arrays.copyOf(blocksLength, blocksCount);
+        occupancy = new int[blocksCount];
+        firstHead = new int[blocksCount];
+        Arrays.fill(firstHead, NO_SLOT);
+        blockStamp = new int[blocksCount];
+        Arrays.fill(slotBlocksCount, 0);
+        Arrays.fill(registeredHead, null);
+        Arrays.fill(registeredTail, null);
+        Arrays.fill(registeredCount, 0);
+        Arrays.fill(headBlock, NO_BLOCK);
+    }
+
+    private void grow(int size) {
+        int capacity = Math.max(size, slotBlocksCount.length * 2);
+        int from = slotBlocksCount.length;
+        slotBlocks = Arrays.copyOf(slotBlocks, capacity);
+        slotBlocksCount = Arrays.copyOf(slotBlocksCount, capacity);
+        registeredHead = Arrays.copyOf(registeredHead, capacity);
+        registeredTail = Arrays.copyOf(registeredTail, capacity);
+        registeredCount = Arrays.copyOf(registeredCount, capacity);
+        aspect = Arrays.copyOf(aspect, capacity);
+        stopAhead = Arrays.copyOf(stopAhead, capacity);
+        headBlock = Arrays.copyOf(headBlock, capacity);
+        nextHead = Arrays.copyOf(nextHead, capacity);
+        previousHead = Arrays.copyOf(previousHead, capacity);
+        for (int slot = from; slot < capacity; slot++) {
+            slotBlocks[slot] = new int[2];
+            aspect[slot] = (byte) Aspect.PROCEED.ordinal();
+            headBlock[slot] = NO_BLOCK;
+        }
+    }
+
+    void unregister(int slot) {
+        if (slot >= slotBlocksCount.length)
+            return;
+        int[] blocks = slotBlocks[slot];
+        for (int i = 0; i < slotBlocksCount[slot]; i++)
+            occupancy[blocks[i]]--;
+        slotBlocksCount[slot] = 0;
+        registeredHead[slot] = null;
+        registeredTail[slot] = null;
+        registeredCount[slot] = 0;
+        aspect[slot] = (byte) Aspect.PROCEED.ordinal();
+        stopAhead[slot] = false;
+
+        int block = headBlock[slot];
+        if (block != NO_BLOCK) {
+            if (previousHead[slot] != NO_SLOT)
+                nextHead[previousHead[slot]] = nextHead[slot];
+            else
+                firstHead[block] = nextHead[slot];
+            if (nextHead[slot] != NO_SLOT)
+                previousHead[nextHead[slot]] = previousHead[slot];
+            headBlock[slot] = NO_BLOCK;
+        }
+    }
+
+    private void register(int slot) {
+        int count = store.getTranchesUnderTramCount(slot);
+        AbstractTranche tail = count > 0 ? store.getTrancheUnderTram(slot, count - 1) : null;
+        AbstractTranche head = store.getHeadTranche(slot);
+        registeredHead[slot] = head;
+        registeredTail[slot] = tail;
+        registeredCount[slot] = count;
+
+        int headIndex = head != null ? graph.indexOf(head) : TrackGraph.NONE;
+        int blockOfHead = headIndex != TrackGraph.NONE ? blockOf[headIndex] : NO_BLOCK;
+        if (blockOfHead != NO_BLOCK) {
+            headBlock[slot] = blockOfHead;
+            previousHead[slot] = NO_SLOT;
+            nextHead[slot] = firstHead[blockOfHead];
+            if (firstHead[blockOfHead] != NO_SLOT)
+                previousHead[firstHead[blockOfHead]] = slot;
+            firstHead[blockOfHead] = slot;
+        }
+
+        for (int i = 0; i < count; i++) {
+            int index = graph.indexOf(store.getTrancheUnderTram(slot, i));
+            int block = index != TrackGraph.NONE ? blockOf[index] : NO_BLOCK;
+            if (block == NO_BLOCK || occupies(slot, block))
+                continue;
+            if (slotBlocksCount[slot] == slotBlocks[slot].length)
+                slotBlocks[slot] = Arrays.copyOf(slotBlocks[slot], slotBlocksCount[slot] * 2);
+            slotBlocks[slot][slotBlocksCount[slot]++] = block;
+            occupancy[block]++;
+        }
+    }
+
+    private boolean occupies(int slot, int block) {
+        int[] blocks = slotBlocks[slot];
+        for (int i = 0; i < slotBlocksCount[slot]; i++)
+            if (blocks[i] == block)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return true if a tram other than the given one is in the block
+     */
+    private boolean isOccupiedByOther(int slot, int block) {
+        return block != NO_BLOCK && occupancy[block] > (occupies(slot, block) ? 1 : 0);
+    }
+
+    private Aspect aspectOf(int slot) {
+        AbstractTranche head = store.getHeadTranche(slot);
+        int index = head != null ? graph.indexOf(head) : TrackGraph.NONE;
+        if (index == TrackGraph.NONE)
+            return Aspect.PROCEED;
+
+        int block = blockOf[index];
+        boolean towardNext = !store.isDirectionToStart(slot);
+        int next = nextBlock(slot, block, towardNext);
+        if (isOccupiedByOther(slot, next))
+            return toBlockEnd(slot, index, towardNext) <= Kit.SIGNAL_STOP_DISTANCE ? Aspect.STOP : Aspect.APPROACH;
+        if (occupancy[block] > 1 || (next != NO_BLOCK && isOccupiedByOther(slot, nextBlock(slot, next, towardNext))))
+            return Aspect.APPROACH;
+        return Aspect.PROCEED;
+    }
+
+    private float toBlockEnd(int slot, int index, boolean towardNext) {
+        int block = blockOf[index];
+        float position = offsetInBlock[index] + graph.getLength(index) * Kit.bound(store.getHeadProgress(slot));
+        return towardNext ? blocksLength[block] - position : position;
+    }
+
+    /**
+     * @return how far the head can go before the point where it stops for the occupied next block, infinite when
+     * the next block is free
+     */
+    float getDistanceToStop(int slot) {
+        if (graph != store.getGraph() || slot >= aspect.length)
+            return Float.POSITIVE_INFINITY;
+        AbstractTranche head = store.getHeadTranche(slot);
+        int index = head != null ? graph.indexOf(head) : TrackGraph.NONE;
+        if (index == TrackGraph.NONE)
+            return Float.POSITIVE_INFINITY;
+        boolean towardNext = !store.isDirectionToStart(slot);
+        if (!isOccupiedByOther(slot, nextBlock(slot, blockOf[index], towardNext)))
+            return Float.POSITIVE_INFINITY;
+        return toBlockEnd(slot, index, towardNext) - Kit.SIGNAL_STOP_DISTANCE;
+    }
+
+    /**
+     * @return the block the tram enters when leaving the given one, blocks end at junctions so it follows the
+     * route of the tram when it has one and the switch otherwise
+     */
+    private int nextBlock(int slot, int block, boolean towardNext) {
+        int[] route = store.getRouteIndices(slot, towardNext);
+        if (route != null) {
+            int position = store.getRoutePosition(slot);
+            while (position < route.length && blockOf[route[position]] != block)
+                position++;
+            while (position < route.length && blockOf[route[position]] == block)
+                position++;
+            if (position < route.length)
+                return blockOf[route[position]];
+        }
+        int next = towardNext ? graph.next(lastTranche[block], 1d) : graph.next(firstTranche[block], -1d);
+        return next != TrackGraph.NONE ? blockOf[next] : NO_BLOCK;
+    }
+}
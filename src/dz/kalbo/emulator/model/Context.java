@@ -6,11 +6,11 @@ public class Context {
     private final int height;
     private final float zoom;
 
+    /**
+     * a context at the start of the simulated time, time only moves when an engine updates the model
+     */
     public Context(int width, int height, float zoom) {
-        this.time = System.nanoTime();
-        this.width = width;
-        this.height = height;
-        this.zoom = zoom;
+        this(width, height, zoom, 0);
     }
 
     public Context(int width, int height, float zoom, long time) {
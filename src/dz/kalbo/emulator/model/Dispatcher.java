@@ -0,0 +1,245 @@
+package dz.kalbo.emulator.model;
+
+import dz.kalbo.emulator.metrics.Counter;
+import dz.kalbo.emulator.metrics.Metrics;
+import dz.kalbo.emulator.tools.Kit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs a {@link Timetable} on a model: at each update the trams that went past the end of their route are
+ * stopped there and the departures that are due are dispatched. Trams are vehicles of a depot, a retired tram
+ * gives its slot back and waits in the depot for its next departure, so a whole day only creates as many trams as
+ * were running at the same time. Stopped trams are retired together once the first of them waited
+ * {@link Kit#RETIRE_BATCH_DELAY} or when a departure finds the depot empty, the trams list of the model is a copy
+ * on write list so it is copied once per batch and once per update with departures.
+ * <p>
+ * Dispatched trams are ordinary trams of the model, the dispatcher state itself is not part of checkpoints.
+ */
+public final class Dispatcher {
+
+    private static final Counter DEPARTURES = Metrics.getInstance().counter("dispatch.departures");
+    private static final Counter RETIREMENTS = Metrics.getInstance().counter("dispatch.retirements");
+
+    private final TramStore store;
+    private final List<Tram> trams;
+    private final Timetable timetable;
+    private final int firstVehicleId;
+
+    // next departure to dispatch
+    private int nextDeparture;
+
+    // trams waiting for a departure
+    private Tram[] depot = new Tram[16];
+    private int depotCount;
+    private int vehiclesCount;
+
+    // trams on their way with the departure they run
+    private Tram[] running = new Tram[16];
+    private int[] runningDeparture = new int[16];
+    private int runningCount;
+
+    // trams stopped at the end of their route, waiting to go back to the depot
+    private Tram[] arrived = new Tram[16];
+    private int arrivedCount;
+    private long firstArrivalTime;
+
+    // reused between updates
+    private final List<Tram> departed = new ArrayList<>();
+
+    private long dispatchedCount;
+    private long retiredCount;
+
+    /**
+     * departures before the given time are skipped
+     */
+    Dispatcher(TramStore store, List<Tram> trams, Timetable timetable, int firstVehicleId, long time) {
+        this.store = store;
+        this.trams = trams;
+        this.timetable = timetable;
+        this.firstVehicleId = firstVehicleId;
+        this.nextDeparture = timetable.indexOf(time);
+
+        TrackGraph graph = store.getGraph();
+        if (graph != null)
+            for (int departure = nextDeparture; departure < timetable.size(); departure++)
+                timetable.getRoute(departure).resolve(graph);
+    }
+
+    public Timetable getTimetable() {
+        return timetable;
+    }
+
+    /**
+     * @return the departure that will be dispatched next, the timetable size once all are dispatched
+     */
+    public int getNextDeparture() {
+        return nextDeparture;
+    }
+
+    public int getRunningCount() {
+        return runningCount;
+    }
+
+    /**
+     * @return number of trams stopped at the end of their route and not retired yet
+     */
+    public int getArrivedCount() {
+        return arrivedCount;
+    }
+
+    public int getDepotCount() {
+        return depotCount;
+    }
+
+    /**
+     * @return number of trams created so far, running or in the depot
+     */
+    public int getVehiclesCount() {
+        return vehiclesCount;
+    }
+
+    public long getDispatchedCount() {
+        return dispatchedCount;
+    }
+
+    public long getRetiredCount() {
+        return retiredCount;
+    }
+
+    /**
+     * retire the trams done with their route then dispatch the departures until the given time, the trams must
+     * already be at that time
+     */
+    void dispatch(long time) {
+        stopArrived(time);
+        boolean due = nextDeparture < timetable.size() && timetable.getTime(nextDeparture) <= time;
+        if (arrivedCount > 0 && (time - firstArrivalTime >= Kit.RETIRE_BATCH_DELAY || (due && depotCount == 0)))
+            retire();
+
+        while (nextDeparture < timetable.size() && timetable.getTime(nextDeparture) <= time)
+            departed.add(depart(nextDeparture++));
+        if (!departed.isEmpty()) {
+            trams.addAll(departed);
+            departed.clear();
+        }
+    }
+
+    /**
+     * stop the running trams done with their route where they are
+     */
+    private void stopArrived(long time) {
+        for (int i = runningCount - 1; i >= 0; i--) {
+            Tram tram = running[i];
+            int slot = tram.getSlot();
+            // a tram removed from the model is forgotten, its slot is already free
+            boolean removed = store.getTram(slot) != tram;
+            if (!removed && !isArrived(slot, timetable.getRoute(runningDeparture[i])))
+                continue;
+
+            if (!removed) {
+                store.setPosition(slot, store.getHeadTranche(slot), store.getHeadProgress(slot), 0d);
+                store.update(slot);
+                if (arrivedCount == 0)
+                    firstArrivalTime = time;
+                if (arrivedCount == arrived.length)
+                    arrived = Arrays.copyOf(arrived, arrivedCount * 2);
+                arrived[arrivedCount++] = tram;
+            }
+            runningCount--;
+            running[i] = running[runningCount];
+            runningDeparture[i] = runningDeparture[runningCount];
+            running[runningCount] = null;
+        }
+    }
+
+    /**
+     * send the stopped trams to the depot and remove them from the model trams with a single copy
+     */
+    private void retire() {
+        int retired = 0;
+        for (int i = 0; i < arrivedCount; i++) {
+            Tram tram = arrived[i];
+            arrived[i] = null;
+            // removed from the model while it waited
+            if (store.getTram(tram.getSlot()) != tram)
+                continue;
+            tram.detach();
+            if (depotCount == depot.length)
+                depot = Arrays.copyOf(depot, depotCount * 2);
+            depot[depotCount++] = tram;
+            retired++;
+        }
+        arrivedCount = 0;
+        if (retired > 0) {
+            trams.removeIf(tram -> !tram.isAttached());
+            retiredCount += retired;
+            RETIREMENTS.add(retired);
+        }
+    }
+
+    /**
+     * @return true once the head left the last tranche of the route or reached its end
+     */
+    private boolean isArrived(int slot, Route route) {
+        int last = route.size() - 1;
+        if (store.getRoutePosition(slot) != last)
+            return false;
+        AbstractTranche head = store.getHeadTranche(slot);
+        if (head == null || head.getId() != route.getTrancheId(last))
+            return true;
+        float progress = store.getHeadProgress(slot);
+        return store.isDirectionToStart(slot) ? progress <= 0f : progress >= 1f;
+    }
+
+    private Tram depart(int departure) {
+        Route route = timetable.getRoute(departure);
+        int locomotiveLength = timetable.getLocomotiveLength(departure);
+        int wagonLength = timetable.getWagonLength(departure);
+        int wagonsCount = timetable.getWagonsCount(departure);
+        int width = timetable.getWidth(departure);
+
+        Tram tram;
+        if (depotCount > 0) {
+            tram = depot[--depotCount];
+            depot[depotCount] = null;
+            tram.attach();
+            tram.setDimensions(locomotiveLength, wagonLength, wagonsCount, width);
+        } else {
+            tram = new Tram(store, firstVehicleId + vehiclesCount++, locomotiveLength, wagonLength, wagonsCount, width);
+        }
+
+        // the head enters the route at its start, the tram runs the way the route goes
+        TrackGraph graph = store.getGraph();
+        boolean towardNext = route.isTowardNext();
+        int headId = route.getTrancheId(0);
+        AbstractTranche head = graph != null ? graph.getTranche(graph.indexOfId(headId)) : null;
+        if (head == null)
+            throw new IllegalStateException("tranche #" + headId + " of " + route + " is not part of the model");
+
+        int slot = tram.getSlot();
+        store.setDirectionToStart(slot, !towardNext);
+        store.setPosition(slot, head, towardNext ? 0f : 1f, timetable.getSpeed(departure));
+        store.setRoute(slot, route);
+        store.update(slot);
+
+        if (runningCount == running.length) {
+            running = Arrays.copyOf(running, runningCount * 2);
+            runningDeparture = Arrays.copyOf(runningDeparture, runningCount * 2);
+        }
+        running[runningCount] = tram;
+        runningDeparture[runningCount] = departure;
+        runningCount++;
+        dispatchedCount++;
+        DEPARTURES.increment();
+        return tram;
+    }
+
+    @Override
+    public String toString() {
+        return "Dispatcher{next=" + nextDeparture + "/" + timetable.size() + ", running=" + runningCount
+                + ", arrived=" + arrivedCount + ", depot=" + depotCount + '}';
+    }
+}
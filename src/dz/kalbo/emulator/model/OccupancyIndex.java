@@ -0,0 +1,396 @@
+package dz.kalbo.emulator.model;
+
+import dz.kalbo.emulator.metrics.Counter;
+import dz.kalbo.emulator.metrics.Metrics;
+import dz.kalbo.emulator.tools.Kit;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Which part of every tranche is covered by which tram. Each tranche of the compiled graph keeps the extents of
+ * the trams on it as intervals sorted by start, in world units from the tranche start, so the tram ahead of a
+ * position is a binary search away and trams are only compared with their neighbours. A refresh only moves the
+ * intervals of the trams that moved since the previous one.
+ */
+public final class OccupancyIndex {
+
+    public static final int NO_TRAM = -1;
+
+    private static final Counter COLLISIONS = Metrics.getInstance().counter("traffic.collisions");
+    private static final Counter HEADWAY_ALERTS = Metrics.getInstance().counter("traffic.headway");
+
+    /**
+     * told about trams getting in trouble, once when it starts. called from the thread updating the model
+     */
+    public interface Listener {
+
+        void collision(Tram tram, Tram other);
+
+        void headway(Tram tram, Tram ahead, float distance);
+    }
+
+    private final TramStore store;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private TrackGraph graph;
+    private Lane[] lanes = new Lane[0];
+
+    // where every slot was registered, to take it out when it moves
+    private int[][] registeredLanes = new int[0][];
+    private float[][] registeredStarts = new float[0][];
+    private int[] registeredCount = new int[0];
+    private AbstractTranche[] registeredHead = new AbstractTranche[0];
+    private float[] registeredProgress = new float[0];
+    private int[] registeredLength = new int[0];
+
+    // what the last refresh found in front of every slot
+    private int[] aheadSlot = new int[0];
+    private float[] aheadDistance = new float[0];
+    private boolean[] colliding = new boolean[0];
+    private boolean[] tooClose = new boolean[0];
+
+    OccupancyIndex(TramStore store) {
+        this.store = store;
+    }
+
+    public void addListener(Listener listener) {
+        if (listener != null)
+            listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the slot of the closest tram in front of the given one within {@link Kit#HEADWAY_LOOKAHEAD}, or
+     * {@link #NO_TRAM}, as of the last refresh
+     */
+    public int getSlotAhead(int slot) {
+        return slot < aheadSlot.length ? aheadSlot[slot] : NO_TRAM;
+    }
+
+    public Tram getTramAhead(int slot) {
+        int ahead = getSlotAhead(slot);
+        return ahead != NO_TRAM ? store.getTram(ahead) : null;
+    }
+
+    /**
+     * @return free track in front of the tram head, 0 when it touches another tram and {@link Float#MAX_VALUE}
+     * when nothing is in sight
+     */
+    public float getDistanceAhead(int slot) {
+        return slot < aheadDistance.length ? aheadDistance[slot] : Float.MAX_VALUE;
+    }
+
+    public boolean isColliding(int slot) {
+        return slot < colliding.length && colliding[slot];
+    }
+
+    /**
+     * @return number of trams on the given tranche
+     */
+    public int getTramsCount(AbstractTranche tranche) {
+        int index = graph != null ? graph.indexOf(tranche) : TrackGraph.NONE;
+        return index != TrackGraph.NONE && lanes[index] != null ? lanes[index].count : 0;
+    }
+
+    /**
+     * move the intervals of the trams that moved, then look for collisions and trams closer than
+     * {@link Kit#MIN_HEADWAY} to the one ahead
+     */
+    void refresh() {
+        TrackGraph graph = store.getGraph();
+        if (graph == null)
+            return;
+        if (graph != this.graph)
+            reset(graph);
+        int size = store.getSize();
+        if (registeredCount.length < size)
+            grow(size);
+
+        for (int slot = 0; slot < size; slot++) {
+            if (store.getTram(slot) == null) {
+                unregister(slot);
+                continue;
+            }
+            if (registeredHead[slot] != store.getHeadTranche(slot)
+                    || registeredProgress[slot] != store.getHeadProgress(slot)
+                    || registeredLength[slot] != store.getTotalTramLength(slot)) {
+                unregister(slot);
+                register(slot);
+            }
+        }
+
+        for (int slot = 0; slot < size; slot++) {
+            Tram tram = store.getTram(slot);
+            if (tram == null) {
+                aheadSlot[slot] = NO_TRAM;
+                aheadDistance[slot] = Float.MAX_VALUE;
+                colliding[slot] = tooClose[slot] = false;
+                continue;
+            }
+
+            int other = findOverlap(slot);
+            boolean wasColliding = colliding[slot];
+            colliding[slot] = other != NO_TRAM;
+            if (other != NO_TRAM && !wasColliding) {
+                COLLISIONS.increment();
+                for (Listener listener : listeners)
+                    listener.collision(tram, store.getTram(other));
+            }
+
+            findAhead(slot);
+            boolean wasTooClose = tooClose[slot];
+            tooClose[slot] = aheadSlot[slot] != NO_TRAM && aheadDistance[slot] < Kit.MIN_HEADWAY;
+            if (tooClose[slot] && !wasTooClose) {
+                HEADWAY_ALERTS.increment();
+                for (Listener listener : listeners)
+                    listener.headway(tram, store.getTram(aheadSlot[slot]), aheadDistance[slot]);
+            }
+        }
+    }
+
+    private void reset(TrackGraph graph) {
+        this.graph = graph;
+        this.lanes = new Lane[graph.size()];
+        Arrays.fill(registeredCount, 0);
+        Arrays.fill(registeredHead, null);
+    }
+
+    private void grow(int size) {
+        int capacity = Math.max(size, registeredCount.length * 2);
+        int from = registeredCount.length;
+        registeredLanes = Arrays.copyOf(registeredLanes, capacity);
+        registeredStarts = Arrays.copyOf(registeredStarts, capacity);
+        registeredCount = Arrays.copyOf(registeredCount, capacity);
+        registeredHead = Arrays.copyOf(registeredHead, capacity);
+        registeredProgress = Arrays.copyOf(registeredProgress, capacity);
+        registeredLength = Arrays.copyOf(registeredLength, capacity);
+        aheadSlot = Arrays.copyOf(aheadSlot, capacity);
+        aheadDistance = Arrays.copyOf(aheadDistance, capacity);
+        colliding = Arrays.copyOf(colliding, capacity);
+        tooClose = Arrays.copyOf(tooClose, capacity);
+        for (int slot = from; slot < capacity; slot++) {
+            registeredLanes[slot] = new int[4];
+            registeredStarts[slot] = new float[4];
+            aheadSlot[slot] = NO_TRAM;
+            aheadDistance[slot] = Float.MAX_VALUE;
+        }
+    }
+
+    void unregister(int slot) {
+        if (slot >= registeredCount.length)
+            return;
+        int[] laneIds = registeredLanes[slot];
+        float[] starts = registeredStarts[slot];
+        for (int i = 0; i < registeredCount[slot]; i++)
+            lanes[laneIds[i]].remove(starts[i], slot);
+        registeredCount[slot] = 0;
+        registeredHead[slot] = null;
+    }
+
+    /**
+     * walk the tranches under the tram from the head toward the tail, the body trails opposite to the way the
+     * tram moves and enters every following tranche by the end it shares with the previous one
+     */
+    private void register(int slot) {
+        AbstractTranche head = store.getHeadTranche(slot);
+        registeredHead[slot] = head;
+        registeredProgress[slot] = store.getHeadProgress(slot);
+        registeredLength[slot] = store.getTotalTramLength(slot);
+        if (head == null)
+            return;
+
+        boolean towardNext = !store.isDirectionToStart(slot);
+        float remaining = registeredLength[slot];
+        int count = store.getTranchesUnderTramCount(slot);
+        for (int i = 0; i < count && remaining > 0; i++) {
+            AbstractTranche tranche = store.getTrancheUnderTram(slot, i);
+            int index = graph.indexOf(tranche);
+            float length = tranche.getLength();
+            float start, end;
+            if (i == 0) {
+                float position = length * Kit.bound(registeredProgress[slot]);
+                float covered = Math.min(remaining, towardNext ? position : length - position);
+                start = towardNext ? position - covered : position;
+                end = towardNext ? position : position + covered;
+                remaining -= covered;
+            } else {
+                float covered = Math.min(remaining, length);
+                start = towardNext ? length - covered : 0f;
+                end = towardNext ? length : covered;
+                remaining -= covered;
+            }
+            if (index != TrackGraph.NONE)
+                add(slot, index, start, end);
+        }
+    }
+
+    private void add(int slot, int index, float start, float end) {
+        Lane lane = lanes[index];
+        if (lane == null)
+            lane = lanes[index] = new Lane();
+        lane.insert(start, end, slot);
+
+        int count = registeredCount[slot];
+        if (count == registeredLanes[slot].length) {
+            registeredLanes[slot] = Arrays.copyOf(registeredLanes[slot], count * 2);
+            registeredStarts[slot] = Arrays.copyOf(registeredStarts[slot], count * 2);
+        }
+        registeredLanes[slot][count] = index;
+        registeredStarts[slot][count] = start;
+        registeredCount[slot] = count + 1;
+    }
+
+    /**
+     * @return a tram overlapping the given one on one of its tranches, only the neighbours in start order are
+     * checked since trams on a tranche do not overlap unless they collide
+     */
+    private int findOverlap(int slot) {
+        int[] laneIds = registeredLanes[slot];
+        float[] starts = registeredStarts[slot];
+        for (int i = 0; i < registeredCount[slot]; i++) {
+            Lane lane = lanes[laneIds[i]];
+            int position = lane.indexOf(starts[i], slot);
+            float end = lane.ends[position];
+            for (int other = position - 1; other >= 0; other--)
+                if (lane.slots[other] != slot) {
+                    if (lane.ends[other] > starts[i])
+                        return lane.slots[other];
+                    break;
+                }
+            for (int other = position + 1; other < lane.count; other++)
+                if (lane.slots[other] != slot) {
+                    if (lane.starts[other] < end)
+                        return lane.slots[other];
+                    break;
+                }
+        }
+        return NO_TRAM;
+    }
+
+    /**
+     * follow the track in front of the head, as a traverser would, until a tram is found or
+     * {@link Kit#HEADWAY_LOOKAHEAD} is walked
+     */
+    private void findAhead(int slot) {
+        aheadSlot[slot] = NO_TRAM;
+        aheadDistance[slot] = Float.MAX_VALUE;
+        AbstractTranche head = store.getHeadTranche(slot);
+        int index = head != null ? graph.indexOf(head) : TrackGraph.NONE;
+        if (index == TrackGraph.NONE)
+            return;
+
+        double direction = store.isDirectionToStart(slot) ? -1d : 1d;
+        float length = graph.getLength(index);
+        float position = length * Kit.bound(store.getHeadProgress(slot));
+        Lane lane = lanes[index];
+        if (lane != null && lane.findAhead(position, direction > 0, slot, 0f, aheadSlot, aheadDistance))
+            return;
+
+        // a tram on a route looks ahead along its route, then where the switches send it
+        int[] route = store.getRouteIndices(slot, direction > 0);
+        int routePosition = store.getRoutePosition(slot);
+        float walked = direction > 0 ? length - position : position;
+        for (int steps = 0; walked < Kit.HEADWAY_LOOKAHEAD && steps < lanes.length; steps++) {
+            if (route != null && routePosition + 1 < route.length && route[routePosition] == index) {
+                index = route[++routePosition];
+            } else {
+                route = null;
+                index = graph.next(index, direction);
+            }
+            if (index == TrackGraph.NONE)
+                return;
+            length = graph.getLength(index);
+            lane = lanes[index];
+            float entry = direction > 0 ? 0f : length;
+            if (lane != null && lane.findAhead(entry, direction > 0, slot, walked, aheadSlot, aheadDistance))
+                return;
+            walked += length;
+        }
+    }
+
+    /**
+     * the intervals of one tranche in start order
+     */
+    private static final class Lane {
+        private float[] starts = new float[2];
+        private float[] ends = new float[2];
+        private int[] slots = new int[2];
+        private int count;
+
+        /**
+         * @return the first position whose start is not less than the given one
+         */
+        private int lowerBound(float start) {
+            int low = 0, high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (starts[middle] < start)
+                    low = middle + 1;
+                else
+                    high = middle;
+            }
+            return low;
+        }
+
+        void insert(float start, float end, int slot) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                slots = Arrays.copyOf(slots, count * 2);
+            }
+            int position = lowerBound(start);
+            System.arraycopy(starts, position, starts, position + 1, count - position);
+            System.arraycopy(ends, position, ends, position + 1, count - position);
+            System.arraycopy(slots, position, slots, position + 1, count - position);
+            starts[position] = start;
+            ends[position] = end;
+            slots[position] = slot;
+            count++;
+        }
+
+        int indexOf(float start, int slot) {
+            for (int position = lowerBound(start); position < count && starts[position] == start; position++)
+                if (slots[position] == slot)
+                    return position;
+            throw new IllegalStateException("slot " + slot + " is not registered at " + start);
+        }
+
+        void remove(float start, int slot) {
+            int position = indexOf(start, slot);
+            count--;
+            System.arraycopy(starts, position + 1, starts, position, count - position);
+            System.arraycopy(ends, position + 1, ends, position, count - position);
+            System.arraycopy(slots, position + 1, slots, position, count - position);
+        }
+
+        /**
+         * look for the closest interval of another slot in front of the given position, intervals overlapping
+         * the position are at distance 0
+         *
+         * @return true if one was found, its slot and distance plus the walked distance are written at the slot
+         */
+        boolean findAhead(float position, boolean towardEnd, int slot, float walked, int[] aheadSlot, float[] aheadDistance) {
+            int first = lowerBound(position);
+            if (towardEnd) {
+                for (int i = first; i < count; i++)
+                    if (slots[i] != slot)
+                        return found(slot, slots[i], walked + starts[i] - position, aheadSlot, aheadDistance);
+            } else {
+                for (int i = first - 1; i >= 0; i--)
+                    if (slots[i] != slot)
+                        return found(slot, slots[i], walked + Math.max(position - ends[i], 0f), aheadSlot, aheadDistance);
+            }
+            return false;
+        }
+
+        private static boolean found(int slot, int other, float distance, int[] aheadSlot, float[] aheadDistance) {
+            aheadSlot[slot] = other;
+            aheadDistance[slot] = distance;
+            return true;
+        }
+    }
+}
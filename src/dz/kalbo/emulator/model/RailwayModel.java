@@ -1,14 +1,18 @@
 package dz.kalbo.emulator.model;
 
+import dz.kalbo.emulator.metrics.Counter;
+import dz.kalbo.emulator.metrics.Histogram;
+import dz.kalbo.emulator.metrics.Metrics;
 import dz.kalbo.emulator.tools.Kit;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -16,12 +20,39 @@ import java.util.function.Consumer;
 
 public class RailwayModel implements Updater {
 
+    // latencies in nanoseconds, shared by all the models
+    private static final Histogram LOCK_ACQUIRE_TIME = Metrics.getInstance().histogram("model.lock.acquire");
+    private static final Histogram UPDATE_TIME = Metrics.getInstance().histogram("model.update");
+    private static final Histogram ROAD_UPDATE_TIME = Metrics.getInstance().histogram("model.update.road");
+    // the trams phase of a tick as a whole, moving, dispatching and refreshing the indexes
+    private static final Histogram TRAMS_UPDATE_TIME = Metrics.getInstance().histogram("model.update.trams");
+    private static final Histogram SNAPSHOT_TIME = Metrics.getInstance().histogram("model.snapshot");
+    private static final Histogram READ_WAIT_TIME = Metrics.getInstance().histogram("model.read.wait");
+    private static final Histogram WRITE_WAIT_TIME = Metrics.getInstance().histogram("model.write.wait");
+    private static final Counter UPDATES = Metrics.getInstance().counter("model.updates");
+    private static final Counter SKIPPED_READS = Metrics.getInstance().counter("model.read.skipped");
+    private static final Counter SKIPPED_WRITES = Metrics.getInstance().counter("model.write.skipped");
+
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private Context context;
     private final List<Component> listeners = new CopyOnWriteArrayList<>();
     private final List<Road> roads = new CopyOnWriteArrayList<>();
     private final List<Tram> trams = new CopyOnWriteArrayList<>();
+    private final TramStore tramStore;
+    private TrackIndex trackIndex;
+    private TrackGraph trackGraph;
+    private Router router;
+    private volatile Dispatcher dispatcher;
+    private int topologyVersion;
+    private int trackIndexVersion = -1;
+    private int trackGraphVersion = -1;
+
+    // what the renderer draws, replaced as a whole after each tick
+    private volatile RenderSnapshot snapshot;
+    private volatile Rectangle viewArea;
+    // trams visible in the view area, only used by the writer thread
+    private final List<Tram> visibleTrams = new ArrayList<>();
 
     public RailwayModel(int width, int height) {
         this(width, height, 1f);
@@ -29,6 +60,9 @@ public class RailwayModel implements Updater {
 
     public RailwayModel(int width, int height, float zoom) {
         this.context = new Context(width, height, zoom);
+        this.tramStore = new TramStore(context);
+        this.tramStore.setWorkers(Kit.DEFAULT_UPDATE_WORKERS);
+        this.tramStore.enableIndex(Kit.SPATIAL_CELL_SIZE);
     }
 
     public Context getContext() {
@@ -39,64 +73,374 @@ public class RailwayModel implements Updater {
         return trams;
     }
 
+    public TramStore getTramStore() {
+        return tramStore;
+    }
+
+    public int getUpdateWorkers() {
+        return tramStore.getWorkers();
+    }
+
+    public void setUpdateWorkers(int workers) {
+        write(model -> tramStore.setWorkers(workers));
+    }
+
     public List<Road> getRoads() {
         return roads;
     }
 
     public void addRoad(Road road) {
         roads.add(road);
+        invalidateTopology();
+    }
+
+    /**
+     * add many roads with a single copy of the roads list
+     */
+    public void addRoads(Collection<Road> roads) {
+        this.roads.addAll(roads);
+        invalidateTopology();
+    }
+
+    /**
+     * must be called after tranches of an already added road are added, moved or linked
+     */
+    public synchronized void invalidateTopology() {
+        topologyVersion++;
+    }
+
+    /**
+     * @return the spatial index of the tranches, rebuilt on the first call after a topology change
+     */
+    public synchronized TrackIndex getTrackIndex() {
+        if (trackIndexVersion != topologyVersion) {
+            trackIndex = new TrackIndex(roads, Kit.SPATIAL_CELL_SIZE);
+            trackIndexVersion = topologyVersion;
+        }
+        return trackIndex;
+    }
+
+    /**
+     * @return the compiled tranches graph trams move on, compiled again on the first call after a topology change
+     */
+    public synchronized TrackGraph getTrackGraph() {
+        if (trackGraphVersion != topologyVersion) {
+            trackGraph = TrackGraph.compile(roads);
+            trackGraphVersion = topologyVersion;
+        }
+        return trackGraph;
+    }
+
+    /**
+     * @return a router over the current compiled graph, a new one is built when the graph is compiled again
+     */
+    public synchronized Router getRouter() {
+        TrackGraph graph = getTrackGraph();
+        if (router == null || router.getGraph() != graph)
+            router = new Router(graph);
+        return router;
+    }
+
+    /**
+     * @param area a rectangle in world units
+     * @return tranches that may be drawn inside the area
+     */
+    public List<AbstractTranche> queryTranches(Rectangle area) {
+        return getTrackIndex().query(area);
+    }
+
+    /**
+     * @param area a rectangle in world units
+     * @return trams that may be drawn inside the area
+     */
+    public List<Tram> queryTrams(Rectangle area) {
+        // the query refreshes a stale index, so it excludes the update like a writer
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            return tramStore.queryTrams(area, new ArrayList<>());
+        } finally {
+            lock.unlock();
+        }
     }
 
     public void addTram(Tram tram) {
+        tram.moveTo(tramStore);
         trams.add(tram);
     }
 
+    /**
+     * add many trams with a single copy of the trams list
+     */
+    public void addTrams(Collection<Tram> trams) {
+        for (Tram tram : trams)
+            tram.moveTo(tramStore);
+        this.trams.addAll(trams);
+    }
+
+    public void removeTram(Tram tram) {
+        if (trams.remove(tram))
+            tramStore.release(tram.getSlot());
+    }
+
     public void update(long timeSinceLastUpdate) {
+        update(timeSinceLastUpdate, true);
+    }
+
+    /**
+     * a late engine can skip the snapshot and the repaint of catch up steps, the view keeps the last frame
+     */
+    @Override
+    public void update(long timeSinceLastUpdate, boolean render) {
         Context updateContext = new Context(context.getWidth(), context.getHeight(),
                 context.getZoom(), context.getTime() + timeSinceLastUpdate);
 
-        update(updateContext);
+        update(updateContext, render);
     }
 
     public void update(Context newContext) {
-        if (SwingUtilities.isEventDispatchThread())
+        update(newContext, true);
+    }
+
+    private void update(Context newContext, boolean render) {
+        if (isUiThread())
             throw new IllegalThreadStateException("dont update from UI thread");
 
+        // the renderer works on snapshots, the lock is only shared with writers so the tick waits for them
+        // instead of being dropped
         long lockTime = System.nanoTime();
         try {
             Lock lock = this.lock.writeLock();
-            if (lock.tryLock(100, TimeUnit.MILLISECONDS)) {
-                long acquireTime = System.nanoTime();
-                Context oldContext = this.context;
-                try {
-                    this.context = newContext;
-                    for (Road road : this.roads)
-                        road.update(newContext);
-                    for (Tram tram : this.trams)
-                        tram.update(newContext);
-                } finally {
-                    long now = System.nanoTime();
-                    lock.unlock();
+            lock.lockInterruptibly();
+            long acquireTime = System.nanoTime();
+            LOCK_ACQUIRE_TIME.record(acquireTime - lockTime);
+            Context oldContext = this.context;
+            try {
+                this.context = newContext;
+                long roadTime = acquireTime;
+                for (Road road : this.roads) {
+                    road.update(newContext);
+                    long end = System.nanoTime();
+                    ROAD_UPDATE_TIME.record(end - roadTime);
+                    roadTime = end;
+                }
+                tramStore.setGraph(getTrackGraph());
+                tramStore.update(newContext);
+                if (dispatcher != null)
+                    dispatcher.dispatch(newContext.getTime());
+                tramStore.invalidateIndex();
+                tramStore.refreshOccupancy();
+                tramStore.refreshSignalling();
+                long tramsTime = System.nanoTime();
+                TRAMS_UPDATE_TIME.record(tramsTime - roadTime);
+                if (render) {
+                    publishSnapshot();
+                    SNAPSHOT_TIME.record(System.nanoTime() - tramsTime);
+                }
+            } finally {
+                long now = System.nanoTime();
+                lock.unlock();
+                UPDATE_TIME.record(now - acquireTime);
+                UPDATES.increment();
 
+                if (render)
                     repaint();
-                    if (newContext.getScreenWidth() != oldContext.getScreenWidth()
-                            || newContext.getScreenHeight() != oldContext.getScreenHeight())
-                        resize();
-
-                    if (Kit.SHOW_UPDATE_TIME) {
-                        System.out.println("update done in: " + Kit.printAsMillis(now - acquireTime)
-                                + " (+" + Kit.printAsMillis(acquireTime - lockTime) + ")");
-                    }
+                if (newContext.getScreenWidth() != oldContext.getScreenWidth()
+                        || newContext.getScreenHeight() != oldContext.getScreenHeight())
+                    resize();
+
+                if (Kit.SHOW_UPDATE_TIME) {
+                    System.out.println("update done in: " + Kit.printAsMillis(now - acquireTime)
+                            + " (+" + Kit.printAsMillis(acquireTime - lockTime) + ")");
                 }
-            } else
-                System.out.println("write skipped!");
+            }
         } catch (InterruptedException e) {
+            SKIPPED_WRITES.increment();
             e.printStackTrace();
             Thread.currentThread().interrupt();
         }
     }
 
+    /**
+     * start tracking the trams extents on every tranche to find collisions and trams too close to the one
+     * ahead, see {@link OccupancyIndex}
+     */
+    public void enableOccupancy(OccupancyIndex.Listener listener) {
+        write(model -> {
+            tramStore.setGraph(getTrackGraph());
+            tramStore.enableOccupancy(listener);
+        });
+    }
+
+    /**
+     * set the switch at the end the junction tranche shares with the target, trams without a route then go to
+     * the target when leaving the junction by that end
+     */
+    public void setSwitch(AbstractTranche junction, AbstractTranche target) {
+        write(model -> {
+            TrackGraph graph = getTrackGraph();
+            int index = graph.indexOf(junction);
+            if (index != TrackGraph.NONE)
+                graph.setSwitch(index, target);
+            else
+                junction.switchTo(target);
+            tramStore.scheduleOn(junction);
+        });
+    }
+
+    public void enableSignalling() {
+        enableSignalling(Kit.DEFAULT_BLOCK_LENGTH);
+    }
+
+    /**
+     * let the block signalling drive the trams speed, see {@link BlockSignalling}
+     */
+    public void enableSignalling(float blockLength) {
+        write(model -> {
+            tramStore.setGraph(getTrackGraph());
+            tramStore.enableSignalling(blockLength);
+        });
+    }
+
+    /**
+     * dispatch the departures of the timetable from the current time on, trams are spawned and retired by the
+     * updates, see {@link Dispatcher}. Trams of a previous timetable stay in the model, null stops dispatching.
+     */
+    public void setTimetable(Timetable timetable) {
+        write(model -> {
+            tramStore.setGraph(getTrackGraph());
+            dispatcher = timetable != null
+                    ? new Dispatcher(tramStore, trams, timetable, Kit.FIRST_VEHICLE_ID, context.getTime())
+                    : null;
+        });
+    }
+
+    /**
+     * @return the dispatcher of the current timetable, null without one
+     */
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * switch trams to event driven updates, see {@link TramStore#enableEvents()}
+     */
+    public void enableEvents() {
+        write(model -> tramStore.enableEvents());
+    }
+
+    /**
+     * @return time of the next tram event or {@link TramStore#NO_EVENT}
+     */
+    public long getNextEventTime() {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            return tramStore.getNextEventTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * move the trams that have an event until the given time and move the model time there, the other trams and
+     * the picture are brought to that time by the next {@link #update(Context)}
+     *
+     * @return number of events processed
+     */
+    public int processEvents(long time) {
+        try {
+            Lock lock = this.lock.writeLock();
+            lock.lockInterruptibly();
+            try {
+                tramStore.setGraph(getTrackGraph());
+                int processed = tramStore.processEvents(time);
+                if (time > context.getTime()) {
+                    context = new Context(context.getWidth(), context.getHeight(), context.getZoom(), time);
+                    tramStore.setContext(context);
+                }
+                return processed;
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+
+    /**
+     * @return the last published picture of the model, null before the first one
+     */
+    public RenderSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * tell which world area the renderer shows, null for everything. snapshots only carry the trams of this
+     * area and a new one is published right away
+     */
+    public void setViewArea(Rectangle area) {
+        this.viewArea = area != null ? new Rectangle(area) : null;
+        write(model -> {
+            publishSnapshot();
+            repaint();
+        });
+    }
+
+    /**
+     * must be called by the writer thread, headless models without listeners skip it
+     */
+    private void publishSnapshot() {
+        if (listeners.isEmpty())
+            return;
+
+        Rectangle area = viewArea;
+        List<Tram> visible = visibleTrams;
+        if (area != null)
+            tramStore.queryTrams(area, visible);
+        else
+            visible.addAll(trams);
+
+        // bodies are computed here for the visible trams only, then copied one after the other
+        int length = 0;
+        int count = 0;
+        for (Tram tram : visible) {
+            int points = tramStore.getShapePoints(tram.getSlot());
+            if (points > 0) {
+                length += points * 2;
+                count++;
+            }
+        }
+        float[] coordinates = new float[length];
+        int[] offsets = new int[count + 1];
+        Stroke[] strokes = new Stroke[count];
+        int i = 0;
+        for (Tram tram : visible) {
+            int slot = tram.getSlot();
+            int points = tramStore.getShapePoints(slot);
+            if (points > 0) {
+                System.arraycopy(tramStore.getShapeCoordinates(slot), 0, coordinates, offsets[i], points * 2);
+                strokes[i] = tramStore.getStroke(slot);
+                offsets[i + 1] = offsets[i] + points * 2;
+                i++;
+            }
+        }
+
+        visible.clear();
+
+        snapshot = new RenderSnapshot(context, getTrackIndex(), area, coordinates, offsets, strokes);
+    }
+
+    private boolean isUiThread() {
+        // headless models have no listeners and must not touch AWT at all
+        return !listeners.isEmpty() && SwingUtilities.isEventDispatchThread();
+    }
+
     private void repaint() {
+        if (listeners.isEmpty())
+            return;
         if (SwingUtilities.isEventDispatchThread())
             doRepaint();
         else
@@ -109,6 +453,8 @@ public class RailwayModel implements Updater {
     }
 
     private void resize() {
+        if (listeners.isEmpty())
+            return;
         if (SwingUtilities.isEventDispatchThread())
             doResize();
         else
@@ -122,62 +468,101 @@ public class RailwayModel implements Updater {
     }
 
     public void read(Consumer<RailwayModel> reader) {
+        Lock lock = this.lock.readLock();
+        long lockTime = System.nanoTime();
         try {
-            Lock lock = this.lock.readLock();
-            if (lock.tryLock(100, TimeUnit.MILLISECONDS))
-                try {
-                    reader.accept(this);
-                } finally {
-                    lock.unlock();
-                }
-            else
-                System.out.println("read skipped!");
+            lock.lockInterruptibly();
         } catch (InterruptedException e) {
+            SKIPPED_READS.increment();
             e.printStackTrace();
             Thread.currentThread().interrupt();
+            return;
+        }
+        READ_WAIT_TIME.record(System.nanoTime() - lockTime);
+
+        try {
+            reader.accept(this);
+        } finally {
+            lock.unlock();
         }
     }
 
     public void write(Consumer<RailwayModel> writer) {
         Runnable job = () -> {
             Lock lock = this.lock.writeLock();
+            long lockTime = System.nanoTime();
             try {
-                if (lock.tryLock(100, TimeUnit.MILLISECONDS))
-                    try {
-                        writer.accept(this);
-                    } finally {
-                        lock.unlock();
-                    }
-                else
-                    System.out.println("skip write");
+                lock.lockInterruptibly();
             } catch (InterruptedException e) {
+                SKIPPED_WRITES.increment();
                 e.printStackTrace();
                 Thread.currentThread().interrupt();
+                return;
+            }
+            WRITE_WAIT_TIME.record(System.nanoTime() - lockTime);
+
+            try {
+                writer.accept(this);
+            } finally {
+                lock.unlock();
             }
         };
 
-        if (SwingUtilities.isEventDispatchThread())
+        if (isUiThread())
             executor.execute(job);
         else
             job.run();
     }
 
+    /**
+     * stop the threads of the model once it is not used anymore
+     */
+    public void close() {
+        executor.shutdown();
+        tramStore.close();
+    }
+
     public void addListener(Component listener) {
         listeners.add(listener);
+        write(model -> publishSnapshot());
         resize();
         repaint();
     }
 
+    /**
+     * the model is kept in world units and the zoom is applied when drawing, so changing it does not touch
+     * roads or trams
+     */
     public void setZoom(float newZoom) {
-        write(model -> update(new Context(context.getWidth(), context.getHeight(), newZoom, context.getTime())));
-
+        write(model -> setContext(new Context(context.getWidth(), context.getHeight(), newZoom, context.getTime())));
     }
 
     public void setWidth(int width) {
-        write(model -> update(new Context(width, context.getHeight(), context.getZoom(), context.getTime())));
+        write(model -> setContext(new Context(width, context.getHeight(), context.getZoom(), context.getTime())));
     }
 
     public void setHeight(int height) {
-        write(model -> update(new Context(context.getWidth(), height, context.getZoom(), context.getTime())));
+        write(model -> setContext(new Context(context.getWidth(), height, context.getZoom(), context.getTime())));
+    }
+
+    /**
+     * move the simulated time without advancing trams, used when resuming from a checkpoint
+     */
+    public void restoreTime(long time) {
+        write(model -> {
+            tramStore.setContext(new Context(context.getWidth(), context.getHeight(), context.getZoom(), time));
+            tramStore.invalidateIndex();
+            setContext(tramStore.getContext());
+        });
+    }
+
+    private void setContext(Context newContext) {
+        Context oldContext = this.context;
+        this.context = newContext;
+        publishSnapshot();
+        if (newContext.getScreenWidth() != oldContext.getScreenWidth()
+                || newContext.getScreenHeight() != oldContext.getScreenHeight())
+            resize();
+        repaint();
     }
 }
@@ -0,0 +1,64 @@
+package dz.kalbo.emulator.model;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+
+/**
+ * An immutable picture of the model published by the engine after each tick, the renderer draws it without
+ * locking the live model
+ */
+public final class RenderSnapshot {
+
+    private final Context context;
+    private final TrackIndex trackIndex;
+    private final Rectangle area;
+
+    // bodies of all the trams as x, y pairs one after the other, tram i has its points from offsets[i] to
+    // offsets[i + 1], shapes are only built when drawing
+    private final float[] tramCoordinates;
+    private final int[] tramOffsets;
+    private final Stroke[] tramStrokes;
+
+    RenderSnapshot(Context context, TrackIndex trackIndex, Rectangle area, float[] tramCoordinates, int[] tramOffsets,
+                   Stroke[] tramStrokes) {
+        this.context = context;
+        this.trackIndex = trackIndex;
+        this.area = area != null ? new Rectangle(area) : null;
+        this.tramCoordinates = tramCoordinates;
+        this.tramOffsets = tramOffsets;
+        this.tramStrokes = tramStrokes;
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public TrackIndex getTrackIndex() {
+        return trackIndex;
+    }
+
+    /**
+     * @return the world area which trams are part of this snapshot, null for all the trams
+     */
+    public Rectangle getArea() {
+        return area != null ? new Rectangle(area) : null;
+    }
+
+    public int getTramsCount() {
+        return tramStrokes.length;
+    }
+
+    /**
+     * draw the trams, the graphics must already be in world units
+     */
+    public void drawTrams(Graphics2D g) {
+        Path2D.Float path = new Path2D.Float();
+        for (int i = 0; i < tramStrokes.length; i++) {
+            path.reset();
+            int offset = tramOffsets[i];
+            TramStore.appendShape(path, tramCoordinates, offset, (tramOffsets[i + 1] - offset) / 2);
+            g.setStroke(tramStrokes[i]);
+            g.draw(path);
+        }
+    }
+}
@@ -69,29 +69,11 @@ public class Road implements Drawable {
         return currentContext;
     }
 
+    /**
+     * roads and their tranches are in world units, zoom is applied when drawing so there is nothing to rescale
+     */
     @Override
     public final void update(Context newContext) {
-        Context currentContext = this.currentContext;
-        if (Float.compare(newContext.getZoom(), currentContext.getZoom()) != 0) {
-            updateNow(newContext);
-        }
-    }
-
-    private void updateNow(Context newContext) {
         this.currentContext = newContext;
-        this.radios.scale(newContext.getZoom());
-        this.thickness.scale(newContext.getZoom());
-
-        LinkedList<AbstractTranche> tranchesNeedUpdate = new LinkedList<>(headTranches);
-        while (!tranchesNeedUpdate.isEmpty()) {
-            AbstractTranche currentTranche = tranchesNeedUpdate.pollFirst();
-            if (currentTranche != null) {
-                for (AbstractTranche tranche : currentTranche.getNext())
-                    if (tranche.needUpdate(newContext))
-                        tranchesNeedUpdate.add(tranche);
-
-                currentTranche.update(newContext);
-            }
-        }
     }
 }
@@ -0,0 +1,95 @@
+package dz.kalbo.emulator.model;
+
+import java.util.Arrays;
+
+/**
+ * The tranches a tram follows whatever the switches say, given by ids, and the way it goes through them. The way
+ * is part of the route since two tranches can be linked both ways. A route is resolved once per compiled graph
+ * into an array of graph ids, then taking the next tranche at a boundary is reading the next element. Routes are
+ * immutable and can be shared by many trams.
+ */
+public final class Route {
+
+    private final int[] trancheIds;
+    private final boolean towardNext;
+
+    // last resolution, replaced as a whole when the graph is compiled again since workers share it
+    private volatile Resolution resolution;
+
+    /**
+     * @param towardNext true if every tranche is a next of the previous one, false if it is a previews one
+     */
+    public Route(boolean towardNext, int... trancheIds) {
+        if (trancheIds.length == 0)
+            throw new IllegalArgumentException("a route needs at least one tranche");
+        this.towardNext = towardNext;
+        this.trancheIds = trancheIds.clone();
+    }
+
+    /**
+     * @return true if the route goes through next links, false if it goes through previews links, as a tram
+     * heading to the start
+     */
+    public boolean isTowardNext() {
+        return towardNext;
+    }
+
+    public int size() {
+        return trancheIds.length;
+    }
+
+    public int getTrancheId(int position) {
+        return trancheIds[position];
+    }
+
+    /**
+     * @return the first position of the tranche in the route or -1
+     */
+    public int indexOf(int trancheId) {
+        for (int position = 0; position < trancheIds.length; position++)
+            if (trancheIds[position] == trancheId)
+                return position;
+        return -1;
+    }
+
+    /**
+     * @return the graph ids of the route tranches, each one linked to the previous one the way the route goes
+     * @throws IllegalArgumentException if a tranche is not in the graph or is not linked to the previous one
+     */
+    int[] resolve(TrackGraph graph) {
+        Resolution resolution = this.resolution;
+        if (resolution == null || resolution.graph != graph) {
+            int[] indices = new int[trancheIds.length];
+            for (int position = 0; position < trancheIds.length; position++) {
+                indices[position] = graph.indexOfId(trancheIds[position]);
+                if (indices[position] == TrackGraph.NONE)
+                    throw new IllegalArgumentException("unknown tranche #" + trancheIds[position] + " in route");
+                if (position == 0)
+                    continue;
+
+                int previous = indices[position - 1];
+                if (towardNext ? !graph.isNext(previous, indices[position])
+                        : !graph.isPreviews(previous, indices[position]))
+                    throw new IllegalArgumentException("tranche #" + trancheIds[position] + " is not a "
+                            + (towardNext ? "next" : "previews") + " of #" + trancheIds[position - 1]);
+            }
+            this.resolution = resolution = new Resolution(graph, indices);
+        }
+        return resolution.indices;
+    }
+
+    @Override
+    public String toString() {
+        return "Route" + (towardNext ? "" : "<") + Arrays.toString(trancheIds);
+    }
+
+    private static final class Resolution {
+        private final TrackGraph graph;
+        private final int[] indices;
+
+        Resolution(TrackGraph graph, int[] indices) {
+            this.graph = graph;
+            this.indices = indices;
+        }
+    }
+}
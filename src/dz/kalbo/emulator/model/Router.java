@@ -0,0 +1,291 @@
+package dz.kalbo.emulator.model;
+
+import dz.kalbo.emulator.metrics.Counter;
+import dz.kalbo.emulator.metrics.Histogram;
+import dz.kalbo.emulator.metrics.Metrics;
+import dz.kalbo.emulator.tools.Kit;
+import dz.kalbo.emulator.tools.TimeQueue;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shortest routes over a compiled graph, whatever the switches say. A tram keeps its way so a route only
+ * follows next links or only previews links, the length of a route is the length of its tranches after the first
+ * one. Searches are A* guided by landmarks (ALT): distances from and to a few far apart tranches are computed once,
+ * then the triangle inequality gives a lower bound of the distance left from any tranche. Answers are kept in a
+ * LRU cache keyed by origin, destination and way.
+ * <p>
+ * A router is bound to one graph, queries can come from many threads.
+ */
+public final class Router {
+
+    private static final Histogram SEARCH_TIME = Metrics.getInstance().histogram("routing.search");
+    private static final Counter QUERIES = Metrics.getInstance().counter("routing.queries");
+    private static final Counter CACHE_HITS = Metrics.getInstance().counter("routing.cache.hits");
+
+    private static final float UNREACHABLE = Float.POSITIVE_INFINITY;
+
+    private final TrackGraph graph;
+    private final int landmarks;
+
+    // distances of every tranche from and to every landmark going toward next, landmarks of a tranche together
+    private final float[] fromLandmark;
+    private final float[] toLandmark;
+
+    private final Map<Long, Answer> cache;
+    private final ThreadLocal<Search> searches;
+
+    public Router(TrackGraph graph) {
+        this(graph, Kit.ROUTING_LANDMARKS, Kit.ROUTE_CACHE_SIZE);
+    }
+
+    public Router(TrackGraph graph, int landmarks, int cacheSize) {
+        this.graph = graph;
+        int count = graph.size();
+        this.landmarks = count > 0 ? Math.max(Math.min(landmarks, count), 0) : 0;
+        this.fromLandmark = new float[count * this.landmarks];
+        this.toLandmark = new float[count * this.landmarks];
+        this.searches = ThreadLocal.withInitial(() -> new Search(count));
+        this.cache = new LinkedHashMap<Long, Answer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Answer> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        selectLandmarks();
+    }
+
+    public TrackGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @param towardNext true to follow next links, as a tram that is not heading to the start
+     * @return the shortest route from the origin to the destination, both included, or null if there is none
+     */
+    public Route findRoute(AbstractTranche origin, AbstractTranche destination, boolean towardNext) {
+        return answer(origin, destination, towardNext).route;
+    }
+
+    /**
+     * @return the length of the shortest route, {@link Float#POSITIVE_INFINITY} if there is none
+     */
+    public float getDistance(AbstractTranche origin, AbstractTranche destination, boolean towardNext) {
+        return answer(origin, destination, towardNext).distance;
+    }
+
+    /**
+     * @param speed in world units per ms
+     * @return time to run the shortest route at the given speed, {@link Long#MAX_VALUE} if there is none
+     */
+    public long getTravelTime(AbstractTranche origin, AbstractTranche destination, boolean towardNext, double speed) {
+        float distance = getDistance(origin, destination, towardNext);
+        if (distance == UNREACHABLE || speed <= 0)
+            return Long.MAX_VALUE;
+        return (long) Math.ceil(distance / speed);
+    }
+
+    private Answer answer(AbstractTranche origin, AbstractTranche destination, boolean towardNext) {
+        int from = graph.indexOf(origin);
+        int to = graph.indexOf(destination);
+        if (from == TrackGraph.NONE || to == TrackGraph.NONE)
+            throw new IllegalArgumentException("tranches must be part of the routed graph");
+
+        QUERIES.increment();
+        Long key = ((long) from << 33) | ((long) to << 1) | (towardNext ? 1 : 0);
+        Answer answer;
+        synchronized (cache) {
+            answer = cache.get(key);
+        }
+        if (answer != null) {
+            CACHE_HITS.increment();
+            return answer;
+        }
+
+        long start = System.nanoTime();
+        answer = searches.get().run(from, to, towardNext);
+        SEARCH_TIME.record(System.nanoTime() - start);
+        synchronized (cache) {
+            cache.put(key, answer);
+        }
+        return answer;
+    }
+
+    public void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * pick landmarks far from each other: the first one is the tranche farthest from tranche 0, each next one the
+     * tranche farthest from all the landmarks already picked. Tranches not reached are the farthest so every part
+     * of a split network gets landmarks.
+     */
+    private void selectLandmarks() {
+        if (landmarks == 0)
+            return;
+        int count = graph.size();
+        Search search = searches.get();
+        float[] closest = new float[count];
+        Arrays.fill(closest, UNREACHABLE);
+
+        search.fill(0, true, closest);
+        int landmark = farthest(closest);
+        Arrays.fill(closest, UNREACHABLE);
+        float[] distances = new float[count];
+        for (int l = 0; l < landmarks; l++) {
+            search.fill(landmark, true, distances);
+            for (int i = 0; i < count; i++) {
+                fromLandmark[i * landmarks + l] = distances[i];
+                closest[i] = Math.min(closest[i], distances[i]);
+            }
+            // previews links are the next links walked backward, the distance to the landmark going toward next
+            // is the backward distance plus the length of the landmark minus the length of the tranche
+            search.fill(landmark, false, distances);
+            float landmarkLength = graph.getLength(landmark);
+            for (int i = 0; i < count; i++)
+                toLandmark[i * landmarks + l] = distances[i] + landmarkLength - graph.getLength(i);
+            landmark = farthest(closest);
+        }
+    }
+
+    private static int farthest(float[] distances) {
+        int farthest = 0;
+        for (int i = 1; i < distances.length; i++)
+            if (distances[i] > distances[farthest])
+                farthest = i;
+        return farthest;
+    }
+
+    /**
+     * @return a lower bound of the distance going toward next from the first tranche to the second one
+     */
+    private float lowerBound(int from, int to) {
+        float bound = 0f;
+        int fromOffset = from * landmarks;
+        int toOffset = to * landmarks;
+        for (int l = 0; l < landmarks; l++) {
+            float a = fromLandmark[toOffset + l], b = fromLandmark[fromOffset + l];
+            if (a != UNREACHABLE && b != UNREACHABLE)
+                bound = Math.max(bound, a - b);
+            float c = toLandmark[fromOffset + l], d = toLandmark[toOffset + l];
+            if (c != UNREACHABLE && d != UNREACHABLE)
+                bound = Math.max(bound, c - d);
+        }
+        return bound;
+    }
+
+    /**
+     * @return lower bound of the distance left from the tranche to the target, going backward it is the forward
+     * distance from the target to the tranche with the two ends lengths swapped
+     */
+    private float heuristic(int tranche, int target, boolean towardNext) {
+        if (landmarks == 0)
+            return 0f;
+        if (towardNext)
+            return lowerBound(tranche, target);
+        return Math.max(lowerBound(target, tranche) + graph.getLength(target) - graph.getLength(tranche), 0f);
+    }
+
+    private static long key(float distance) {
+        // the bits of non negative floats are ordered like the floats
+        return Float.floatToIntBits(distance);
+    }
+
+    private static final class Answer {
+        private final Route route;
+        private final float distance;
+
+        Answer(Route route, float distance) {
+            this.route = route;
+            this.distance = distance;
+        }
+    }
+
+    /**
+     * per thread search state, stamps tell which entries belong to the current search so nothing is cleared
+     */
+    private final class Search {
+        private final float[] distance;
+        private final int[] parent;
+        private final int[] stamp;
+        private final TimeQueue queue = new TimeQueue();
+        private int currentStamp;
+
+        Search(int count) {
+            distance = new float[count];
+            parent = new int[count];
+            stamp = new int[count];
+        }
+
+        private int neighboursCount(int tranche, boolean towardNext) {
+            return towardNext ? graph.getNextCount(tranche) : graph.getPreviewsCount(tranche);
+        }
+
+        private int neighbour(int tranche, int position, boolean towardNext) {
+            return towardNext ? graph.getNext(tranche, position) : graph.getPreviews(tranche, position);
+        }
+
+        Answer run(int from, int to, boolean towardNext) {
+            int current = ++currentStamp;
+            stamp[from] = current;
+            distance[from] = 0f;
+            parent[from] = TrackGraph.NONE;
+            queue.clear();
+            queue.schedule(from, key(heuristic(from, to, towardNext)));
+
+            while (!queue.isEmpty()) {
+                int tranche = queue.poll();
+                if (tranche == to)
+                    break;
+                float trancheDistance = distance[tranche];
+                for (int i = 0, count = neighboursCount(tranche, towardNext); i < count; i++) {
+                    int next = neighbour(tranche, i, towardNext);
+                    float nextDistance = trancheDistance + graph.getLength(next);
+                    if (stamp[next] != current || nextDistance < distance[next]) {
+                        stamp[next] = current;
+                        distance[next] = nextDistance;
+                        parent[next] = tranche;
+                        queue.schedule(next, key(nextDistance + heuristic(next, to, towardNext)));
+                    }
+                }
+            }
+            queue.clear();
+
+            if (stamp[to] != current)
+                return new Answer(null, UNREACHABLE);
+            int length = 1;
+            for (int tranche = to; tranche != from; tranche = parent[tranche])
+                length++;
+            int[] ids = new int[length];
+            for (int tranche = to, position = length - 1; position >= 0; tranche = parent[tranche], position--)
+                ids[position] = graph.getTranche(tranche).getId();
+            return new Answer(new Route(towardNext, ids), distance[to]);
+        }
+
+        /**
+         * plain Dijkstra from one tranche to all the others
+         */
+        void fill(int from, boolean towardNext, float[] distances) {
+            Arrays.fill(distances, UNREACHABLE);
+            distances[from] = 0f;
+            queue.clear();
+            queue.schedule(from, key(0f));
+            while (!queue.isEmpty()) {
+                int tranche = queue.poll();
+                float trancheDistance = distances[tranche];
+                for (int i = 0, count = neighboursCount(tranche, towardNext); i < count; i++) {
+                    int next = neighbour(tranche, i, towardNext);
+                    float nextDistance = trancheDistance + graph.getLength(next);
+                    if (nextDistance < distances[next]) {
+                        distances[next] = nextDistance;
+                        queue.schedule(next, key(nextDistance));
+                    }
+                }
+            }
+        }
+    }
+}
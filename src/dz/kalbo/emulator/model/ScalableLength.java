@@ -2,25 +2,22 @@ package dz.kalbo.emulator.model;
 
 import java.util.Objects;
 
+/**
+ * A length in world units, zoom is only applied when drawing
+ */
 public class ScalableLength {
-    private final int originalLength;
-    private final float originalZoom;
 
-    public int length;
-    public float zoom;
+    public final int length;
 
-    public ScalableLength(int length, float zoom) {
-        this.originalLength = length;
-        this.originalZoom = zoom;
+    public ScalableLength(int length) {
         this.length = length;
-        this.zoom = zoom;
     }
 
-    public void scale(float newZoom) {
-        if (Float.compare(this.zoom, newZoom) != 0) {
-            this.zoom = newZoom;
-            this.length = (int) (originalLength / originalZoom * newZoom);
-        }
+    /**
+     * @param zoom the zoom the given screen length was measured with
+     */
+    public ScalableLength(int length, float zoom) {
+        this((int) (length / zoom));
     }
 
     @Override
@@ -28,12 +25,11 @@ public class ScalableLength {
         if (this == o) return true;
         if (!(o instanceof ScalableLength)) return false;
         ScalableLength that = (ScalableLength) o;
-        return originalLength == that.originalLength &&
-                Float.compare(that.originalZoom, originalZoom) == 0;
+        return length == that.length;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(originalLength, originalZoom);
+        return Objects.hash(length);
     }
 }
@@ -3,32 +3,24 @@ package dz.kalbo.emulator.model;
 
 import java.util.Objects;
 
+/**
+ * A point in world units, zoom is only applied when drawing
+ */
 public class ScalablePoint {
 
-    private final int originalX;
-    private final int originalY;
-    private final float originalZoom;
-
-    public int x;
-    public int y;
-    public float zoom;
-
-    public ScalablePoint(int x, int y, float zoom) {
-        this.originalX = x;
-        this.originalY = y;
-        this.originalZoom = zoom;
+    public final int x;
+    public final int y;
 
+    public ScalablePoint(int x, int y) {
         this.x = x;
         this.y = y;
-        this.zoom = zoom;
     }
 
-    public void scale(float newZoom) {
-        if (Float.compare(this.zoom, newZoom) != 0) {
-            this.zoom = newZoom;
-            this.x = (int) (originalX / originalZoom * newZoom);
-            this.y = (int) (originalY / originalZoom * newZoom);
-        }
+    /**
+     * @param zoom the zoom the given screen coordinates where measured with
+     */
+    public ScalablePoint(int x, int y, float zoom) {
+        this((int) (x / zoom), (int) (y / zoom));
     }
 
     @Override
@@ -36,11 +28,16 @@ public class ScalablePoint {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ScalablePoint that = (ScalablePoint) o;
-        return originalX == that.originalX && originalY == that.originalY && Float.compare(that.originalZoom, originalZoom) == 0;
+        return x == that.x && y == that.y;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(originalX, originalY, originalZoom);
+        return Objects.hash(x, y);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ", " + y + ')';
     }
 }
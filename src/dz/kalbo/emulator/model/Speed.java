@@ -2,29 +2,26 @@ package dz.kalbo.emulator.model;
 
 import java.util.Objects;
 
+/**
+ * A speed in world units per time unit, zoom is only applied when drawing
+ */
 public class Speed {
-    private final double originalSpeed;
-    private final float originalZoom;
 
-    public double speed;
-    public float zoom;
+    public final double speed;
 
-    public Speed(float zoom) {
-        this(0d, zoom);
+    public Speed() {
+        this(0d);
     }
 
-    public Speed(double speed, float zoom) {
-        this.originalSpeed = speed;
-        this.originalZoom = zoom;
+    public Speed(double speed) {
         this.speed = speed;
-        this.zoom = zoom;
     }
 
-    public void scale(float newZoom) {
-        if (Float.compare(this.zoom, newZoom) != 0) {
-            this.zoom = newZoom;
-            this.speed = originalSpeed / originalZoom * newZoom;
-        }
+    /**
+     * @param zoom the zoom the given screen speed was measured with
+     */
+    public Speed(double speed, float zoom) {
+        this(speed / zoom);
     }
 
     @Override
@@ -32,13 +29,12 @@ public class Speed {
         if (this == o) return true;
         if (!(o instanceof Speed)) return false;
         Speed speed = (Speed) o;
-        return originalSpeed == speed.originalSpeed &&
-                Float.compare(speed.originalZoom, originalZoom) == 0;
+        return Double.compare(this.speed, speed.speed) == 0;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(originalSpeed, originalZoom);
+        return Objects.hash(speed);
     }
 
     @Override
@@ -13,8 +13,7 @@ public class StraightTranche extends AbstractTranche {
         super(id, start, end, context);
     }
 
-    @Override
-    protected float calcLength(int width, int height) {
+    private static float calcLength(int width, int height) {
         return (float) Math.sqrt(Math.pow(width, 2) + Math.pow(height, 2));
     }
 
@@ -0,0 +1,153 @@
+package dz.kalbo.emulator.model;
+
+import java.util.Arrays;
+
+/**
+ * Departures of trams in parallel arrays ordered by time. A departure puts a tram at the start of its route at the
+ * given model time, the tram leaves the model when its head goes past the end of the route. Lengths are given at
+ * the model zoom like for {@link Tram}, speeds are in world units per ms.
+ */
+public final class Timetable {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] times = new long[DEFAULT_CAPACITY];
+    private Route[] routes = new Route[DEFAULT_CAPACITY];
+    private double[] speeds = new double[DEFAULT_CAPACITY];
+    private int[] locomotiveLengths = new int[DEFAULT_CAPACITY];
+    private int[] wagonLengths = new int[DEFAULT_CAPACITY];
+    private int[] wagonsCounts = new int[DEFAULT_CAPACITY];
+    private int[] widths = new int[DEFAULT_CAPACITY];
+    private int size;
+    private boolean sorted = true;
+
+    public void add(long time, Route route, double speed, int locomotiveLength, int wagonLength, int wagonsCount,
+                    int width) {
+        if (route == null)
+            throw new IllegalArgumentException("a departure needs a route");
+        if (speed <= 0)
+            throw new IllegalArgumentException("a departure needs a positive speed");
+        if (size == times.length)
+            grow(size * 2);
+
+        if (size > 0 && time < times[size - 1])
+            sorted = false;
+        times[size] = time;
+        routes[size] = route;
+        speeds[size] = speed;
+        locomotiveLengths[size] = locomotiveLength;
+        wagonLengths[size] = wagonLength;
+        wagonsCounts[size] = wagonsCount;
+        widths[size] = width;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        times = Arrays.copyOf(times, capacity);
+        routes = Arrays.copyOf(routes, capacity);
+        speeds = Arrays.copyOf(speeds, capacity);
+        locomotiveLengths = Arrays.copyOf(locomotiveLengths, capacity);
+        wagonLengths = Arrays.copyOf(wagonLengths, capacity);
+        wagonsCounts = Arrays.copyOf(wagonsCounts, capacity);
+        widths = Arrays.copyOf(widths, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int departure) {
+        sort();
+        return times[departure];
+    }
+
+    public Route getRoute(int departure) {
+        sort();
+        return routes[departure];
+    }
+
+    public double getSpeed(int departure) {
+        sort();
+        return speeds[departure];
+    }
+
+    public int getLocomotiveLength(int departure) {
+        sort();
+        return locomotiveLengths[departure];
+    }
+
+    public int getWagonLength(int departure) {
+        sort();
+        return wagonLengths[departure];
+    }
+
+    public int getWagonsCount(int departure) {
+        sort();
+        return wagonsCounts[departure];
+    }
+
+    public int getWidth(int departure) {
+        sort();
+        return widths[departure];
+    }
+
+    /**
+     * @return the first departure at or after the given time, {@link #size()} if there is none
+     */
+    public int indexOf(long time) {
+        sort();
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (times[middle] < time)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * departures added out of order are sorted once when first read, departures at the same time keep their order
+     */
+    private void sort() {
+        if (sorted)
+            return;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+
+        long[] times = new long[this.times.length];
+        Route[] routes = new Route[this.routes.length];
+        double[] speeds = new double[this.speeds.length];
+        int[] locomotiveLengths = new int[this.locomotiveLengths.length];
+        int[] wagonLengths = new int[this.wagonLengths.length];
+        int[] wagonsCounts = new int[this.wagonsCounts.length];
+        int[] widths = new int[this.widths.length];
+        for (int i = 0; i < size; i++) {
+            int departure = order[i];
+            times[i] = this.times[departure];
+            routes[i] = this.routes[departure];
+            speeds[i] = this.speeds[departure];
+            locomotiveLengths[i] = this.locomotiveLengths[departure];
+            wagonLengths[i] = this.wagonLengths[departure];
+            wagonsCounts[i] = this.wagonsCounts[departure];
+            widths[i] = this.widths[departure];
+        }
+        this.times = times;
+        this.routes = routes;
+        this.speeds = speeds;
+        this.locomotiveLengths = locomotiveLengths;
+        this.wagonLengths = wagonLengths;
+        this.wagonsCounts = wagonsCounts;
+        this.widths = widths;
+        sorted = true;
+    }
+
+    @Override
+    public String toString() {
+        return "Timetable{" + size + " departures}";
+    }
+}
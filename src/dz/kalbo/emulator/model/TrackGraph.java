@@ -0,0 +1,217 @@
+package dz.kalbo.emulator.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+/**
+ * A frozen copy of the tranches graph used by the movement code. Tranches get dense int ids and links are kept
+ * in offset arrays ordered by priority, the mutable object graph stays the one used for editing and a new
+ * graph must be compiled after it changes.
+ * <p>
+ * Lengths are copied at compile time: moving a tranche or changing its shape does not reach a compiled graph,
+ * {@link RailwayModel#invalidateTopology()} must be called so trams and routes see the new lengths.
+ */
+public final class TrackGraph {
+
+    public static final int NONE = -1;
+
+    private final AbstractTranche[] tranches;
+    private final float[] lengths;
+
+    private final int[] nextOffsets;
+    private final int[] nextTargets;
+    private final int[] previewsOffsets;
+    private final int[] previewsTargets;
+
+    // the highest priority link of every tranche
+    private final int[] firstNext;
+    private final int[] firstPreviews;
+
+    // the link the switch at each end of a tranche is set to, what a traverser follows
+    private final int[] selectedNext;
+    private final int[] selectedPreviews;
+
+    // tranches ids in order and the matching graph ids, to resolve routes
+    private final int[] sortedIds;
+    private final int[] sortedIndices;
+
+    private TrackGraph(AbstractTranche[] tranches) {
+        int count = tranches.length;
+        this.tranches = tranches;
+        this.lengths = new float[count];
+        this.nextOffsets = new int[count + 1];
+        this.previewsOffsets = new int[count + 1];
+        this.firstNext = new int[count];
+        this.firstPreviews = new int[count];
+        this.selectedNext = new int[count];
+        this.selectedPreviews = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            tranches[i].graphIndex = i;
+            lengths[i] = tranches[i].getLength();
+            nextOffsets[i + 1] = nextOffsets[i] + tranches[i].getNext().size();
+            previewsOffsets[i + 1] = previewsOffsets[i] + tranches[i].getPreviews().size();
+        }
+
+        this.nextTargets = new int[nextOffsets[count]];
+        this.previewsTargets = new int[previewsOffsets[count]];
+        for (int i = 0; i < count; i++) {
+            fill(tranches[i].getNext(), nextTargets, nextOffsets[i]);
+            fill(tranches[i].getPreviews(), previewsTargets, previewsOffsets[i]);
+            firstNext[i] = nextOffsets[i] < nextOffsets[i + 1] ? nextTargets[nextOffsets[i]] : NONE;
+            firstPreviews[i] = previewsOffsets[i] < previewsOffsets[i + 1] ? previewsTargets[previewsOffsets[i]] : NONE;
+            AbstractTranche nextSwitch = tranches[i].nextSwitch;
+            AbstractTranche previewsSwitch = tranches[i].previewsSwitch;
+            selectedNext[i] = nextSwitch != null ? indexOf(nextSwitch) : firstNext[i];
+            selectedPreviews[i] = previewsSwitch != null ? indexOf(previewsSwitch) : firstPreviews[i];
+        }
+
+        long[] idsAndIndices = new long[count];
+        for (int i = 0; i < count; i++)
+            idsAndIndices[i] = ((long) tranches[i].getId() << 32) | i;
+        Arrays.sort(idsAndIndices);
+        this.sortedIds = new int[count];
+        this.sortedIndices = new int[count];
+        for (int i = 0; i < count; i++) {
+            sortedIds[i] = (int) (idsAndIndices[i] >> 32);
+            sortedIndices[i] = (int) idsAndIndices[i];
+        }
+    }
+
+    private void fill(NavigableSet<AbstractTranche> links, int[] targets, int offset) {
+        for (AbstractTranche link : links)
+            targets[offset++] = indexOf(link);
+    }
+
+    /**
+     * give an id to every tranche reachable from the roads heads, following both next and previews links
+     */
+    public static TrackGraph compile(Collection<Road> roads) {
+        Map<AbstractTranche, Boolean> visited = new IdentityHashMap<>();
+        List<AbstractTranche> tranches = new ArrayList<>();
+        LinkedList<AbstractTranche> tranchesNeedVisit = new LinkedList<>();
+        for (Road road : roads)
+            tranchesNeedVisit.addAll(road.getHeadTranches());
+
+        while (!tranchesNeedVisit.isEmpty()) {
+            AbstractTranche currentTranche = tranchesNeedVisit.pollFirst();
+            if (visited.put(currentTranche, Boolean.TRUE) == null) {
+                tranches.add(currentTranche);
+                tranchesNeedVisit.addAll(currentTranche.getNext());
+                tranchesNeedVisit.addAll(currentTranche.getPreviews());
+            }
+        }
+        return new TrackGraph(tranches.toArray(new AbstractTranche[0]));
+    }
+
+    public int size() {
+        return tranches.length;
+    }
+
+    /**
+     * @return the id of the tranche in this graph or {@link #NONE} if it was not compiled in it
+     */
+    public int indexOf(AbstractTranche tranche) {
+        int index = tranche.graphIndex;
+        return index >= 0 && index < tranches.length && tranches[index] == tranche ? index : NONE;
+    }
+
+    /**
+     * @return the graph id of the tranche with the given id or {@link #NONE}
+     */
+    public int indexOfId(int id) {
+        int position = Arrays.binarySearch(sortedIds, id);
+        return position >= 0 ? sortedIndices[position] : NONE;
+    }
+
+    public AbstractTranche getTranche(int index) {
+        return tranches[index];
+    }
+
+    public float getLength(int index) {
+        return lengths[index];
+    }
+
+    public int getFirstNext(int index) {
+        return firstNext[index];
+    }
+
+    public int getFirstPreviews(int index) {
+        return firstPreviews[index];
+    }
+
+    /**
+     * @return the tranche a traverser enters when leaving the given one in the given direction, as the switches
+     * are set
+     */
+    public int next(int index, double direction) {
+        return direction > 0 ? selectedNext[index] : selectedPreviews[index];
+    }
+
+    public int getSelectedNext(int index) {
+        return selectedNext[index];
+    }
+
+    public int getSelectedPreviews(int index) {
+        return selectedPreviews[index];
+    }
+
+    /**
+     * set the switch of a compiled tranche, the tranche keeps it too so it survives a new compilation
+     *
+     * @param target a next or previews tranche of the given one
+     */
+    public void setSwitch(int index, AbstractTranche target) {
+        int targetIndex = indexOf(target);
+        if (targetIndex == NONE)
+            throw new IllegalArgumentException(target + " is not part of the graph");
+        if (tranches[index].switchTo(target))
+            selectedNext[index] = targetIndex;
+        else
+            selectedPreviews[index] = targetIndex;
+    }
+
+    /**
+     * @return true if the second tranche is one of the next ones of the first
+     */
+    public boolean isNext(int index, int next) {
+        for (int i = nextOffsets[index]; i < nextOffsets[index + 1]; i++)
+            if (nextTargets[i] == next)
+                return true;
+        return false;
+    }
+
+    public boolean isPreviews(int index, int previews) {
+        for (int i = previewsOffsets[index]; i < previewsOffsets[index + 1]; i++)
+            if (previewsTargets[i] == previews)
+                return true;
+        return false;
+    }
+
+    public int getNextCount(int index) {
+        return nextOffsets[index + 1] - nextOffsets[index];
+    }
+
+    public int getNext(int index, int position) {
+        return nextTargets[nextOffsets[index] + position];
+    }
+
+    public int getPreviewsCount(int index) {
+        return previewsOffsets[index + 1] - previewsOffsets[index];
+    }
+
+    public int getPreviews(int index, int position) {
+        return previewsTargets[previewsOffsets[index] + position];
+    }
+
+    @Override
+    public String toString() {
+        return "TrackGraph{tranches=" + tranches.length + ", links=" + nextTargets.length + '}';
+    }
+}
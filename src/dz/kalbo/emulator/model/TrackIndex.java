@@ -0,0 +1,66 @@
+package dz.kalbo.emulator.model;
+
+import dz.kalbo.emulator.tools.GridIndex;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A spatial index of the tranches of a set of roads, it is built once and replaced when the topology changes
+ */
+public class TrackIndex {
+
+    private final GridIndex<AbstractTranche> grid;
+    private final Map<AbstractTranche, Road> roadOfTranche = new IdentityHashMap<>();
+    private int margin;
+
+    public TrackIndex(Collection<Road> roads, int cellSize) {
+        this.grid = new GridIndex<>(cellSize);
+        for (Road road : roads)
+            add(road);
+    }
+
+    private void add(Road road) {
+        margin = Math.max(margin, road.getRadios() + road.getThickness());
+
+        LinkedList<AbstractTranche> tranchesNeedIndexing = new LinkedList<>(road.getHeadTranches());
+        while (!tranchesNeedIndexing.isEmpty()) {
+            AbstractTranche currentTranche = tranchesNeedIndexing.pollFirst();
+            if (currentTranche != null && !roadOfTranche.containsKey(currentTranche)) {
+                roadOfTranche.put(currentTranche, road);
+                grid.insert(currentTranche, currentTranche.getBounds());
+                tranchesNeedIndexing.addAll(currentTranche.getNext());
+            }
+        }
+    }
+
+    public int getTranchesCount() {
+        return roadOfTranche.size();
+    }
+
+    public Road getRoad(AbstractTranche tranche) {
+        return roadOfTranche.get(tranche);
+    }
+
+    /**
+     * @param area a rectangle in world units
+     * @return tranches which track may be drawn inside the area
+     */
+    public List<AbstractTranche> query(Rectangle area) {
+        return query(area, new ArrayList<>());
+    }
+
+    /**
+     * add to the result the tranches which track may be drawn inside the area, each one once
+     */
+    public <C extends Collection<? super AbstractTranche>> C query(Rectangle area, C result) {
+        Rectangle grownArea = new Rectangle(area);
+        grownArea.grow(margin, margin);
+        return grid.query(grownArea, result);
+    }
+}
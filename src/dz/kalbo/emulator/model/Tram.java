@@ -1,56 +1,86 @@
 package dz.kalbo.emulator.model;
 
-import dz.kalbo.emulator.tools.FinalList;
-import dz.kalbo.emulator.tools.Kit;
-
 import java.awt.*;
-import java.awt.geom.Path2D;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.List;
 
+/**
+ * A view over one slot of a {@link TramStore}, a tram that is not yet added to a model lives in its own small store.
+ */
 public class Tram implements Drawable {
-    private static final LinkedList<AbstractTranche> NO_TRANCHES = new FinalList<>();
+    private static final int NO_SLOT = -1;
+
     private final int id;
-    private boolean doubleLocomotive;
-    private ScalableLength locomotiveLength;
-    private ScalableLength wagonLength;
-    private int wagonsCount;
-    private ScalableLength width;
-    private Stroke stroke;
-    private boolean directionToStart;
 
-    private Context context;
+    private TramStore store;
+    private int slot;
 
-    private Speed velocity;
-    private Path2D tramShape;
+    // true while the tram lives in the store it created, no other tram shares its context
+    private boolean ownStore;
 
-    // position of tram head that point to the start of the current tranche
-    private AbstractTranche headTranche;
-    private float headProgress;
+    public Tram(int id, int locomotiveLength, int wagonLength, int wagonsCount, int width, Context context) {
+        this(new TramStore(1, context), id, locomotiveLength, wagonLength, wagonsCount, width);
+        this.ownStore = true;
+    }
 
-    private LinkedList<AbstractTranche> tranchesUnderTram = NO_TRANCHES;
+    public Tram(TramStore store, int id, int locomotiveLength, int wagonLength, int wagonsCount, int width) {
+        this.id = id;
+        this.store = store;
+        this.slot = store.allocate(this);
+        setDimensions(locomotiveLength, wagonLength, wagonsCount, width);
+    }
 
-    // last time position calculated
-    private Long lastTime;
+    /**
+     * given lengths are measured at the store zoom
+     */
+    void setDimensions(int locomotiveLength, int wagonLength, int wagonsCount, int width) {
+        float zoom = store.getContext().getZoom();
+        store.setLocomotiveLength(slot, locomotiveLength / zoom);
+        store.setWagonLength(slot, wagonLength / zoom);
+        store.setWagonsCount(slot, wagonsCount);
+        store.setWidth(slot, width / zoom);
+    }
 
-    public Tram(int id, int locomotiveLength, int wagonLength, int wagonsCount, int width, Context context) {
-        float zoom = context.getZoom();
-        this.id = id;
-        this.locomotiveLength = new ScalableLength(locomotiveLength, zoom);
-        this.wagonLength = new ScalableLength(wagonLength, zoom);
-        this.wagonsCount = wagonsCount;
-        this.width = new ScalableLength(width, zoom);
+    TramStore getStore() {
+        return store;
+    }
 
-        this.doubleLocomotive = false;
-        this.directionToStart = false;
+    int getSlot() {
+        return slot;
+    }
 
-        this.velocity = new Speed(zoom);
+    boolean isAttached() {
+        return slot != NO_SLOT;
+    }
 
-        update(context);
+    /**
+     * give the slot back to the store, the tram keeps its id and can be attached to the same store again
+     */
+    void detach() {
+        if (slot != NO_SLOT) {
+            store.release(slot);
+            slot = NO_SLOT;
+        }
     }
 
-    private void updateDrawParams() {
-        this.stroke = new BasicStroke(this.width.length, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER);
+    /**
+     * take a new slot in the store, its state is the one of a new tram
+     */
+    void attach() {
+        if (slot == NO_SLOT)
+            slot = store.allocate(this);
+    }
+
+    /**
+     * move the tram state into another store, the tram slot in the current store is released
+     */
+    void moveTo(TramStore target) {
+        if (target != store) {
+            int newSlot = target.copyFrom(store, slot);
+            store.release(slot);
+            this.store = target;
+            this.slot = newSlot;
+            this.ownStore = false;
+        }
     }
 
     @Override
@@ -59,240 +89,139 @@ public class Tram implements Drawable {
     }
 
     public double getCurrentSpeed() {
-        if (velocity != null)
-            return directionToStart ? -velocity.speed : velocity.speed;
-        else
-            return 0d;
+        return store.getCurrentSpeed(slot);
+    }
+
+    public Speed getSpeed() {
+        return new Speed(store.getSpeed(slot));
+    }
+
+    public float getSpeedFactor() {
+        return store.getSpeedFactor(slot);
     }
 
     public boolean isDoubleLocomotive() {
-        return doubleLocomotive;
+        return store.isDoubleLocomotive(slot);
     }
 
     public void setDoubleLocomotive(boolean doubleLocomotive) {
-        if (this.doubleLocomotive != doubleLocomotive) {
-            this.doubleLocomotive = doubleLocomotive;
-            update(context);
+        if (store.isDoubleLocomotive(slot) != doubleLocomotive) {
+            store.setDoubleLocomotive(slot, doubleLocomotive);
+            store.update(slot);
         }
     }
 
     public ScalableLength getLocomotiveLength() {
-        return locomotiveLength;
+        return new ScalableLength(store.getLocomotiveLength(slot));
     }
 
     public void setLocomotiveLength(ScalableLength locomotiveLength) {
-        if (this.locomotiveLength != locomotiveLength) {
-            this.locomotiveLength = locomotiveLength;
-            locomotiveLength.scale(context.getZoom());
-            update(context);
-        }
+        store.setLocomotiveLength(slot, locomotiveLength.length);
+        store.update(slot);
     }
 
     public ScalableLength getWagonLength() {
-        return wagonLength;
+        return new ScalableLength(store.getWagonLength(slot));
     }
 
     public void setWagonLength(ScalableLength wagonLength) {
-        if (this.wagonLength != wagonLength) {
-            this.wagonLength = wagonLength;
-            wagonLength.scale(context.getZoom());
-            update(context);
-        }
+        store.setWagonLength(slot, wagonLength.length);
+        store.update(slot);
     }
 
     public int getWagonsCount() {
-        return wagonsCount;
+        return store.getWagonsCount(slot);
     }
 
     public void setWagonsCount(int wagonsCount) {
-        if (this.wagonsCount != wagonsCount) {
-            this.wagonsCount = wagonsCount;
-            update(context);
+        if (store.getWagonsCount(slot) != wagonsCount) {
+            store.setWagonsCount(slot, wagonsCount);
+            store.update(slot);
         }
     }
 
     public int getWidth() {
-        return width.length;
+        return store.getWidth(slot);
     }
 
     public void setWidth(ScalableLength width) {
-        if (this.width != width) {
-            width.scale(context.getZoom());
-            this.width = width;
-            updateDrawParams();
-        }
+        store.setWidth(slot, width.length);
     }
 
     public boolean isDirectionToStart() {
-        return directionToStart;
+        return store.isDirectionToStart(slot);
     }
 
     public void setDirectionToStart(boolean directionToStart) {
-        if (this.directionToStart != directionToStart) {
-            this.directionToStart = directionToStart;
-            update(context);
-        }
-    }
-
-    @Override
-    public Context getCurrentContext() {
-        return context;
-    }
-
-    public void draw(Graphics2D g) {
-        if (tramShape != null) {
-            g.setStroke(stroke);
-            g.draw(tramShape);
+        if (store.isDirectionToStart(slot) != directionToStart) {
+            store.setDirectionToStart(slot, directionToStart);
+            store.update(slot);
         }
     }
 
-    @Override
-    public final void update(Context newContext) {
-        Context currentContext = this.context;
-        if (currentContext == null ||
-                Float.compare(newContext.getZoom(), currentContext.getZoom()) != 0) {
-            float zoom = newContext.getZoom();
-            this.locomotiveLength.scale(zoom);
-            this.wagonLength.scale(zoom);
-            this.velocity.scale(zoom);
-            this.width.scale(zoom);
-            updateDrawParams();
-        }
-
-        this.context = newContext;
-
-        AbstractTranche startingTranche = this.headTranche;
-        if (startingTranche != null) {
-            startingTranche.update(newContext);
-            if (lastTime == null)
-                lastTime = this.context.getTime();
-            else {
-                double currentSpeed = getCurrentSpeed();
-                if (Double.compare(currentSpeed, 0d) != 0)
-                    advance(currentSpeed);
-
-                updateShape();
-            }
-        } else {
-            this.lastTime = null;
-            this.tramShape = null;
-        }
+    public AbstractTranche getHeadTranche() {
+        return store.getHeadTranche(slot);
     }
 
-    private void updateShape() {
-        Path2D.Float tramShape = new Path2D.Float();
-        AbstractTranche.Traverser traverser = new AbstractTranche.StaticTraverser(tranchesUnderTram, headProgress);
-//        System.out.println(AbstractTranche.absProgress(traverser.getProgress(), direction));
-
-        if (Kit.SHOW_TRAM_HEAD) {
-            tramShape.moveTo(traverser.getX() - 5, traverser.getY());
-            tramShape.lineTo(traverser.getX() + 5, traverser.getY());
-        }
-
-        tramShape.moveTo(traverser.getX(), traverser.getY());
-        addTramSection(tramShape, traverser, locomotiveLength.length, directionToStart);
-
-        for (int i = 0; i < wagonsCount; i++)
-            addTramSection(tramShape, traverser, wagonLength.length, directionToStart);
-
-        if (doubleLocomotive) {
-            addTramSection(tramShape, traverser, locomotiveLength.length, directionToStart);
-        }
-
-        this.tramShape = tramShape;
+    public float getHeadProgress() {
+        return store.getHeadProgress(slot);
     }
 
-    private void addTramSection(Path2D.Float tramShape, AbstractTranche.Traverser traverser, int length, boolean directionToStart) {
-        int headX = traverser.getX();
-        int headY = traverser.getY();
-
-        if (directionToStart)
-            traverser.moveTowardStart(length);
-        else
-            traverser.moveTowardEnd(length);
-
-        int tailX = traverser.getX();
-        int tailY = traverser.getY();
-
-        tramShape.lineTo(tailX, tailY);
+    public List<AbstractTranche> getTranchesUnderTram() {
+        return store.getTranchesUnderTram(slot);
     }
 
-    private void advance(double speed) {
-        float distance = (float) (Math.max(context.getTime() - lastTime, 0) * Math.abs(speed));
-        int tramLength = getTotalTramLength();
-
-        AbstractTranche.Traverser traverser = new AbstractTranche.Traverser(headTranche, headProgress);
-        traverser.move(distance, speed);
-
-        headTranche = traverser.getCurrentTranche();
-        headProgress = traverser.getProgress();
-        lastTime = context.getTime();
-
-        updateTranchesUnderTram(tramLength);
+    public Route getRoute() {
+        return store.getRoute(slot);
     }
 
-    private AbstractTranche traverse(double speed, float distance) {
-        return new AbstractTranche.Traverser(headTranche, headProgress).move(distance, speed).getCurrentTranche();
-    }
-
-    private void updateTranchesUnderTram(int tramLength) {
-        if (headTranche != null) {
-            LinkedList<AbstractTranche> currentTranchesUnderTram = new LinkedList<>();
-            currentTranchesUnderTram.add(headTranche);
-            float tranchesLength = headTranche.getLength() * AbstractTranche.absProgress(headProgress, directionToStart ? -1d : 1);
-
-            Iterator<AbstractTranche> iterator = tranchesUnderTram.iterator();
-            while (iterator.hasNext() && Float.compare(tranchesLength, tramLength) < 0) {
-                tranchesLength += addUnderTram(currentTranchesUnderTram, iterator.next());
-            }
-
-            if (isMovingBackward()) {
-                while (currentTranchesUnderTram.peekLast().getFirstNext() != null
-                        && Float.compare(tranchesLength, tramLength) < 0)
-                    //noinspection ConstantConditions
-                    tranchesLength += addUnderTram(currentTranchesUnderTram, currentTranchesUnderTram.peekLast().getFirstNext());
-            } else {
-                //noinspection ConstantConditions
-                while (currentTranchesUnderTram.peekLast().getFirsPreviews() != null
-                        && Float.compare(tranchesLength, tramLength) < 0)
-                    //noinspection ConstantConditions
-                    tranchesLength += addUnderTram(currentTranchesUnderTram, currentTranchesUnderTram.peekLast().getFirsPreviews());
-            }
-
-            this.tranchesUnderTram = currentTranchesUnderTram;
-        } else
-            tranchesUnderTram = NO_TRANCHES;
+    /**
+     * follow the given route from the tranche the head is on, the switches are followed again after its end
+     */
+    public void setRoute(Route route) {
+        store.setRoute(slot, route);
     }
 
-    private float addUnderTram(LinkedList<AbstractTranche> currentTranchesUnderTram, AbstractTranche tranche) {
-        if (tranche != null) {
-            if (!tranche.equals(currentTranchesUnderTram.peekLast())) {
-                currentTranchesUnderTram.addLast(tranche);
-                return tranche.getLength();
-            }
-        }
-        return 0f;
+    @Override
+    public Context getCurrentContext() {
+        return store.getContext();
     }
 
-    private boolean isMovingBackward() {
-        return velocity != null && velocity.speed < 0;
+    /**
+     * draw the body computed for the last picture of the model. A tram in its own store is drawn by the thread
+     * that moves it, so its body is brought up to date first.
+     */
+    public void draw(Graphics2D g) {
+        if (ownStore)
+            store.getShapePoints(slot);
+        store.draw(slot, g);
     }
 
-    private int getTotalTramLength() {
-        return wagonsCount * wagonLength.length + locomotiveLength.length * (doubleLocomotive ? 2 : 1);
+    /**
+     * only moves a tram that is not added to a model, the context of a shared store belongs to the store owner
+     * and trams of a shared store are updated with it
+     *
+     * @throws IllegalStateException if the tram lives in a shared store
+     */
+    @Override
+    public final void update(Context newContext) {
+        if (!ownStore)
+            throw new IllegalStateException("tram #" + id + " is updated with the store it shares");
+        store.setContext(newContext);
+        store.update(slot);
     }
 
     public void updatePosition(AbstractTranche headTranche, float headProgress, Speed velocity) {
-        this.headTranche = headTranche;
-        this.headProgress = headProgress;
-        this.velocity = velocity;
-        update(context);
+        double speed = velocity != null ? velocity.speed : 0d;
+        store.setPosition(slot, headTranche, headProgress, speed);
+        store.update(slot);
     }
 
     @Override
     public String toString() {
+        AbstractTranche headTranche = getHeadTranche();
         return "Tram#" + id + "{head=#" + (headTranche != null ? headTranche.id : null) + "," +
-                "over: " + tranchesUnderTram + ", " + velocity + ", " + (directionToStart ? "toStart" : "toEnd") +
-                '}';
+                "over: " + getTranchesUnderTram() + ", Speed(" + store.getSpeed(slot) + "), "
+                + (isDirectionToStart() ? "toStart" : "toEnd") + '}';
     }
 }
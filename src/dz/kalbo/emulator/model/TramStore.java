@@ -0,0 +1,1462 @@
+package dz.kalbo.emulator.model;
+
+import dz.kalbo.emulator.tools.GridIndex;
+import dz.kalbo.emulator.tools.Kit;
+import dz.kalbo.emulator.tools.TimeQueue;
+
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntFunction;
+
+/**
+ * Holds the state of many trams in parallel arrays indexed by slot, a {@link Tram} is only a view over one slot.
+ * Lengths and speeds are kept in world units, physics does not depend on the zoom.
+ */
+public class TramStore {
+    private static final AbstractTranche[] NO_TRANCHES = new AbstractTranche[0];
+    private static final long NO_TIME = Long.MIN_VALUE;
+    public static final long NO_EVENT = Long.MAX_VALUE;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    // saved state of a slot, see writeState
+    private static final int STATE_FIXED_SIZE = 4 + 4 + 8 + 4 + 8 + 4 * 4 + 4 + 4;
+    private static final int HAS_HEAD = 1;
+    private static final int DIRECTION_TO_START = 1 << 1;
+    private static final int DOUBLE_LOCOMOTIVE = 1 << 2;
+    private static final int ROUTE_TOWARD_START = 1 << 3;
+
+    private Context context;
+    private TrackGraph graph;
+
+    // parallel update
+    private int workers = 1;
+    private ForkJoinPool pool;
+    private int movedTrams;
+    private List<Callable<Integer>> tasks = Collections.emptyList();
+    private final List<Future<Integer>> results = new ArrayList<>();
+    private int tasksSize = -1;
+
+    // per chunk scratch objects reused between ticks
+    private Workspace[] workspaces = {new Workspace()};
+
+    // spatial index of the trams, each slot remembers the cells range it is registered in
+    private GridIndex<Tram> index;
+    // trams moved since the index was last refreshed, it is only brought up to date when queried
+    private boolean indexStale;
+    private int[] indexedCells;
+    private boolean[] indexed;
+
+    // slots allocation
+    private int size;
+    private int[] freeSlots = new int[0];
+    private int freeCount;
+
+    // next boundary crossing of every moving tram, only kept once events are enabled
+    private TimeQueue events;
+    // slots changed by hand since the last update, visited by the next one even without an event
+    private boolean[] pending;
+    private int[] pendingSlots = new int[0];
+    private int pendingCount;
+    private int[] visitedSlots = new int[0];
+
+    // extents of the trams on every tranche, only kept once occupancy is enabled
+    private OccupancyIndex occupancy;
+    private BlockSignalling signalling;
+
+    // what changed since the last clearChanges, read by incremental checkpoints. Released trams are only kept
+    // while a checkpoint writer tracks the changes
+    private boolean[] changed;
+    private boolean changesTracked;
+    private int[] releasedIds = new int[0];
+    private int releasedCount;
+
+    // one column per tram property
+    private Tram[] trams;
+    private AbstractTranche[] headTranche;
+    private float[] headProgress;
+    private double[] speed;
+    private float[] speedFactor;
+    private boolean[] directionToStart;
+    private boolean[] doubleLocomotive;
+    private float[] locomotiveLength;
+    private float[] wagonLength;
+    private int[] wagonsCount;
+    private float[] width;
+    private long[] lastTime;
+    // tranches under the tram from the head to the tail in a ring per slot, the head end moves when the head
+    // enters a tranche and the tail end when the tail leaves one
+    private AbstractTranche[][] tranchesUnderTram;
+    private int[] tranchesUnderTramStart;
+    private int[] tranchesUnderTramCount;
+    private float[] middleTranchesLength;
+    private float[] tailOnLastTranche;
+    private Route[] route;
+    private int[] routePosition;
+    // body of the tram as a polyline of x, y pairs, only computed when a picture is asked after the tram moved.
+    // the updating thread writes the bodies under the write lock, other threads copy them under the read lock
+    private final ReadWriteLock shapeLock = new ReentrantReadWriteLock();
+    private float[][] shapeCoordinates;
+    private int[] shapePoints;
+    private boolean[] shapeStale;
+    private Stroke[] stroke;
+
+    public TramStore(Context context) {
+        this(DEFAULT_CAPACITY, context);
+    }
+
+    public TramStore(int capacity, Context context) {
+        this.context = Objects.requireNonNull(context);
+        allocate(Math.max(capacity, 1));
+    }
+
+    private void allocate(int capacity) {
+        trams = new Tram[capacity];
+        headTranche = new AbstractTranche[capacity];
+        headProgress = new float[capacity];
+        speed = new double[capacity];
+        speedFactor = new float[capacity];
+        directionToStart = new boolean[capacity];
+        doubleLocomotive = new boolean[capacity];
+        locomotiveLength = new float[capacity];
+        wagonLength = new float[capacity];
+        wagonsCount = new int[capacity];
+        width = new float[capacity];
+        lastTime = new long[capacity];
+        tranchesUnderTram = new AbstractTranche[capacity][];
+        tranchesUnderTramStart = new int[capacity];
+        tranchesUnderTramCount = new int[capacity];
+        middleTranchesLength = new float[capacity];
+        tailOnLastTranche = new float[capacity];
+        route = new Route[capacity];
+        routePosition = new int[capacity];
+        shapeCoordinates = new float[capacity][];
+        shapePoints = new int[capacity];
+        shapeStale = new boolean[capacity];
+        stroke = new Stroke[capacity];
+        indexedCells = new int[capacity * 4];
+        indexed = new boolean[capacity];
+        changed = new boolean[capacity];
+        pending = new boolean[capacity];
+    }
+
+    private void grow() {
+        int capacity = trams.length * 2;
+        trams = Arrays.copyOf(trams, capacity);
+        headTranche = Arrays.copyOf(headTranche, capacity);
+        headProgress = Arrays.copyOf(headProgress, capacity);
+        speed = Arrays.copyOf(speed, capacity);
+        speedFactor = Arrays.copyOf(speedFactor, capacity);
+        directionToStart = Arrays.copyOf(directionToStart, capacity);
+        doubleLocomotive = Arrays.copyOf(doubleLocomotive, capacity);
+        locomotiveLength = Arrays.copyOf(locomotiveLength, capacity);
+        wagonLength = Arrays.copyOf(wagonLength, capacity);
+        wagonsCount = Arrays.copyOf(wagonsCount, capacity);
+        width = Arrays.copyOf(width, capacity);
+        lastTime = Arrays.copyOf(lastTime, capacity);
+        tranchesUnderTram = Arrays.copyOf(tranchesUnderTram, capacity);
+        tranchesUnderTramStart = Arrays.copyOf(tranchesUnderTramStart, capacity);
+        tranchesUnderTramCount = Arrays.copyOf(tranchesUnderTramCount, capacity);
+        middleTranchesLength = Arrays.copyOf(middleTranchesLength, capacity);
+        tailOnLastTranche = Arrays.copyOf(tailOnLastTranche, capacity);
+        route = Arrays.copyOf(route, capacity);
+        routePosition = Arrays.copyOf(routePosition, capacity);
+        shapeLock.writeLock().lock();
+        try {
+            shapeCoordinates = Arrays.copyOf(shapeCoordinates, capacity);
+            shapePoints = Arrays.copyOf(shapePoints, capacity);
+        } finally {
+            shapeLock.writeLock().unlock();
+        }
+        shapeStale = Arrays.copyOf(shapeStale, capacity);
+        stroke = Arrays.copyOf(stroke, capacity);
+        indexedCells = Arrays.copyOf(indexedCells, capacity * 4);
+        indexed = Arrays.copyOf(indexed, capacity);
+        changed = Arrays.copyOf(changed, capacity);
+        pending = Arrays.copyOf(pending, capacity);
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public TrackGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * set the compiled graph trams follow, tranches that are not part of it are followed through their links
+     */
+    /**
+     * a new graph can link the tranches differently, trams with events are scheduled again
+     */
+    public void setGraph(TrackGraph graph) {
+        if (graph != this.graph) {
+            this.graph = graph;
+            scheduleAll();
+        }
+    }
+
+    public int getCapacity() {
+        return trams.length;
+    }
+
+    /**
+     * @return the upper bound of used slots, some slots bellow it may be free
+     */
+    public int getSize() {
+        return size;
+    }
+
+    public int getCount() {
+        return size - freeCount;
+    }
+
+    int allocate(Tram tram) {
+        int slot;
+        if (freeCount > 0)
+            slot = freeSlots[--freeCount];
+        else {
+            if (size == trams.length)
+                grow();
+            slot = size++;
+        }
+
+        trams[slot] = Objects.requireNonNull(tram);
+        headTranche[slot] = null;
+        headProgress[slot] = 0f;
+        speed[slot] = 0d;
+        speedFactor[slot] = 1f;
+        directionToStart[slot] = false;
+        doubleLocomotive[slot] = false;
+        locomotiveLength[slot] = 0f;
+        wagonLength[slot] = 0f;
+        wagonsCount[slot] = 0;
+        width[slot] = 0f;
+        lastTime[slot] = NO_TIME;
+        // a reused slot keeps the buffers of the tram that had it
+        if (tranchesUnderTram[slot] == null)
+            tranchesUnderTram[slot] = NO_TRANCHES;
+        clearTranchesUnderTram(slot);
+        route[slot] = null;
+        routePosition[slot] = 0;
+        clearShape(slot);
+        touch(slot);
+        return slot;
+    }
+
+    void release(int slot) {
+        unindex(slot);
+        if (occupancy != null)
+            occupancy.unregister(slot);
+        if (signalling != null)
+            signalling.release(slot, context.getTime());
+        if (changesTracked) {
+            if (releasedCount == releasedIds.length)
+                releasedIds = Arrays.copyOf(releasedIds, Math.max(releasedCount * 2, DEFAULT_CAPACITY));
+            releasedIds[releasedCount++] = trams[slot].getId();
+        }
+        changed[slot] = false;
+        if (events != null)
+            events.remove(slot);
+        trams[slot] = null;
+        headTranche[slot] = null;
+        clearTranchesUnderTram(slot);
+        route[slot] = null;
+        clearShape(slot);
+        if (freeCount == freeSlots.length)
+            freeSlots = Arrays.copyOf(freeSlots, Math.max(freeCount * 2, DEFAULT_CAPACITY));
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * copy the given slot of another store into a new slot of this store
+     */
+    int copyFrom(TramStore source, int sourceSlot) {
+        int slot = allocate(source.trams[sourceSlot]);
+        headTranche[slot] = source.headTranche[sourceSlot];
+        headProgress[slot] = source.headProgress[sourceSlot];
+        speed[slot] = source.speed[sourceSlot];
+        speedFactor[slot] = source.speedFactor[sourceSlot];
+        directionToStart[slot] = source.directionToStart[sourceSlot];
+        doubleLocomotive[slot] = source.doubleLocomotive[sourceSlot];
+        locomotiveLength[slot] = source.locomotiveLength[sourceSlot];
+        wagonLength[slot] = source.wagonLength[sourceSlot];
+        wagonsCount[slot] = source.wagonsCount[sourceSlot];
+        width[slot] = source.width[sourceSlot];
+        lastTime[slot] = source.lastTime[sourceSlot];
+        tranchesUnderTram[slot] = source.tranchesUnderTram[sourceSlot].clone();
+        tranchesUnderTramStart[slot] = source.tranchesUnderTramStart[sourceSlot];
+        tranchesUnderTramCount[slot] = source.tranchesUnderTramCount[sourceSlot];
+        middleTranchesLength[slot] = source.middleTranchesLength[sourceSlot];
+        tailOnLastTranche[slot] = source.tailOnLastTranche[sourceSlot];
+        route[slot] = source.route[sourceSlot];
+        routePosition[slot] = source.routePosition[sourceSlot];
+        shapeStale[slot] = headTranche[slot] != null;
+        updateDrawParams(slot);
+        schedule(slot);
+        return slot;
+    }
+
+    public Tram getTram(int slot) {
+        return trams[slot];
+    }
+
+    // columns accessors, lengths and speeds are in world units
+
+
+    public AbstractTranche getHeadTranche(int slot) {
+        return headTranche[slot];
+    }
+
+    public float getHeadProgress(int slot) {
+        return headProgress[slot];
+    }
+
+    public double getSpeed(int slot) {
+        return speed[slot];
+    }
+
+    public double getCurrentSpeed(int slot) {
+        double speed = getSpeed(slot);
+        return directionToStart[slot] ? -speed : speed;
+    }
+
+    /**
+     * @return the part of its speed the tram is allowed to run at, 1 unless signalling slows it down
+     */
+    public float getSpeedFactor(int slot) {
+        return speedFactor[slot];
+    }
+
+    /**
+     * @return the speed the tram actually moves at, signed like {@link #getCurrentSpeed(int)}
+     */
+    public double getEffectiveSpeed(int slot) {
+        return getCurrentSpeed(slot) * speedFactor[slot];
+    }
+
+    void setSpeedFactor(int slot, float factor) {
+        setSpeedFactor(slot, factor, context.getTime());
+    }
+
+    /**
+     * the tram is first brought to the given time at its old speed, so the new factor only applies from then
+     *
+     * @return true if the factor changed and the tram was scheduled again
+     */
+    boolean setSpeedFactor(int slot, float factor, long time) {
+        if (speedFactor[slot] == factor)
+            return false;
+        double effectiveSpeed = getEffectiveSpeed(slot);
+        if (headTranche[slot] != null && lastTime[slot] != NO_TIME) {
+            if (effectiveSpeed != 0d)
+                advance(slot, effectiveSpeed, time, workspaces[0]);
+            else
+                // a stopped tram did not move while stopped, it starts again from now
+                lastTime[slot] = Math.max(lastTime[slot], time);
+        }
+        speedFactor[slot] = factor;
+        changed[slot] = true;
+        schedule(slot);
+        return true;
+    }
+
+    public boolean isDirectionToStart(int slot) {
+        return directionToStart[slot];
+    }
+
+    void setDirectionToStart(int slot, boolean directionToStart) {
+        this.directionToStart[slot] = directionToStart;
+        touch(slot);
+    }
+
+    public boolean isDoubleLocomotive(int slot) {
+        return doubleLocomotive[slot];
+    }
+
+    void setDoubleLocomotive(int slot, boolean doubleLocomotive) {
+        this.doubleLocomotive[slot] = doubleLocomotive;
+        touch(slot);
+    }
+
+    public int getLocomotiveLength(int slot) {
+        return (int) locomotiveLength[slot];
+    }
+
+    void setLocomotiveLength(int slot, float length) {
+        this.locomotiveLength[slot] = length;
+        touch(slot);
+    }
+
+    public int getWagonLength(int slot) {
+        return (int) wagonLength[slot];
+    }
+
+    void setWagonLength(int slot, float length) {
+        this.wagonLength[slot] = length;
+        touch(slot);
+    }
+
+    public int getWagonsCount(int slot) {
+        return wagonsCount[slot];
+    }
+
+    void setWagonsCount(int slot, int wagonsCount) {
+        this.wagonsCount[slot] = wagonsCount;
+        touch(slot);
+    }
+
+    public int getWidth(int slot) {
+        return (int) width[slot];
+    }
+
+    void setWidth(int slot, float width) {
+        this.width[slot] = width;
+        touch(slot);
+        updateDrawParams(slot);
+    }
+
+    public List<AbstractTranche> getTranchesUnderTram(int slot) {
+        AbstractTranche[] tranches = new AbstractTranche[tranchesUnderTramCount[slot]];
+        for (int i = 0; i < tranches.length; i++)
+            tranches[i] = getTrancheUnderTram(slot, i);
+        return Arrays.asList(tranches);
+    }
+
+    int getTranchesUnderTramCount(int slot) {
+        return tranchesUnderTramCount[slot];
+    }
+
+    /**
+     * @param position 0 for the tranche of the head up to the count minus one for the tranche of the tail
+     */
+    AbstractTranche getTrancheUnderTram(int slot, int position) {
+        return tranchesUnderTram[slot][ringIndex(slot, position)];
+    }
+
+    private int ringIndex(int slot, int position) {
+        int index = tranchesUnderTramStart[slot] + position;
+        int capacity = tranchesUnderTram[slot].length;
+        return index < capacity ? index : index - capacity;
+    }
+
+    /**
+     * place the tram, the given position is the one at the current time so the time the tram was last moved
+     * is forgotten, otherwise it would jump by the time it spent stopped
+     */
+    void setPosition(int slot, AbstractTranche headTranche, float headProgress, double speed) {
+        if (headTranche != this.headTranche[slot]) {
+            clearTranchesUnderTram(slot);
+            // a tram placed off its route forgets it
+            Route route = this.route[slot];
+            int position = route != null && headTranche != null ? route.indexOf(headTranche.getId()) : -1;
+            this.route[slot] = position >= 0 ? route : null;
+            this.routePosition[slot] = Math.max(position, 0);
+        }
+        this.headTranche[slot] = headTranche;
+        this.headProgress[slot] = headProgress;
+        this.speed[slot] = speed;
+        this.lastTime[slot] = NO_TIME;
+        touch(slot);
+    }
+
+    public Route getRoute(int slot) {
+        return route[slot];
+    }
+
+    /**
+     * @return position in its route of the tranche the tram head is on
+     */
+    public int getRoutePosition(int slot) {
+        return routePosition[slot];
+    }
+
+    /**
+     * @return the graph ids of the route the tram follows going the given way, null if it has no route or runs the
+     * other way and so follows the switches
+     */
+    int[] getRouteIndices(int slot, boolean towardNext) {
+        Route route = this.route[slot];
+        return route != null && graph != null && route.isTowardNext() == towardNext ? route.resolve(graph) : null;
+    }
+
+    /**
+     * make the tram follow the given route instead of the switches, null to drop it
+     *
+     * @throws IllegalArgumentException if the tram head is not on the route or the route does not match the graph
+     */
+    void setRoute(int slot, Route route) {
+        int position = 0;
+        if (route != null) {
+            AbstractTranche head = headTranche[slot];
+            position = head != null ? route.indexOf(head.getId()) : -1;
+            if (position < 0)
+                throw new IllegalArgumentException(trams[slot] + " is not on " + route);
+            if (graph != null)
+                route.resolve(graph);
+        }
+        this.route[slot] = route;
+        this.routePosition[slot] = position;
+        touch(slot);
+        schedule(slot);
+    }
+
+    private void updateDrawParams(int slot) {
+        // strokes are immutable, the one of a released tram is kept for the next tram of the same width
+        Stroke stroke = this.stroke[slot];
+        if (stroke instanceof BasicStroke && ((BasicStroke) stroke).getLineWidth() == getWidth(slot))
+            return;
+        this.stroke[slot] = new BasicStroke(getWidth(slot), BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER);
+    }
+
+    /**
+     * stop the update threads, a closed store can still be updated and starts them again if needed
+     */
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * set how many threads advance the trams, trams are split in fixed slot ranges so a tram is always
+     * updated by one worker and the result does not depend on the scheduling
+     */
+    public void setWorkers(int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("workers must be at least 1");
+        if (this.workers != workers) {
+            this.workers = workers;
+            this.tasksSize = -1;
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+        }
+    }
+
+    /**
+     * @return number of trams that moved during the last update
+     */
+    public int getMovedTrams() {
+        return movedTrams;
+    }
+
+    /**
+     * advance every tram of the store to the time of the given context. With events enabled only the trams with
+     * an event and the ones changed by hand are visited, the others are stopped or not placed.
+     */
+    public void update(Context newContext) {
+        setContext(newContext);
+
+        if (events != null) {
+            movedTrams = updateScheduled();
+            return;
+        }
+
+        int size = this.size;
+        if (workers == 1 || size < Kit.PARALLEL_UPDATE_THRESHOLD) {
+            movedTrams = update(0, size);
+            return;
+        }
+
+        if (pool == null)
+            pool = new ForkJoinPool(workers);
+
+        if (tasksSize != size)
+            prepareTasks(size);
+
+        results.clear();
+        for (Callable<Integer> task : tasks)
+            results.add(pool.submit(task));
+
+        // merge the chunks results in slot order. A tick is never left half done: an interrupt waits for every
+        // chunk to finish and is only passed on after, so all trams are at the same time
+        int moved = 0;
+        boolean interrupted = false;
+        Throwable failure = null;
+        for (Future<Integer> result : results) {
+            while (true) {
+                try {
+                    moved += result.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        results.clear();
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (failure != null)
+            throw new IllegalStateException(failure);
+        movedTrams = moved;
+    }
+
+    /**
+     * update the trams with an event then the pending ones, a tram is scheduled again only when it crossed a
+     * boundary or was changed by hand, otherwise its event time still holds
+     */
+    private int updateScheduled() {
+        TimeQueue events = this.events;
+        int queued = events.size();
+        if (visitedSlots.length < queued + pendingCount)
+            visitedSlots = new int[Math.max(queued + pendingCount, visitedSlots.length * 2)];
+        // scheduling moves ids in the queue, the slots are copied first
+        int count = 0;
+        for (int i = 0; i < queued; i++)
+            visitedSlots[count++] = events.get(i);
+        for (int i = 0; i < pendingCount; i++)
+            if (!events.contains(pendingSlots[i]))
+                visitedSlots[count++] = pendingSlots[i];
+        pendingCount = 0;
+
+        Workspace workspace = workspaces[0];
+        int moved = 0;
+        for (int i = 0; i < count; i++) {
+            int slot = visitedSlots[i];
+            boolean reschedule = pending[slot];
+            pending[slot] = false;
+            if (trams[slot] == null)
+                continue;
+
+            AbstractTranche head = headTranche[slot];
+            int underTramCount = tranchesUnderTramCount[slot];
+            if (update(slot, workspace))
+                moved++;
+            if (reschedule || head != headTranche[slot] || underTramCount != tranchesUnderTramCount[slot])
+                schedule(slot);
+        }
+        return moved;
+    }
+
+    private void prepareTasks(int size) {
+        int chunks = workers * Kit.PARALLEL_UPDATE_CHUNKS_PER_WORKER;
+        int chunkSize = (size + chunks - 1) / chunks;
+        if (workspaces.length < chunks) {
+            workspaces = Arrays.copyOf(workspaces, chunks);
+            for (int i = 0; i < chunks; i++)
+                if (workspaces[i] == null)
+                    workspaces[i] = new Workspace();
+        }
+
+        List<Callable<Integer>> tasks = new ArrayList<>(chunks);
+        for (int from = 0, chunk = 0; from < size; from += chunkSize, chunk++) {
+            int chunkStart = from;
+            int chunkEnd = Math.min(from + chunkSize, size);
+            Workspace workspace = workspaces[chunk];
+            tasks.add(() -> update(chunkStart, chunkEnd, workspace));
+        }
+        this.tasks = tasks;
+        this.tasksSize = size;
+    }
+
+    private int update(int from, int to) {
+        return update(from, to, workspaces[0]);
+    }
+
+    private int update(int from, int to, Workspace workspace) {
+        int moved = 0;
+        for (int slot = from; slot < to; slot++)
+            if (trams[slot] != null && update(slot, workspace))
+                moved++;
+        return moved;
+    }
+
+    void setContext(Context newContext) {
+        this.context = Objects.requireNonNull(newContext);
+    }
+
+    /**
+     * start maintaining a spatial index of the trams, it is refreshed by {@link #refreshIndex()}
+     */
+    public void enableIndex(int cellSize) {
+        if (index == null) {
+            index = new GridIndex<>(cellSize);
+            refreshIndex();
+        }
+    }
+
+    /**
+     * an index marked stale is refreshed first, so it must be called by the thread that updates the trams
+     */
+    public <C extends Collection<? super Tram>> C queryTrams(Rectangle area, C result) {
+        if (indexStale)
+            refreshIndex();
+        if (index == null) {
+            for (int slot = 0; slot < size; slot++)
+                if (trams[slot] != null)
+                    result.add(trams[slot]);
+            return result;
+        }
+
+        Rectangle grownArea = new Rectangle(area);
+        int margin = Kit.TRAM_INDEX_MARGIN;
+        grownArea.grow(margin, margin);
+        return index.query(grownArea, result);
+    }
+
+    /**
+     * tell the index the trams moved, it is refreshed by the next {@link #queryTrams(Rectangle, Collection)}
+     * instead of at every update of a model nobody looks at
+     */
+    public void invalidateIndex() {
+        indexStale = index != null;
+    }
+
+    /**
+     * move every tram whose covered cells changed since the last refresh, a tram is bounded by the box of the
+     * tranches under it
+     */
+    public void refreshIndex() {
+        GridIndex<Tram> index = this.index;
+        if (index == null)
+            return;
+        indexStale = false;
+
+        for (int slot = 0; slot < size; slot++) {
+            int count = tranchesUnderTramCount[slot];
+            if (trams[slot] == null || count == 0) {
+                unindex(slot);
+                continue;
+            }
+
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                AbstractTranche tranche = getTrancheUnderTram(slot, i);
+                minX = Math.min(minX, Math.min(tranche.start.x, tranche.end.x));
+                minY = Math.min(minY, Math.min(tranche.start.y, tranche.end.y));
+                maxX = Math.max(maxX, Math.max(tranche.start.x, tranche.end.x));
+                maxY = Math.max(maxY, Math.max(tranche.start.y, tranche.end.y));
+            }
+
+            int minCellX = index.cellOf(minX), minCellY = index.cellOf(minY);
+            int maxCellX = index.cellOf(maxX), maxCellY = index.cellOf(maxY);
+            int cells = slot * 4;
+            if (indexed[slot]) {
+                if (indexedCells[cells] == minCellX && indexedCells[cells + 1] == minCellY
+                        && indexedCells[cells + 2] == maxCellX && indexedCells[cells + 3] == maxCellY)
+                    continue;
+                unindex(slot);
+            }
+
+            index.insert(trams[slot], minCellX, minCellY, maxCellX, maxCellY);
+            indexedCells[cells] = minCellX;
+            indexedCells[cells + 1] = minCellY;
+            indexedCells[cells + 2] = maxCellX;
+            indexedCells[cells + 3] = maxCellY;
+            indexed[slot] = true;
+        }
+    }
+
+    private void unindex(int slot) {
+        if (indexed[slot]) {
+            int cells = slot * 4;
+            index.remove(trams[slot], indexedCells[cells], indexedCells[cells + 1], indexedCells[cells + 2], indexedCells[cells + 3]);
+            indexed[slot] = false;
+        }
+    }
+
+    /**
+     * start keeping which part of every tranche each tram covers, it is refreshed by
+     * {@link #refreshOccupancy()} and needs a graph
+     */
+    public OccupancyIndex enableOccupancy() {
+        return enableOccupancy(null);
+    }
+
+    /**
+     * same as {@link #enableOccupancy()}, the listener is added before the first refresh so it is told about the
+     * trams already in trouble
+     */
+    public OccupancyIndex enableOccupancy(OccupancyIndex.Listener listener) {
+        if (occupancy == null) {
+            occupancy = new OccupancyIndex(this);
+            occupancy.addListener(listener);
+            occupancy.refresh();
+        } else
+            occupancy.addListener(listener);
+        return occupancy;
+    }
+
+    /**
+     * @return the occupancy index or null if it is not enabled
+     */
+    public OccupancyIndex getOccupancy() {
+        return occupancy;
+    }
+
+    public void refreshOccupancy() {
+        if (occupancy != null)
+            occupancy.refresh();
+    }
+
+    /**
+     * start slowing trams down from the occupancy of the blocks in front of them, see {@link BlockSignalling}
+     *
+     * @param blockLength length the blocks are cut at, in world units
+     */
+    public BlockSignalling enableSignalling(float blockLength) {
+        if (signalling == null) {
+            signalling = new BlockSignalling(this, blockLength);
+            signalling.refresh();
+        }
+        return signalling;
+    }
+
+    /**
+     * @return the signalling or null if it is not enabled
+     */
+    public BlockSignalling getSignalling() {
+        return signalling;
+    }
+
+    public void refreshSignalling() {
+        if (signalling != null)
+            signalling.refresh();
+    }
+
+    boolean update(int slot) {
+        boolean moved = update(slot, workspaces[0]);
+        schedule(slot);
+        return moved;
+    }
+
+    /**
+     * start keeping the time of the next boundary crossing of every moving tram, so time can jump from one
+     * crossing to the next with {@link #processEvents(long)} instead of moving every tram at each tick
+     */
+    public void enableEvents() {
+        if (events == null) {
+            events = new TimeQueue();
+            pendingCount = 0;
+            Arrays.fill(pending, false);
+            scheduleAll();
+        }
+    }
+
+    public boolean isEventsEnabled() {
+        return events != null;
+    }
+
+    /**
+     * @return time of the earliest event or {@link #NO_EVENT}
+     */
+    public long getNextEventTime() {
+        return events != null ? events.peekTime() : NO_EVENT;
+    }
+
+    /**
+     * move the trams whose event time is reached, each one to its own event time. The other trams are left
+     * where they were last updated, {@link #update(Context)} brings all of them to the same time.
+     *
+     * @return number of events processed
+     */
+    public int processEvents(long time) {
+        TimeQueue events = this.events;
+        if (events == null)
+            throw new IllegalStateException("events are not enabled");
+
+        Workspace workspace = workspaces[0];
+        int processed = 0;
+        while (events.peekTime() <= time) {
+            long eventTime = events.peekTime();
+            int slot = events.poll();
+            double effectiveSpeed = getEffectiveSpeed(slot);
+            if (headTranche[slot] != null && lastTime[slot] != NO_TIME && effectiveSpeed != 0d
+                    && advance(slot, effectiveSpeed, eventTime, workspace))
+                changed[slot] = true;
+            // the aspect changes on a boundary or at the stop point, without waiting for the next tick
+            if (signalling != null)
+                signalling.refresh(slot, eventTime);
+            schedule(slot);
+            processed++;
+        }
+        if (processed > 0)
+            invalidateIndex();
+        return processed;
+    }
+
+    private void scheduleAll() {
+        if (events != null)
+            for (int slot = 0; slot < size; slot++)
+                if (trams[slot] != null)
+                    schedule(slot);
+    }
+
+    void schedule(int slot) {
+        TimeQueue events = this.events;
+        if (events != null) {
+            long time = nextEventTime(slot);
+            if (time == NO_EVENT)
+                events.remove(slot);
+            else
+                events.schedule(slot, time);
+        }
+    }
+
+    /**
+     * @return when the head reaches the end of its tranche, the tail leaves the last tranche under the tram or the
+     * head reaches the point where it stops for the signal, whichever comes first
+     */
+    private long nextEventTime(int slot) {
+        AbstractTranche head = headTranche[slot];
+        double currentSpeed = getEffectiveSpeed(slot);
+        if (head == null || lastTime[slot] == NO_TIME || currentSpeed == 0d)
+            return NO_EVENT;
+
+        // a tram held at a dead end waits for a route, a switch or a topology change to schedule it again
+        if (isAtDeadEnd(slot, currentSpeed))
+            return NO_EVENT;
+
+        float progress = headProgress[slot];
+        double distance = head.getLength() * (currentSpeed > 0 ? 1f - progress : progress);
+        if (tranchesUnderTramCount[slot] > 1)
+            distance = Math.min(distance, tailOnLastTranche[slot]);
+        if (signalling != null)
+            distance = Math.min(distance, Math.max(signalling.getDistanceToStop(slot), 0f));
+
+        // a crossing can not be earlier than the next millisecond, a tram stuck on a boundary still moves on
+        long delay = (long) Math.ceil(distance / Math.abs(currentSpeed));
+        return lastTime[slot] + Math.max(delay, 1);
+    }
+
+    /**
+     * @return true if the head is at the end of its tranche the way it goes and neither its route nor the
+     * switches give a tranche to go on
+     */
+    private boolean isAtDeadEnd(int slot, double direction) {
+        AbstractTranche head = headTranche[slot];
+        if (AbstractTranche.absProgress(headProgress[slot], direction) < 1f)
+            return false;
+        int index = graph != null ? graph.indexOf(head) : TrackGraph.NONE;
+        if (index == TrackGraph.NONE)
+            return (direction > 0 ? head.getSelectedNext() : head.getSelectedPreviews()) == null;
+        int[] route = getRouteIndices(slot, direction > 0);
+        return (route == null || routePosition[slot] + 1 >= route.length) && graph.next(index, direction) == TrackGraph.NONE;
+    }
+
+    /**
+     * schedule again the trams whose head is on the given tranche, after its switch moved
+     */
+    void scheduleOn(AbstractTranche tranche) {
+        if (events != null)
+            for (int slot = 0; slot < size; slot++)
+                if (trams[slot] != null && headTranche[slot] == tranche)
+                    schedule(slot);
+    }
+
+    /**
+     * @return the slot of the tram in this store or -1 if it lives in another store
+     */
+    public int slotOf(Tram tram) {
+        return tram.getStore() == this ? tram.getSlot() : -1;
+    }
+
+    /**
+     * mark a slot changed by hand, with events enabled the next update visits it to schedule it again
+     */
+    private void touch(int slot) {
+        changed[slot] = true;
+        invalidateIndex();
+        if (events != null && !pending[slot]) {
+            if (pendingCount == pendingSlots.length)
+                pendingSlots = Arrays.copyOf(pendingSlots, Math.max(pendingCount * 2, DEFAULT_CAPACITY));
+            pendingSlots[pendingCount++] = slot;
+            pending[slot] = true;
+        }
+    }
+
+    /**
+     * @return true if the slot state changed since the last {@link #clearChanges()}
+     */
+    public boolean isChanged(int slot) {
+        return changed[slot];
+    }
+
+    /**
+     * start or stop keeping the ids of the released trams until the next {@link #clearChanges()}, nothing else
+     * clears them so only a checkpoint writer turns it on
+     */
+    public void setChangesTracked(boolean changesTracked) {
+        this.changesTracked = changesTracked;
+        if (!changesTracked)
+            releasedCount = 0;
+    }
+
+    public boolean isChangesTracked() {
+        return changesTracked;
+    }
+
+    /**
+     * @return number of trams released since the last {@link #clearChanges()} while changes are tracked
+     */
+    public int getReleasedCount() {
+        return releasedCount;
+    }
+
+    public int getReleasedId(int index) {
+        return releasedIds[index];
+    }
+
+    public void clearChanges() {
+        Arrays.fill(changed, 0, size, false);
+        releasedCount = 0;
+    }
+
+    /**
+     * @return number of bytes {@link #writeState(int, ByteBuffer)} needs for the slot
+     */
+    public int getStateSize(int slot) {
+        Route route = this.route[slot];
+        return STATE_FIXED_SIZE + tranchesUnderTramCount[slot] * 4 + 8 + (route != null ? route.size() * 4 : 0);
+    }
+
+    /**
+     * @return number of bytes of the state written at the given position of the buffer
+     */
+    public static int getStateSize(ByteBuffer buffer, int position) {
+        int routeOffset = STATE_FIXED_SIZE + buffer.getInt(position + STATE_FIXED_SIZE - 4) * 4;
+        return routeOffset + 8 + buffer.getInt(position + routeOffset) * 4;
+    }
+
+    /**
+     * write what the simulation needs to resume the tram exactly, tranches are written as ids. Values are written
+     * as they are kept so a restored tram moves bit for bit like the saved one.
+     */
+    public void writeState(int slot, ByteBuffer buffer) {
+        AbstractTranche head = headTranche[slot];
+        int flags = (head != null ? HAS_HEAD : 0)
+                | (directionToStart[slot] ? DIRECTION_TO_START : 0)
+                | (doubleLocomotive[slot] ? DOUBLE_LOCOMOTIVE : 0)
+                | (route[slot] != null && !route[slot].isTowardNext() ? ROUTE_TOWARD_START : 0);
+        buffer.putInt(head != null ? head.getId() : 0)
+                .putFloat(headProgress[slot])
+                .putDouble(speed[slot])
+                .putInt(flags)
+                .putLong(lastTime[slot])
+                .putFloat(locomotiveLength[slot])
+                .putFloat(wagonLength[slot])
+                .putInt(wagonsCount[slot])
+                .putFloat(width[slot])
+                .putFloat(speedFactor[slot]);
+
+        int count = tranchesUnderTramCount[slot];
+        buffer.putInt(count);
+        for (int i = 0; i < count; i++)
+            buffer.putInt(getTrancheUnderTram(slot, i).getId());
+
+        Route route = this.route[slot];
+        int routeSize = route != null ? route.size() : 0;
+        buffer.putInt(routeSize).putInt(routePosition[slot]);
+        for (int i = 0; i < routeSize; i++)
+            buffer.putInt(route.getTrancheId(i));
+    }
+
+    /**
+     * read a state written by {@link #writeState(int, ByteBuffer)} into the slot
+     *
+     * @param tranches gives the tranche of an id, it must fail for unknown ids
+     */
+    public void readState(int slot, ByteBuffer buffer, IntFunction<AbstractTranche> tranches) {
+        int headId = buffer.getInt();
+        float progress = buffer.getFloat();
+        double speed = buffer.getDouble();
+        int flags = buffer.getInt();
+        long time = buffer.getLong();
+        locomotiveLength[slot] = buffer.getFloat();
+        wagonLength[slot] = buffer.getFloat();
+        wagonsCount[slot] = buffer.getInt();
+        width[slot] = buffer.getFloat();
+        speedFactor[slot] = buffer.getFloat();
+
+        int count = buffer.getInt();
+        clearTranchesUnderTram(slot);
+        AbstractTranche[] underTram = tranchesUnderTram[slot];
+        if (underTram.length < count)
+            underTram = tranchesUnderTram[slot] = new AbstractTranche[Math.max(count, 4)];
+        for (int i = 0; i < count; i++)
+            underTram[i] = tranches.apply(buffer.getInt());
+        tranchesUnderTramCount[slot] = count;
+
+        int routeSize = buffer.getInt();
+        routePosition[slot] = buffer.getInt();
+        if (routeSize > 0) {
+            int[] routeIds = new int[routeSize];
+            for (int i = 0; i < routeSize; i++)
+                routeIds[i] = buffer.getInt();
+            route[slot] = new Route((flags & ROUTE_TOWARD_START) == 0, routeIds);
+        } else
+            route[slot] = null;
+
+        headTranche[slot] = (flags & HAS_HEAD) != 0 ? tranches.apply(headId) : null;
+        headProgress[slot] = progress;
+        this.speed[slot] = speed;
+        directionToStart[slot] = (flags & DIRECTION_TO_START) != 0;
+        doubleLocomotive[slot] = (flags & DOUBLE_LOCOMOTIVE) != 0;
+        lastTime[slot] = time;
+        changed[slot] = true;
+
+        updateDrawParams(slot);
+        if (headTranche[slot] != null)
+            shapeStale[slot] = true;
+        else
+            clearShape(slot);
+        updateTailOnLastTranche(slot);
+        schedule(slot);
+    }
+
+    /**
+     * advance the tram of the given slot, tranches are not updated here since roads are updated before trams
+     * and workers must only write to their own slots
+     *
+     * @return true if the tram moved
+     */
+    private boolean update(int slot, Workspace workspace) {
+        boolean moved = false;
+        AbstractTranche startingTranche = this.headTranche[slot];
+        if (startingTranche != null) {
+            if (lastTime[slot] == NO_TIME) {
+                lastTime[slot] = context.getTime();
+                updateTranchesUnderTram(slot, null);
+                changed[slot] = true;
+            } else {
+                // a parked tram heading to the start has a -0 speed, it must not count as moving
+                double currentSpeed = getEffectiveSpeed(slot);
+                if (currentSpeed != 0d && advance(slot, currentSpeed, context.getTime(), workspace))
+                    changed[slot] = moved = true;
+            }
+            shapeStale[slot] = true;
+        } else {
+            if (lastTime[slot] != NO_TIME) {
+                this.lastTime[slot] = NO_TIME;
+                this.changed[slot] = true;
+            }
+            clearShape(slot);
+        }
+        return moved;
+    }
+
+    private void clearShape(int slot) {
+        shapePoints[slot] = 0;
+        shapeStale[slot] = false;
+    }
+
+    /**
+     * @return number of points of the tram body, 0 for a tram that is not placed. The body is computed again
+     * here if the tram changed since it was last asked, so it must be called by the thread that updates the trams.
+     */
+    int getShapePoints(int slot) {
+        if (shapeStale[slot])
+            updateShape(slot, workspaces[0]);
+        return shapePoints[slot];
+    }
+
+    /**
+     * @return x, y pairs of the points given by {@link #getShapePoints(int)}, the array is reused by the slot
+     */
+    float[] getShapeCoordinates(int slot) {
+        if (shapeStale[slot])
+            updateShape(slot, workspaces[0]);
+        return shapeCoordinates[slot];
+    }
+
+    /**
+     * @return a copy of the body as it was last computed for a picture, null if it never was. Any thread can call
+     * it, the body is never computed here.
+     */
+    Shape copyShape(int slot) {
+        shapeLock.readLock().lock();
+        try {
+            int points = shapePoints[slot];
+            return points > 0 ? appendShape(new Path2D.Float(), shapeCoordinates[slot], 0, points) : null;
+        } finally {
+            shapeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * add the polyline of a tram body to the path
+     */
+    static Path2D.Float appendShape(Path2D.Float path, float[] coordinates, int offset, int points) {
+        float x = coordinates[offset];
+        float y = coordinates[offset + 1];
+        if (Kit.SHOW_TRAM_HEAD) {
+            path.moveTo(x - 5, y);
+            path.lineTo(x + 5, y);
+        }
+        path.moveTo(x, y);
+        for (int i = 1; i < points; i++)
+            path.lineTo(coordinates[offset + 2 * i], coordinates[offset + 2 * i + 1]);
+        return path;
+    }
+
+    Stroke getStroke(int slot) {
+        return stroke[slot];
+    }
+
+    /**
+     * draw the body as it was last computed, see {@link #copyShape(int)}
+     */
+    void draw(int slot, Graphics2D g) {
+        Stroke tramStroke = stroke[slot];
+        Shape tramShape = copyShape(slot);
+        if (tramShape != null) {
+            g.setStroke(tramStroke);
+            g.draw(tramShape);
+        }
+    }
+
+    private void updateShape(int slot, Workspace workspace) {
+        shapeLock.writeLock().lock();
+        try {
+            computeShape(slot, workspace);
+        } finally {
+            shapeLock.writeLock().unlock();
+        }
+    }
+
+    private void computeShape(int slot, Workspace workspace) {
+        int points = 2 + wagonsCount[slot] + (doubleLocomotive[slot] ? 1 : 0);
+        float[] coordinates = shapeCoordinates[slot];
+        if (coordinates == null || coordinates.length < points * 2)
+            coordinates = shapeCoordinates[slot] = new float[points * 2];
+
+        AbstractTranche.Traverser traverser = workspace.staticTraverser
+                .reset(tranchesUnderTram[slot], tranchesUnderTramStart[slot], tranchesUnderTramCount[slot],
+                        headProgress[slot]);
+        boolean directionToStart = this.directionToStart[slot];
+
+        coordinates[0] = traverser.getX();
+        coordinates[1] = traverser.getY();
+        int point = 1;
+        int locomotiveLength = getLocomotiveLength(slot);
+        point = addTramSection(coordinates, point, traverser, locomotiveLength, directionToStart);
+
+        int wagonLength = getWagonLength(slot);
+        for (int i = 0; i < wagonsCount[slot]; i++)
+            point = addTramSection(coordinates, point, traverser, wagonLength, directionToStart);
+
+        if (doubleLocomotive[slot]) {
+            point = addTramSection(coordinates, point, traverser, locomotiveLength, directionToStart);
+        }
+        shapePoints[slot] = point;
+        shapeStale[slot] = false;
+    }
+
+    private int addTramSection(float[] coordinates, int point, AbstractTranche.Traverser traverser, int length,
+                               boolean directionToStart) {
+        if (directionToStart)
+            traverser.moveTowardStart(length);
+        else
+            traverser.moveTowardEnd(length);
+
+        coordinates[2 * point] = traverser.getX();
+        coordinates[2 * point + 1] = traverser.getY();
+        return point + 1;
+    }
+
+    /**
+     * @return false if the tram was already at the given time
+     */
+    private boolean advance(int slot, double speed, long time, Workspace workspace) {
+        // trams moved by events can be ahead of the given time, they never go back
+        if (time <= lastTime[slot])
+            return false;
+        float distance = (float) ((time - lastTime[slot]) * Math.abs(speed));
+
+        AbstractTranche.Traverser traverser = workspace.traverser.reset(graph, headTranche[slot], headProgress[slot]);
+        Route route = this.route[slot];
+        if (route != null && graph != null)
+            traverser.setRoute(route.resolve(graph), routePosition[slot], route.isTowardNext());
+        traverser.move(distance, speed);
+
+        headTranche[slot] = traverser.getCurrentTranche();
+        headProgress[slot] = traverser.getProgress();
+        lastTime[slot] = time;
+        shapeStale[slot] = true;
+        if (route != null && graph != null)
+            routePosition[slot] = traverser.getRoutePosition();
+
+        updateTranchesUnderTram(slot, traverser);
+        return true;
+    }
+
+    /**
+     * push the tranches the head entered at the head end of the ring, then drop the tranches the tail left and
+     * add the ones it is still on at the tail end. A tram that stays on its tranches only compares lengths.
+     *
+     * @param traverser the traverser that moved the head, null if the head was placed
+     */
+    private void updateTranchesUnderTram(int slot, AbstractTranche.Traverser traverser) {
+        AbstractTranche head = this.headTranche[slot];
+        if (head == null) {
+            clearTranchesUnderTram(slot);
+            return;
+        }
+
+        boolean changed = false;
+        if (traverser != null && tranchesUnderTramCount[slot] > 0)
+            for (int i = 0; i < traverser.getEnteredCount(); i++)
+                changed |= pushHeadTranche(slot, traverser.getEntered(i));
+        if (tranchesUnderTramCount[slot] == 0 || !head.equals(getTrancheUnderTram(slot, 0))) {
+            clearTranchesUnderTram(slot);
+            pushHeadTranche(slot, head);
+            changed = true;
+        }
+        if (changed)
+            updateMiddleTranchesLength(slot);
+
+        int tramLength = getTotalTramLength(slot);
+        boolean directionToStart = this.directionToStart[slot];
+        float behindHead = head.getLength() * AbstractTranche.absProgress(headProgress[slot], directionToStart ? -1d : 1);
+
+        // the tail left the last tranche once the others are as long as the tram
+        while (tranchesUnderTramCount[slot] > 1
+                && Float.compare(behindHead + middleTranchesLength[slot], tramLength) >= 0)
+            popTailTranche(slot);
+
+        // the body trails behind the head, toward the next tranches when the tram heads to the start
+        AbstractTranche last, nextTranche;
+        while (Float.compare(getTranchesUnderTramLength(slot, behindHead), tramLength) < 0
+                && (nextTranche = nextOf(last = getTrancheUnderTram(slot, tranchesUnderTramCount[slot] - 1),
+                directionToStart)) != null && !nextTranche.equals(last))
+            pushTailTranche(slot, nextTranche);
+
+        // how much of the tram lies on its last tranche, the tail leaves it after moving that far
+        tailOnLastTranche[slot] = tranchesUnderTramCount[slot] > 1
+                ? tramLength - (behindHead + middleTranchesLength[slot]) : 0f;
+    }
+
+    /**
+     * @return length of the tranches under the tram from the head to the end of the last one
+     */
+    private float getTranchesUnderTramLength(int slot, float behindHead) {
+        int count = tranchesUnderTramCount[slot];
+        return count > 1 ? behindHead + middleTranchesLength[slot] + getTrancheUnderTram(slot, count - 1).getLength()
+                : behindHead;
+    }
+
+    /**
+     * @return false if the tranche already is the head one
+     */
+    private boolean pushHeadTranche(int slot, AbstractTranche tranche) {
+        int count = tranchesUnderTramCount[slot];
+        if (count > 0 && tranche.equals(getTrancheUnderTram(slot, 0)))
+            return false;
+        ensureTranchesUnderTramCapacity(slot);
+        int start = tranchesUnderTramStart[slot];
+        start = (start == 0 ? tranchesUnderTram[slot].length : start) - 1;
+        tranchesUnderTram[slot][start] = tranche;
+        tranchesUnderTramStart[slot] = start;
+        tranchesUnderTramCount[slot] = count + 1;
+        return true;
+    }
+
+    private void pushTailTranche(int slot, AbstractTranche tranche) {
+        ensureTranchesUnderTramCapacity(slot);
+        int count = tranchesUnderTramCount[slot];
+        tranchesUnderTram[slot][ringIndex(slot, count)] = tranche;
+        tranchesUnderTramCount[slot] = count + 1;
+        updateMiddleTranchesLength(slot);
+    }
+
+    private void popTailTranche(int slot) {
+        int count = tranchesUnderTramCount[slot] - 1;
+        tranchesUnderTram[slot][ringIndex(slot, count)] = null;
+        tranchesUnderTramCount[slot] = count;
+        updateMiddleTranchesLength(slot);
+    }
+
+    private void ensureTranchesUnderTramCapacity(int slot) {
+        AbstractTranche[] tranches = tranchesUnderTram[slot];
+        int count = tranchesUnderTramCount[slot];
+        if (count < tranches.length)
+            return;
+        AbstractTranche[] grown = new AbstractTranche[Math.max(count * 2, 4)];
+        for (int i = 0; i < count; i++)
+            grown[i] = getTrancheUnderTram(slot, i);
+        tranchesUnderTram[slot] = grown;
+        tranchesUnderTramStart[slot] = 0;
+    }
+
+    private void clearTranchesUnderTram(int slot) {
+        for (int i = 0; i < tranchesUnderTramCount[slot]; i++)
+            tranchesUnderTram[slot][ringIndex(slot, i)] = null;
+        tranchesUnderTramStart[slot] = 0;
+        tranchesUnderTramCount[slot] = 0;
+        middleTranchesLength[slot] = 0f;
+    }
+
+    /**
+     * sum the lengths again instead of adding and subtracting them, so it only depends on the tranches and a
+     * restored tram gets the same value
+     */
+    private void updateMiddleTranchesLength(int slot) {
+        float length = 0f;
+        for (int i = 1; i < tranchesUnderTramCount[slot] - 1; i++)
+            length += getTrancheUnderTram(slot, i).getLength();
+        middleTranchesLength[slot] = length;
+    }
+
+    /**
+     * recompute from the tranches under the tram how much of it lies on the last one
+     */
+    private void updateTailOnLastTranche(int slot) {
+        updateMiddleTranchesLength(slot);
+        if (tranchesUnderTramCount[slot] < 2) {
+            tailOnLastTranche[slot] = 0f;
+            return;
+        }
+        float behindHead = getTrancheUnderTram(slot, 0).getLength()
+                * AbstractTranche.absProgress(headProgress[slot], directionToStart[slot] ? -1d : 1);
+        tailOnLastTranche[slot] = getTotalTramLength(slot) - (behindHead + middleTranchesLength[slot]);
+    }
+
+    private AbstractTranche nextOf(AbstractTranche tranche, boolean forward) {
+        TrackGraph graph = this.graph;
+        int index = graph != null ? graph.indexOf(tranche) : TrackGraph.NONE;
+        if (index == TrackGraph.NONE)
+            return forward ? tranche.getFirstNext() : tranche.getFirsPreviews();
+
+        int nextIndex = forward ? graph.getFirstNext(index) : graph.getFirstPreviews(index);
+        return nextIndex != TrackGraph.NONE ? graph.getTranche(nextIndex) : null;
+    }
+
+    int getTotalTramLength(int slot) {
+        return wagonsCount[slot] * getWagonLength(slot) + getLocomotiveLength(slot) * (doubleLocomotive[slot] ? 2 : 1);
+    }
+
+    /**
+     * scratch objects used by one worker while advancing its trams
+     */
+    private static final class Workspace {
+        private final AbstractTranche.Traverser traverser = new AbstractTranche.Traverser();
+        private final AbstractTranche.StaticTraverser staticTraverser = new AbstractTranche.StaticTraverser();
+    }
+}
@@ -3,4 +3,12 @@ package dz.kalbo.emulator.model;
 public interface Updater {
 
     void update(long time);
+
+    /**
+     * @param render false when the engine is late and only wants the simulation to advance, the picture can be
+     *               left as it is
+     */
+    default void update(long time, boolean render) {
+        update(time);
+    }
 }
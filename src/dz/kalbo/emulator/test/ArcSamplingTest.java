@@ -0,0 +1,48 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.ArcTranche;
+import dz.kalbo.emulator.model.Context;
+import dz.kalbo.emulator.model.ScalablePoint;
+
+/**
+ * checks that equal progress steps cover equal lengths on elliptical arcs both ways, so trams keep their speed
+ * along them
+ */
+public class ArcSamplingTest {
+
+    private static final int STEPS = 50;
+    // chords cut the bends a little and points are whole world units, steps at equal angles would be several
+    // times longer at the ends of the major axis than at the ends of the minor one
+    private static final double MAX_SPREAD = 0.02d;
+
+    public static void main(String[] args) {
+        Context context = new Context(50_000, 50_000, 1f, 0);
+        ArcTranche flat = new ArcTranche(1, new ScalablePoint(0, 0), new ScalablePoint(40_000, 10_000), context);
+        check(flat, "flat north arc");
+        flat.setSouthDirection(true);
+        check(flat, "flat south arc");
+        check(new ArcTranche(2, new ScalablePoint(0, 0), new ScalablePoint(8_000, 30_000), context), "tall arc");
+        check(new ArcTranche(3, new ScalablePoint(0, 0), new ScalablePoint(20_000, 20_000), context), "circular arc");
+        System.out.println("equal progress steps give equal chords on elliptical arcs");
+    }
+
+    private static void check(ArcTranche arc, String name) {
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        double total = 0;
+        for (int i = 0; i < STEPS; i++) {
+            float from = (float) i / STEPS;
+            float to = (float) (i + 1) / STEPS;
+            double chord = Math.hypot(arc.getX(to) - arc.getX(from), arc.getY(to) - arc.getY(from));
+            min = Math.min(min, chord);
+            max = Math.max(max, chord);
+            total += chord;
+        }
+        System.out.println(name + ": length " + arc.getLength() + ", chords from " + min + " to " + max);
+        if (max - min > max * MAX_SPREAD)
+            throw new AssertionError(name + " has chords from " + min + " to " + max + " for equal progress steps");
+        // the chords are a little shorter than the arc they cut
+        if (total > arc.getLength() * (1 + MAX_SPREAD) || total < arc.getLength() * (1 - MAX_SPREAD))
+            throw new AssertionError(name + " chords add up to " + total + " for a length of " + arc.getLength());
+    }
+}
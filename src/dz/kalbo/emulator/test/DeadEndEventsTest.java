@@ -0,0 +1,51 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+import dz.kalbo.emulator.tram.DiscreteEventEngine;
+
+/**
+ * checks that a tram held at the end of a line costs no event, and that it goes on once the line is extended
+ */
+public class DeadEndEventsTest {
+
+    private static final long MAX_EVENTS = 10;
+
+    public static void main(String[] args) {
+        RailwayModel model = new RailwayModel(700, 500);
+        try {
+            Context context = model.getContext();
+            float zoom = context.getZoom();
+            StraightTranche first = new StraightTranche(1, new ScalablePoint(50, 250, zoom), new ScalablePoint(150, 250, zoom), context);
+            StraightTranche second = new StraightTranche(2, new ScalablePoint(150, 250, zoom), new ScalablePoint(250, 250, zoom), context);
+            first.addNext(second);
+            Road road = new Road(1, context, 2, 4);
+            road.setHead(first);
+            model.addRoad(road);
+
+            Tram tram = new Tram(1, 15, 20, 1, 5, context);
+            tram.updatePosition(first, 0.5f, new Speed(50 / 1_000d, zoom));
+            model.addTram(tram);
+
+            DiscreteEventEngine engine = new DiscreteEventEngine(model);
+            long events = engine.runUntil(60_000);
+            System.out.println(events + " events in a minute, " + tram);
+            if (tram.getHeadTranche() != second || tram.getHeadProgress() != 1f)
+                throw new AssertionError("the tram did not reach the end of the line, " + tram);
+            if (events > MAX_EVENTS)
+                throw new AssertionError("a tram held at a dead end made " + events + " events in a minute");
+
+            // the new tranche gives the held tram somewhere to go
+            StraightTranche third = new StraightTranche(3, new ScalablePoint(250, 250, zoom), new ScalablePoint(450, 250, zoom), context);
+            model.write(m -> {
+                second.addNext(third);
+                m.invalidateTopology();
+            });
+            engine.runUntil(62_000);
+            System.out.println("after extending the line, " + tram);
+            if (tram.getHeadTranche() != third)
+                throw new AssertionError("the tram did not go on the new tranche, " + tram);
+        } finally {
+            model.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+import dz.kalbo.emulator.tram.DiscreteEventEngine;
+
+/**
+ * checks at a junction with two next tranches that a routed tram takes its route whatever the switch says, and
+ * that moving the switch sends an unrouted tram already heading to the junction the new way, with ticks and with
+ * events
+ */
+public class JunctionTest {
+
+    private static final int TICK = 15;
+    private static final double SPEED = 50 / 1_000d;
+
+    public static void main(String[] args) {
+        check(false);
+        check(true);
+        System.out.println("routed trams keep their route at junctions and switches redirect unrouted ones");
+    }
+
+    private static void check(boolean events) {
+        RailwayModel model = new RailwayModel(700, 500);
+        try {
+            Context context = model.getContext();
+            // the junction branches up to the north line and down to the south line
+            StraightTranche junction = new StraightTranche(1, new ScalablePoint(0, 100), new ScalablePoint(100, 100), context);
+            StraightTranche north = new StraightTranche(2, new ScalablePoint(100, 100), new ScalablePoint(200, 50), context);
+            StraightTranche south = new StraightTranche(3, new ScalablePoint(100, 100), new ScalablePoint(200, 150), context);
+            StraightTranche northEnd = new StraightTranche(4, new ScalablePoint(200, 50), new ScalablePoint(400, 50), context);
+            StraightTranche southEnd = new StraightTranche(5, new ScalablePoint(200, 150), new ScalablePoint(400, 150), context);
+            junction.addNext(north);
+            junction.addNext(south);
+            north.addNext(northEnd);
+            south.addNext(southEnd);
+            Road road = new Road(1, context, 2, 4);
+            road.setHead(junction);
+            model.addRoad(road);
+            model.setSwitch(junction, south);
+
+            Tram routed = addTram(model, 1, junction);
+            routed.setRoute(new Route(true, 1, 2, 4));
+            Tram unrouted = addTram(model, 2, junction);
+
+            DiscreteEventEngine engine = null;
+            if (events) {
+                model.enableEvents();
+                engine = new DiscreteEventEngine(model);
+            }
+            String mode = events ? "events: " : "ticks: ";
+            run(model, engine, 3_000);
+            if (!isOn(routed, north, northEnd))
+                throw new AssertionError(mode + "the routed tram followed the switch, " + routed);
+            if (!isOn(unrouted, south, southEnd))
+                throw new AssertionError(mode + "the unrouted tram did not follow the switch, " + unrouted);
+
+            // half way to the end of the junction, the switch moves while the tram heads to it
+            Tram redirected = addTram(model, 3, junction);
+            run(model, engine, 3_500);
+            if (redirected.getHeadTranche() != junction)
+                throw new AssertionError(mode + "the tram left the junction before the switch moved, " + redirected);
+            model.setSwitch(junction, north);
+            run(model, engine, 6_000);
+            if (!isOn(redirected, north, northEnd))
+                throw new AssertionError(mode + "moving the switch did not redirect the tram, " + redirected);
+            System.out.println(mode + routed + " on its route, " + unrouted + " on the switch, " + redirected
+                    + " redirected");
+        } finally {
+            model.close();
+        }
+    }
+
+    private static Tram addTram(RailwayModel model, int id, AbstractTranche tranche) {
+        Context context = model.getContext();
+        Tram tram = new Tram(id, 10, 10, 1, 3, context);
+        tram.updatePosition(tranche, 0.5f, new Speed(SPEED, context.getZoom()));
+        model.addTram(tram);
+        return tram;
+    }
+
+    private static void run(RailwayModel model, DiscreteEventEngine engine, long until) {
+        if (engine != null)
+            engine.runUntil(until);
+        else
+            while (model.getContext().getTime() < until)
+                model.update(TICK);
+    }
+
+    private static boolean isOn(Tram tram, AbstractTranche... tranches) {
+        for (AbstractTranche tranche : tranches)
+            if (tram.getHeadTranche() == tranche)
+                return true;
+        return false;
+    }
+}
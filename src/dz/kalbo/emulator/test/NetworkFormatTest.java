@@ -0,0 +1,119 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.io.NetworkLoader;
+import dz.kalbo.emulator.io.NetworkWriter;
+import dz.kalbo.emulator.model.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * checks that a written network loads back the same, and that corrupted files fail with an IOException
+ */
+public class NetworkFormatTest {
+
+    // header fields offsets
+    private static final int TRANCHES_COUNT = 20;
+    private static final int LINKS_COUNT = 28;
+    private static final int HEADER_SIZE = 36;
+    private static final int ROAD_SIZE = 12;
+    private static final int TRANCHE_SIZE = 24;
+    private static final int HEAD_SIZE = 8;
+
+    public static void main(String[] args) throws IOException {
+        RailwayModel model = NetworkGenerator.generate(400, 300);
+        Path file = Files.createTempFile("network", ".bin");
+        try {
+            NetworkWriter.write(model, file);
+            RailwayModel loaded = NetworkLoader.load(file);
+            checkSame(model, loaded);
+            System.out.println("round trip of " + loaded.getRoads().size() + " roads and " + loaded.getTrams().size()
+                    + " trams is the same");
+
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer original = ByteBuffer.wrap(bytes);
+            int roadsCount = original.getInt(16);
+            int headsCount = original.getInt(24);
+            int tranchesOffset = HEADER_SIZE + roadsCount * ROAD_SIZE;
+            int linksOffset = tranchesOffset + original.getInt(TRANCHES_COUNT) * TRANCHE_SIZE + headsCount * HEAD_SIZE;
+
+            // counts whose section sizes overflow an int
+            checkCorrupted(file, bytes, buffer -> buffer.putInt(LINKS_COUNT, 0x20000001), "overflowing links count");
+            checkCorrupted(file, bytes, buffer -> buffer.putInt(TRANCHES_COUNT, -1), "negative tranches count");
+            checkCorrupted(file, bytes, buffer -> buffer.putInt(linksOffset + 4, 1 << 20), "link out of the tranches");
+            checkCorrupted(file, bytes, buffer -> buffer.putInt(linksOffset, -2), "negative link");
+            checkCorrupted(file, bytes, buffer -> {
+                buffer.putInt(tranchesOffset + 16, buffer.getInt(tranchesOffset + 8));
+                buffer.putInt(tranchesOffset + 20, buffer.getInt(tranchesOffset + 12));
+            }, "tranche ending where it starts");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void checkSame(RailwayModel expected, RailwayModel actual) {
+        check(expected.getContext().getWidth() == actual.getContext().getWidth()
+                && expected.getContext().getHeight() == actual.getContext().getHeight(), "model size");
+
+        List<Road> expectedRoads = expected.getRoads();
+        List<Road> actualRoads = actual.getRoads();
+        check(expectedRoads.size() == actualRoads.size(), "roads count");
+        for (int i = 0; i < expectedRoads.size(); i++) {
+            Road a = expectedRoads.get(i), b = actualRoads.get(i);
+            check(a.getId() == b.getId() && a.getRadios() == b.getRadios() && a.getThickness() == b.getThickness(),
+                    "road #" + a.getId());
+            check(a.getHeadTranches().size() == b.getHeadTranches().size(), "heads of road #" + a.getId());
+        }
+
+        TrackGraph expectedGraph = expected.getTrackGraph();
+        TrackGraph actualGraph = actual.getTrackGraph();
+        check(expectedGraph.size() == actualGraph.size(), "tranches count");
+        for (int i = 0; i < expectedGraph.size(); i++) {
+            AbstractTranche a = expectedGraph.getTranche(i);
+            AbstractTranche b = actualGraph.getTranche(actualGraph.indexOfId(a.getId()));
+            check(b != null && a.getClass() == b.getClass() && a.getStart().equals(b.getStart())
+                    && a.getEnd().equals(b.getEnd()) && a.getLength() == b.getLength(), "tranche #" + a.getId());
+            check(expectedGraph.getNextCount(i) == actualGraph.getNextCount(actualGraph.indexOf(b)),
+                    "links of tranche #" + a.getId());
+        }
+
+        List<Tram> expectedTrams = expected.getTrams();
+        List<Tram> actualTrams = actual.getTrams();
+        check(expectedTrams.size() == actualTrams.size(), "trams count");
+        for (int i = 0; i < expectedTrams.size(); i++) {
+            Tram a = expectedTrams.get(i), b = actualTrams.get(i);
+            check(a.getId() == b.getId() && a.getWagonsCount() == b.getWagonsCount() && a.getWidth() == b.getWidth()
+                    && a.isDirectionToStart() == b.isDirectionToStart()
+                    && a.getHeadTranche().getId() == b.getHeadTranche().getId()
+                    && a.getHeadProgress() == b.getHeadProgress() && a.getSpeed().speed == b.getSpeed().speed,
+                    "tram #" + a.getId());
+        }
+    }
+
+    private interface Corruption {
+        void apply(ByteBuffer buffer);
+    }
+
+    private static void checkCorrupted(Path file, byte[] bytes, Corruption corruption, String name) throws IOException {
+        byte[] corrupted = bytes.clone();
+        corruption.apply(ByteBuffer.wrap(corrupted));
+        Files.write(file, corrupted);
+        try {
+            NetworkLoader.load(file);
+        } catch (IOException e) {
+            System.out.println(name + ": " + e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            throw new AssertionError(name + " failed with " + e + " instead of an IOException", e);
+        }
+        throw new AssertionError(name + " was loaded");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError("loaded " + what + " differs from the written one");
+    }
+}
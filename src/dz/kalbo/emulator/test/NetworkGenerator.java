@@ -0,0 +1,114 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+
+import java.util.Random;
+
+/**
+ * builds big networks made of closed loops laid on a grid, each loop has two straight and two arc tranches
+ */
+public class NetworkGenerator {
+
+    public static final int TRANCHES_PER_LOOP = 4;
+    private static final int CELL_SIZE = 250;
+
+    private final int loops;
+    private final int columns;
+
+    public NetworkGenerator(int tranches) {
+        this.loops = Math.max(tranches / TRANCHES_PER_LOOP, 1);
+        this.columns = (int) Math.ceil(Math.sqrt(loops));
+    }
+
+    public int getLoops() {
+        return loops;
+    }
+
+    public int getWidth() {
+        return columns * CELL_SIZE;
+    }
+
+    public int getHeight() {
+        return ((loops + columns - 1) / columns) * CELL_SIZE;
+    }
+
+    public RailwayModel newModel() {
+        return new RailwayModel(getWidth(), getHeight());
+    }
+
+    /**
+     * add one road per loop to the model
+     *
+     * @return the first tranche of every loop
+     */
+    public AbstractTranche[] addRoads(RailwayModel model) {
+        Context context = model.getContext();
+        float zoom = context.getZoom();
+        AbstractTranche[] heads = new AbstractTranche[loops];
+        for (int loop = 0; loop < loops; loop++) {
+            int x = (loop % columns) * CELL_SIZE;
+            int y = (loop / columns) * CELL_SIZE;
+            int id = loop * TRANCHES_PER_LOOP;
+
+            StraightTranche bottom = new StraightTranche(id, new ScalablePoint(x + 50, y + 200, zoom), new ScalablePoint(x + 150, y + 200, zoom), context);
+            ArcTranche right = new ArcTranche(id + 1, new ScalablePoint(x + 150, y + 200, zoom), new ScalablePoint(x + 225, y + 125, zoom), context);
+            StraightTranche top = new StraightTranche(id + 2, new ScalablePoint(x + 225, y + 125, zoom), new ScalablePoint(x + 50, y + 50, zoom), context);
+            ArcTranche left = new ArcTranche(id + 3, new ScalablePoint(x + 50, y + 50, zoom), new ScalablePoint(x + 50, y + 200, zoom), context);
+            bottom.addNext(right);
+            right.addNext(top);
+            top.addNext(left);
+            left.addNext(bottom);
+
+            Road road = new Road(loop, context, 2, 4);
+            road.setHead(bottom);
+            model.addRoad(road);
+            heads[loop] = bottom;
+        }
+        return heads;
+    }
+
+    /**
+     * spread the given number of trams over the loops
+     */
+    public void addTrams(RailwayModel model, AbstractTranche[] heads, int trams) {
+        Context context = model.getContext();
+        for (int i = 0; i < trams; i++) {
+            Tram tram = new Tram(i, 15, 20, 2, 5, context);
+            tram.setDirectionToStart(i % 5 == 0);
+            float progress = (i / heads.length % 10) / 10f;
+            tram.updatePosition(heads[i % heads.length], progress, new Speed((20 + i % 60) / 1_000d, context.getZoom()));
+            model.addTram(tram);
+        }
+    }
+
+    /**
+     * link tranches of random loops to tranches of other loops one way, so shortest routes go through several
+     * loops. The last loop is left on its own.
+     */
+    public void joinLoops(RailwayModel model, int links, long seed) {
+        Random random = new Random(seed);
+        model.write(m -> {
+            TrackGraph graph = m.getTrackGraph();
+            for (int i = 0; i < links; i++) {
+                int from = random.nextInt(loops - 1);
+                int to = random.nextInt(loops - 1);
+                if (from == to)
+                    continue;
+                AbstractTranche source = graph.getTranche(graph.indexOfId(from * TRANCHES_PER_LOOP
+                        + random.nextInt(TRANCHES_PER_LOOP)));
+                AbstractTranche target = graph.getTranche(graph.indexOfId(to * TRANCHES_PER_LOOP
+                        + random.nextInt(TRANCHES_PER_LOOP)));
+                source.addNext(target);
+            }
+            m.invalidateTopology();
+        });
+    }
+
+    public static RailwayModel generate(int tranches, int trams) {
+        NetworkGenerator generator = new NetworkGenerator(tranches);
+        RailwayModel model = generator.newModel();
+        AbstractTranche[] heads = generator.addRoads(model);
+        generator.addTrams(model, heads, trams);
+        return model;
+    }
+}
@@ -0,0 +1,118 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.io.NetworkImporter;
+import dz.kalbo.emulator.model.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * checks that the JSON and the CSV form of a layout build the same network, and that broken layouts fail with a
+ * parse error
+ */
+public class NetworkImportTest {
+
+    private static final String JSON = "{\n"
+            + "  \"width\": 700, \"height\": 500,\n"
+            + "  \"roads\": [{\"id\": 7, \"radios\": 2, \"thickness\": 4, \"heads\": [1]}],\n"
+            + "  \"tranches\": [\n"
+            + "    {\"id\": 1, \"type\": \"straight\", \"start\": [100, 300], \"end\": [500, 300], \"next\": [2]},\n"
+            + "    {\"id\": 2, \"type\": \"arc\", \"start\": [500, 300], \"end\": [600, 200], \"south\": true},\n"
+            + "    {\"id\": 3, \"start\": [600, 200], \"end\": [100, 300], \"comment\": \"skipped\"}\n"
+            + "  ],\n"
+            + "  \"links\": [{\"from\": 2, \"to\": 3}, [3, 1]]\n"
+            + "}";
+
+    private static final String CSV = "# the same layout\n"
+            + "size,700,500\n"
+            + "road,7,2,4,1\n"
+            + "straight,1,100,300,500,300\n"
+            + "arc,2,500,300,600,200,true\n"
+            + "straight,3,600,200,100,300\n"
+            + "link,1,2\n"
+            + "link,2,3\n"
+            + "link,3,1\n";
+
+    private static final String HEADER = "type,id,x1,y1,x2,y2,south\n";
+
+    public static void main(String[] args) throws IOException {
+        NetworkImporter importer = new NetworkImporter();
+        RailwayModel json = importer.importJson(new StringReader(JSON));
+        RailwayModel csv = importer.importCsv(new StringReader(CSV));
+        importer.setCsvHeader(true);
+        RailwayModel csvWithHeader = importer.importCsv(new StringReader(HEADER + CSV));
+        try {
+            checkSame(json, csv);
+            checkSame(json, csvWithHeader);
+            System.out.println("JSON and CSV layouts build the same " + json.getTrackGraph().size() + " tranches");
+        } finally {
+            json.close();
+            csv.close();
+            csvWithHeader.close();
+        }
+
+        checkRejected("{\"tranches\": [{\"type\": \"straight\", \"start\": [0, 0], \"end\": [10, 0]}]}", true,
+                "tranche without id");
+        checkRejected("{\"tranches\": [{\"id\": 1, \"start\": [0, 0], \"end\": [10, 0]}], \"links\": [{\"to\": 1}]}",
+                true, "link without from");
+        checkRejected("{\"roads\": [{\"radios\": 2, \"thickness\": 4, \"heads\": []}]}", true, "road without id");
+        checkRejected("{\"tranches\": [{\"id\": 1, \"start\": [0, 0]}]}", true, "tranche without end");
+        checkRejected("straight,,0,0,10,0\n", false, "csv tranche without id");
+        checkRejected("straight,1,0,0,10\n", false, "csv tranche without end y");
+        checkRejected("straight,1,0,0,1.2.3,0\n", false, "csv tranche with a malformed number");
+        checkRejected("straight,1,0,0,1e20,0\n", false, "csv tranche with a number out of the int range");
+        checkRejected("tunnel,1\n", false, "unknown csv record");
+        checkRejected(HEADER + CSV, false, "csv header without the header option");
+    }
+
+    private static void checkSame(RailwayModel expected, RailwayModel actual) {
+        check(expected.getContext().getWidth() == actual.getContext().getWidth()
+                && expected.getContext().getHeight() == actual.getContext().getHeight(), "model size");
+
+        List<Road> expectedRoads = expected.getRoads();
+        List<Road> actualRoads = actual.getRoads();
+        check(expectedRoads.size() == actualRoads.size(), "roads count");
+        for (int i = 0; i < expectedRoads.size(); i++) {
+            Road a = expectedRoads.get(i), b = actualRoads.get(i);
+            check(a.getId() == b.getId() && a.getRadios() == b.getRadios() && a.getThickness() == b.getThickness()
+                    && a.getHeadTranches().size() == b.getHeadTranches().size(), "road #" + a.getId());
+        }
+
+        TrackGraph expectedGraph = expected.getTrackGraph();
+        TrackGraph actualGraph = actual.getTrackGraph();
+        check(expectedGraph.size() == actualGraph.size(), "tranches count");
+        for (int i = 0; i < expectedGraph.size(); i++) {
+            AbstractTranche a = expectedGraph.getTranche(i);
+            int index = actualGraph.indexOfId(a.getId());
+            check(index != TrackGraph.NONE, "tranche #" + a.getId());
+            AbstractTranche b = actualGraph.getTranche(index);
+            check(a.getClass() == b.getClass() && a.getStart().equals(b.getStart()) && a.getEnd().equals(b.getEnd())
+                    && a.getLength() == b.getLength(), "tranche #" + a.getId());
+            check(expectedGraph.getNextCount(i) == actualGraph.getNextCount(index), "links of tranche #" + a.getId());
+            for (int n = 0; n < expectedGraph.getNextCount(i); n++)
+                check(expectedGraph.getTranche(expectedGraph.getNext(i, n)).getId()
+                        == actualGraph.getTranche(actualGraph.getNext(index, n)).getId(), "links of tranche #" + a.getId());
+        }
+    }
+
+    private static void checkRejected(String layout, boolean json, String name) {
+        NetworkImporter importer = new NetworkImporter();
+        try {
+            RailwayModel model = json ? importer.importJson(new StringReader(layout))
+                    : importer.importCsv(new StringReader(layout));
+            model.close();
+        } catch (IOException e) {
+            System.out.println(name + ": " + e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            throw new AssertionError(name + " failed with " + e + " instead of a parse error", e);
+        }
+        throw new AssertionError(name + " was imported");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition)
+            throw new AssertionError("imported " + what + " differs between JSON and CSV");
+    }
+}
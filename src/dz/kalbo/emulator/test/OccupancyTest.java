@@ -0,0 +1,148 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+import dz.kalbo.emulator.tools.Kit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * checks that the occupancy index tells about a collision already there when it is enabled, that a parked tram
+ * heading to the start looks toward the start for the tram ahead, and that a tram closing on a stopped one gets a
+ * headway alert once
+ */
+public class OccupancyTest {
+
+    private static final int TICK = 15;
+    private static final double SPEED = 50 / 1_000d;
+
+    public static void main(String[] args) {
+        checkCollisionAtEnable();
+        checkParkedToStart();
+        checkHeadway();
+        System.out.println("occupancy reports collisions at enable, parked trams look their own way and headway alerts once");
+    }
+
+    private static void checkCollisionAtEnable() {
+        RailwayModel model = new RailwayModel(700, 500);
+        try {
+            StraightTranche[] line = line(model, 2);
+            Tram first = addTram(model, 1, line[0], 0.5f, false, 0d);
+            Tram second = addTram(model, 2, line[0], 0.52f, false, 0d);
+
+            Recorder recorder = new Recorder();
+            model.enableOccupancy(recorder);
+            // each of the two trams is told once
+            if (recorder.collisions.size() != 2 || !recorder.collisions.contains("2x1"))
+                throw new AssertionError("overlapping trams at enable made " + recorder.collisions + " collisions");
+            OccupancyIndex occupancy = model.getTramStore().getOccupancy();
+            if (!occupancy.isColliding(model.getTramStore().slotOf(second)))
+                throw new AssertionError("the collision is not kept, " + second + " over " + first);
+
+            // a collision that goes on is not told again
+            model.update(TICK);
+            if (recorder.collisions.size() != 2)
+                throw new AssertionError("a lasting collision was told again, " + recorder.collisions);
+        } finally {
+            model.close();
+        }
+    }
+
+    private static void checkParkedToStart() {
+        RailwayModel model = new RailwayModel(700, 500);
+        try {
+            StraightTranche[] line = line(model, 3);
+            Tram toStart = addTram(model, 1, line[1], 0.5f, true, 0d);
+            Tram behind = addTram(model, 2, line[0], 0.5f, false, 0d);
+            // in front of the parked tram if it looked toward the end
+            addTram(model, 3, line[2], 0.5f, false, 0d);
+
+            model.enableOccupancy(new Recorder());
+            TramStore store = model.getTramStore();
+            Tram ahead = store.getOccupancy().getTramAhead(store.slotOf(toStart));
+            if (ahead != behind)
+                throw new AssertionError("a parked tram heading to the start sees " + ahead + " ahead instead of "
+                        + behind);
+        } finally {
+            model.close();
+        }
+    }
+
+    private static void checkHeadway() {
+        RailwayModel model = new RailwayModel(700, 500);
+        try {
+            StraightTranche[] line = line(model, 3);
+            Tram follower = addTram(model, 1, line[0], 0.5f, false, SPEED);
+            Tram blocker = addTram(model, 2, line[2], 0.5f, false, 0d);
+
+            Recorder recorder = new Recorder();
+            model.enableOccupancy(recorder);
+            TramStore store = model.getTramStore();
+            OccupancyIndex occupancy = store.getOccupancy();
+            int slot = store.slotOf(follower);
+            if (occupancy.getTramAhead(slot) != blocker)
+                throw new AssertionError("the follower does not see the blocker ahead, " + follower);
+
+            float distance = occupancy.getDistanceAhead(slot);
+            while (distance >= Kit.MIN_HEADWAY) {
+                model.update(TICK);
+                float next = occupancy.getDistanceAhead(slot);
+                if (next >= distance)
+                    throw new AssertionError("the distance to the blocker went from " + distance + " to " + next);
+                distance = next;
+            }
+            // a few more ticks still too close
+            for (int i = 0; i < 10; i++)
+                model.update(TICK);
+            if (recorder.headways.size() != 1
+                    || !recorder.headways.get(0).startsWith(follower.getId() + ">" + blocker.getId()))
+                throw new AssertionError("closing on the blocker made headway alerts " + recorder.headways);
+            if (!recorder.collisions.isEmpty())
+                throw new AssertionError("trams apart collided, " + recorder.collisions);
+        } finally {
+            model.close();
+        }
+    }
+
+    private static StraightTranche[] line(RailwayModel model, int count) {
+        Context context = model.getContext();
+        float zoom = context.getZoom();
+        StraightTranche[] line = new StraightTranche[count];
+        for (int i = 0; i < count; i++) {
+            line[i] = new StraightTranche(i + 1, new ScalablePoint(50 + i * 200, 250, zoom),
+                    new ScalablePoint(250 + i * 200, 250, zoom), context);
+            if (i > 0)
+                line[i - 1].addNext(line[i]);
+        }
+        Road road = new Road(1, context, 2, 4);
+        road.setHead(line[0]);
+        model.addRoad(road);
+        return line;
+    }
+
+    private static Tram addTram(RailwayModel model, int id, AbstractTranche tranche, float progress, boolean toStart,
+                                double speed) {
+        Context context = model.getContext();
+        Tram tram = new Tram(id, 15, 20, 1, 5, context);
+        tram.setDirectionToStart(toStart);
+        tram.updatePosition(tranche, progress, new Speed(speed, context.getZoom()));
+        model.addTram(tram);
+        return tram;
+    }
+
+    private static class Recorder implements OccupancyIndex.Listener {
+
+        private final List<String> collisions = new ArrayList<>();
+        private final List<String> headways = new ArrayList<>();
+
+        @Override
+        public void collision(Tram tram, Tram other) {
+            collisions.add(tram.getId() + "x" + other.getId());
+        }
+
+        @Override
+        public void headway(Tram tram, Tram ahead, float distance) {
+            headways.add(tram.getId() + ">" + ahead.getId() + " at " + distance);
+        }
+    }
+}
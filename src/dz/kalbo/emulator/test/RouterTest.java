@@ -0,0 +1,130 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * checks the routes and distances of the landmarks router against plain Dijkstra both ways, on the loops of a
+ * generated network joined by one way links, one loop is left on its own so some pairs are unreachable
+ */
+public class RouterTest {
+
+    private static final int TRANCHES = 400;
+    private static final int JOINS = 150;
+    private static final int ORIGINS = 60;
+
+    public static void main(String[] args) {
+        NetworkGenerator generator = new NetworkGenerator(TRANCHES);
+        RailwayModel model = generator.newModel();
+        try {
+            AbstractTranche[] heads = generator.addRoads(model);
+            generator.joinLoops(model, JOINS, 7);
+            TrackGraph graph = model.getTrackGraph();
+
+            Router router = new Router(graph);
+            Router plain = new Router(graph, 0, 0);
+            Random random = new Random(11);
+            int reachable = 0;
+            int unreachable = 0;
+            float[] distances = new float[graph.size()];
+            for (int o = 0; o < ORIGINS; o++) {
+                int from = random.nextInt(graph.size());
+                for (boolean towardNext : new boolean[]{true, false}) {
+                    dijkstra(graph, from, towardNext, distances);
+                    for (int to = 0; to < graph.size(); to++) {
+                        check(graph, router, from, to, towardNext, distances[to], "landmarks router");
+                        check(graph, plain, from, to, towardNext, distances[to], "plain router");
+                        if (distances[to] == Float.POSITIVE_INFINITY)
+                            unreachable++;
+                        else
+                            reachable++;
+                    }
+                }
+            }
+
+            // the loop left on its own is out of reach of the others and the others out of its reach
+            AbstractTranche alone = heads[heads.length - 1];
+            for (boolean towardNext : new boolean[]{true, false}) {
+                checkUnreachable(router, heads[0], alone, towardNext);
+                checkUnreachable(router, alone, heads[0], towardNext);
+            }
+            if (unreachable == 0 || reachable == 0)
+                throw new AssertionError(reachable + " reachable and " + unreachable
+                        + " unreachable pairs, both are needed");
+            System.out.println("routes match Dijkstra for " + reachable + " reachable and " + unreachable
+                    + " unreachable pairs");
+        } finally {
+            model.close();
+        }
+    }
+
+    /**
+     * textbook Dijkstra without a queue, the graph is small
+     */
+    private static void dijkstra(TrackGraph graph, int from, boolean towardNext, float[] distances) {
+        boolean[] done = new boolean[graph.size()];
+        Arrays.fill(distances, Float.POSITIVE_INFINITY);
+        distances[from] = 0f;
+        while (true) {
+            int closest = -1;
+            for (int i = 0; i < distances.length; i++)
+                if (!done[i] && distances[i] != Float.POSITIVE_INFINITY
+                        && (closest == -1 || distances[i] < distances[closest]))
+                    closest = i;
+            if (closest == -1)
+                return;
+            done[closest] = true;
+            int count = towardNext ? graph.getNextCount(closest) : graph.getPreviewsCount(closest);
+            for (int i = 0; i < count; i++) {
+                int next = towardNext ? graph.getNext(closest, i) : graph.getPreviews(closest, i);
+                distances[next] = Math.min(distances[next], distances[closest] + graph.getLength(next));
+            }
+        }
+    }
+
+    private static void check(TrackGraph graph, Router router, int from, int to, boolean towardNext, float expected,
+                              String name) {
+        AbstractTranche origin = graph.getTranche(from);
+        AbstractTranche destination = graph.getTranche(to);
+        String pair = name + " from #" + origin.getId() + " to #" + destination.getId()
+                + (towardNext ? " toward next" : " toward previews");
+        float distance = router.getDistance(origin, destination, towardNext);
+        Route route = router.findRoute(origin, destination, towardNext);
+        if (expected == Float.POSITIVE_INFINITY) {
+            if (distance != Float.POSITIVE_INFINITY || route != null)
+                throw new AssertionError(pair + " is unreachable but the router found " + route + " of " + distance);
+            return;
+        }
+        if (Math.abs(distance - expected) > 1e-3f * Math.max(expected, 1f))
+            throw new AssertionError(pair + " is " + distance + " long instead of " + expected);
+        if (route == null || route.isTowardNext() != towardNext)
+            throw new AssertionError(pair + " has the route " + route);
+
+        // the route walks the links the right way from the origin to the destination and is as long as told
+        int previous = graph.indexOfId(route.getTrancheId(0));
+        if (previous != from || graph.indexOfId(route.getTrancheId(route.size() - 1)) != to)
+            throw new AssertionError(pair + " has the route " + route + " with other ends");
+        float length = 0f;
+        for (int i = 1; i < route.size(); i++) {
+            int index = graph.indexOfId(route.getTrancheId(i));
+            if (towardNext ? !graph.isNext(previous, index) : !graph.isPreviews(previous, index))
+                throw new AssertionError(pair + " has the route " + route + " with a missing link at " + i);
+            length += graph.getLength(index);
+            previous = index;
+        }
+        if (Math.abs(length - distance) > 1e-3f * Math.max(distance, 1f))
+            throw new AssertionError(pair + " has the route " + route + " of " + length + " for a distance of "
+                    + distance);
+    }
+
+    private static void checkUnreachable(Router router, AbstractTranche origin, AbstractTranche destination,
+                                         boolean towardNext) {
+        if (router.findRoute(origin, destination, towardNext) != null
+                || router.getDistance(origin, destination, towardNext) != Float.POSITIVE_INFINITY
+                || router.getTravelTime(origin, destination, towardNext, 0.05d) != Long.MAX_VALUE)
+            throw new AssertionError("#" + destination.getId() + " is reached from #" + origin.getId()
+                    + " on its own loop");
+    }
+}
@@ -0,0 +1,129 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+import dz.kalbo.emulator.tools.Kit;
+import dz.kalbo.emulator.tram.DiscreteEventEngine;
+
+/**
+ * checks that a tram stopped at a signal starts again from where it stopped when the block ahead is freed, with
+ * ticks, with events and with events alone over one long jump
+ */
+public class SignalReleaseTest {
+
+    private static final int TICK = 15;
+    private static final int STOPPED_TICKS = 2_000;
+    private static final int RELEASED_TICKS = 50;
+    private static final double SPEED = 50 / 1_000d;
+    private static final float TRANCHE_LENGTH = 100f;
+    private static final long JUMP = 30_000;
+
+    public static void main(String[] args) {
+        check(false);
+        check(true);
+        checkJump();
+    }
+
+    private static void check(boolean events) {
+        RailwayModel model = new RailwayModel(700, 500);
+        try {
+            Tram[] trams = build(model);
+            Tram follower = trams[0];
+            Tram blocker = trams[1];
+            if (events)
+                model.enableEvents();
+
+            for (int i = 0; i < STOPPED_TICKS; i++)
+                model.update(TICK);
+            if (follower.getSpeedFactor() != 0f)
+                throw new AssertionError("the follower is not stopped at the signal, " + follower);
+
+            // the follower must not make up for the time it waited
+            model.removeTram(blocker);
+            float position = positionOf(follower);
+            float maxStep = 0f;
+            for (int i = 0; i < RELEASED_TICKS; i++) {
+                model.update(TICK);
+                float next = positionOf(follower);
+                maxStep = Math.max(maxStep, next - position);
+                position = next;
+            }
+
+            double allowed = SPEED * TICK * 1.01d;
+            System.out.println((events ? "events" : "ticks") + ": released tram moves at most " + maxStep
+                    + " per tick, " + follower);
+            if (maxStep > allowed)
+                throw new AssertionError("the released tram jumped " + maxStep + " in a tick instead of at most "
+                        + allowed);
+        } finally {
+            model.close();
+        }
+    }
+
+    /**
+     * no tick at all, the aspects only change at the events of the trams
+     */
+    private static void checkJump() {
+        RailwayModel model = new RailwayModel(700, 500);
+        try {
+            Tram[] trams = build(model);
+            Tram follower = trams[0];
+            Tram blocker = trams[1];
+            model.enableEvents();
+            DiscreteEventEngine engine = new DiscreteEventEngine(model);
+
+            long events = engine.runUntil(JUMP);
+            float stopped = positionOf(follower);
+            System.out.println("one jump: " + events + " events, " + follower);
+            if (follower.getSpeedFactor() != 0f)
+                throw new AssertionError("the follower is not stopped at the signal after one jump, " + follower);
+            // the blocker is in the fifth block, the follower waits at the end of the fourth one
+            float signal = 4 * TRANCHE_LENGTH;
+            if (stopped > signal || stopped < signal - Kit.SIGNAL_STOP_DISTANCE - 1f)
+                throw new AssertionError("the follower did not stop at the signal but at " + stopped + ", " + follower);
+
+            // the follower starts again from where it stopped, not from where it would be without the signal
+            model.write(m -> m.removeTram(blocker));
+            engine.runUntil(JUMP + 1_000);
+            float moved = positionOf(follower) - stopped;
+            double allowed = SPEED * 1_000 * 1.01d;
+            System.out.println("one jump: released tram moved " + moved + " in a second, " + follower);
+            if (moved <= 0f || moved > allowed)
+                throw new AssertionError("the released tram moved " + moved + " in a second instead of at most "
+                        + allowed);
+        } finally {
+            model.close();
+        }
+    }
+
+    /**
+     * a line of six blocks, the follower at the end of the first one and the blocker stopped in the fifth one
+     */
+    private static Tram[] build(RailwayModel model) {
+        Context context = model.getContext();
+        float zoom = context.getZoom();
+        Road road = new Road(1, context, 2, 4);
+        StraightTranche[] line = new StraightTranche[6];
+        for (int i = 0; i < line.length; i++) {
+            line[i] = new StraightTranche(i + 1, new ScalablePoint(50 + i * 100, 250, zoom),
+                    new ScalablePoint(150 + i * 100, 250, zoom), context);
+            if (i > 0)
+                line[i - 1].addNext(line[i]);
+        }
+        road.setHead(line[0]);
+        model.addRoad(road);
+
+        Tram follower = new Tram(1, 15, 20, 1, 5, context);
+        follower.updatePosition(line[0], 0.9f, new Speed(SPEED, zoom));
+        model.addTram(follower);
+        Tram blocker = new Tram(2, 15, 20, 1, 5, context);
+        blocker.updatePosition(line[4], 0.8f, new Speed(0d, zoom));
+        model.addTram(blocker);
+
+        model.enableSignalling(TRANCHE_LENGTH);
+        return new Tram[]{follower, blocker};
+    }
+
+    private static float positionOf(Tram tram) {
+        return (tram.getHeadTranche().getId() - 1) * TRANCHE_LENGTH + tram.getHeadProgress() * TRANCHE_LENGTH;
+    }
+}
@@ -0,0 +1,154 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+import dz.kalbo.emulator.tram.DiscreteEventEngine;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * micro benchmarks of the simulation hot paths, every case is warmed up then timed and printed as ns/op.
+ * pass case names as arguments to run only some of them, sizes can be limited with -Dsizes=1000,10000.
+ * the same cases run under JMH from the jmh source set of the build.
+ */
+public class SimulationBenchmark {
+
+    private static final long WARM_UP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+    private static final int TICK = 15;
+
+    // results are accumulated here so the JIT can not drop the measured code
+    private static volatile long sink;
+
+    private static final String[] CASES = {"arc", "traverser", "tram", "model", "events"};
+
+    private interface Operation {
+        long run(int iteration);
+    }
+
+    public static void main(String[] args) {
+        Set<String> cases = new HashSet<>(Arrays.asList(args.length > 0 ? args : CASES));
+        for (String name : cases)
+            if (!Arrays.asList(CASES).contains(name))
+                throw new IllegalArgumentException("unknown case " + name + ", cases are " + Arrays.toString(CASES));
+        int[] sizes = parseSizes(System.getProperty("sizes", "1000,10000,100000"));
+
+        if (cases.contains("arc"))
+            benchmarkArc();
+        if (cases.contains("traverser"))
+            benchmarkTraverser();
+        if (cases.contains("tram"))
+            benchmarkTram();
+        if (cases.contains("model"))
+            for (int size : sizes)
+                benchmarkModel(size);
+        if (cases.contains("events"))
+            for (int size : sizes) {
+                benchmarkSparseTicks(size);
+                benchmarkSparseEvents(size);
+            }
+    }
+
+    private static int[] parseSizes(String value) {
+        String[] parts = value.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        return sizes;
+    }
+
+    private static void benchmarkArc() {
+        Context context = new Context(700, 500, 1f, 0);
+        ArcTranche arc = new ArcTranche(1, new ScalablePoint(420, 220, 1f), new ScalablePoint(560, 160, 1f), context);
+        run("ArcTranche.getX/getY", 1, i -> {
+            float progress = (i & 1023) / 1024f;
+            return arc.getX(progress) + arc.getY(progress);
+        });
+    }
+
+    private static void benchmarkTraverser() {
+        RailwayModel model = NetworkGenerator.generate(NetworkGenerator.TRANCHES_PER_LOOP, 0);
+        AbstractTranche head = model.getRoads().get(0).getHeadTranches().peekFirst();
+        AbstractTranche.Traverser traverser = new AbstractTranche.Traverser(head, 0f);
+        run("Traverser.move", 1, i -> {
+            traverser.move(7.5f, (i & 1) == 0 ? 1 : -0.5);
+            return traverser.getX();
+        });
+    }
+
+    private static void benchmarkTram() {
+        // a tram of a model is updated by its store, a tram on its own is updated by itself
+        RailwayModel model = NetworkGenerator.generate(NetworkGenerator.TRANCHES_PER_LOOP, 0);
+        Context context = model.getContext();
+        Tram tram = new Tram(1, 15, 20, 4, 5, context);
+        tram.updatePosition(model.getRoads().get(0).getHeadTranches().peekFirst(), 0.5f, new Speed(0.05));
+        run("Tram.update", 1, i -> {
+            tram.update(new Context(context.getWidth(), context.getHeight(), context.getZoom(), (long) i * TICK));
+            return tram.getHeadTranche().getId();
+        });
+    }
+
+    private static void benchmarkModel(int size) {
+        RailwayModel model = NetworkGenerator.generate(size, size);
+        run("RailwayModel.update, " + size + " tranches and trams", size, i -> {
+            model.update(TICK);
+            return model.getTramStore().getMovedTrams();
+        });
+    }
+
+    /**
+     * a network where only one tram out of a hundred moves, the rest waits at stops
+     */
+    private static RailwayModel newSparseModel(int size) {
+        RailwayModel model = NetworkGenerator.generate(size, size);
+        for (int i = 0; i < size; i++) {
+            Tram tram = model.getTrams().get(i);
+            if (i % 100 != 0)
+                tram.updatePosition(tram.getHeadTranche(), tram.getHeadProgress(), new Speed());
+        }
+        return model;
+    }
+
+    private static void benchmarkSparseTicks(int size) {
+        RailwayModel model = newSparseModel(size);
+        int ticks = 1000 / TICK;
+        run("1s of sparse traffic with ticks, " + size + " trams", size, i -> {
+            for (int tick = 0; tick < ticks; tick++)
+                model.update(TICK);
+            return model.getTramStore().getMovedTrams();
+        });
+    }
+
+    private static void benchmarkSparseEvents(int size) {
+        RailwayModel model = newSparseModel(size);
+        DiscreteEventEngine engine = new DiscreteEventEngine(model);
+        run("1s of sparse traffic with events, " + size + " trams", size, i -> engine.runFor(1000 / TICK * TICK));
+    }
+
+    /**
+     * @param elements number of elements handled by one operation, used to print the cost per element
+     */
+    private static void run(String name, int elements, Operation operation) {
+        int iteration = 0;
+        long end = System.nanoTime() + WARM_UP_NANOS;
+        while (System.nanoTime() < end)
+            sink += operation.run(iteration++);
+
+        long operations = 0;
+        long start = System.nanoTime();
+        end = start + MEASURE_NANOS;
+        long now;
+        do {
+            for (int i = 0; i < 64; i++)
+                sink += operation.run(iteration++);
+            operations += 64;
+            now = System.nanoTime();
+        } while (now < end);
+
+        double nanosPerOperation = (now - start) / (double) operations;
+        System.out.println(String.format(Locale.ROOT, "%-55s %12.1f ns/op %10.2f ns/element",
+                name, nanosPerOperation, nanosPerOperation / elements));
+    }
+}
@@ -0,0 +1,131 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * checks that advancing a warmed up tram does not allocate, and that a timetable of many departures reuses few
+ * vehicles with little garbage per tick, run it with a HotSpot JVM
+ */
+public class TramAllocationTest {
+
+    private static final int WARM_UP_TICKS = 20_000;
+    private static final int MEASURED_TICKS = 10_000;
+    private static final int MEASURE_ATTEMPTS = 3;
+    private static final int TICK = 15;
+
+    // two hours of departures on routes of the loops of a generated network
+    private static final int DEPARTURES = 30_000;
+    private static final long SERVICE_TIME = 2 * 3_600_000L;
+    private static final int LINES = 200;
+    private static final int DISPATCH_TICK = 50;
+    private static final long MAX_DISPATCH_BYTES_PER_TICK = 1024;
+
+    public static void main(String[] args) {
+        checkTram();
+        checkDispatch();
+    }
+
+    private static void checkTram() {
+        Context context = new Context(700, 500, 1f, 0);
+        TramStore store = new TramStore(context);
+        store.setWorkers(1);
+
+        StraightTranche bottom = new StraightTranche(1, new ScalablePoint(100, 300, 1f), new ScalablePoint(500, 300, 1f), context);
+        ArcTranche right = new ArcTranche(2, new ScalablePoint(500, 300, 1f), new ScalablePoint(600, 200, 1f), context);
+        StraightTranche top = new StraightTranche(3, new ScalablePoint(600, 200, 1f), new ScalablePoint(100, 100, 1f), context);
+        ArcTranche left = new ArcTranche(4, new ScalablePoint(100, 100, 1f), new ScalablePoint(100, 300, 1f), context);
+        bottom.addNext(right);
+        right.addNext(top);
+        top.addNext(left);
+        left.addNext(bottom);
+
+        Tram tram = new Tram(store, 1, 15, 20, 4, 5);
+        tram.updatePosition(bottom, 0.5f, new Speed(50 / 1_000d, 1f));
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        allocated(store, threads, threadId, 0, WARM_UP_TICKS);
+
+        // a late compilation on a busy machine can allocate once, an allocating tick allocates in every window
+        long allocated = 0;
+        for (int attempt = 0; attempt < MEASURE_ATTEMPTS; attempt++) {
+            long time = (long) (WARM_UP_TICKS + attempt * MEASURED_TICKS) * TICK;
+            allocated = allocated(store, threads, threadId, time, MEASURED_TICKS);
+            System.out.println("allocated " + allocated + " bytes in " + MEASURED_TICKS + " ticks, " + tram);
+            if (allocated == 0)
+                break;
+        }
+        if (allocated > 0)
+            throw new AssertionError("a warmed up tram tick allocates " + (allocated / (double) MEASURED_TICKS) + " bytes");
+    }
+
+    /**
+     * @return bytes allocated by the given number of ticks from the given time
+     */
+    private static long allocated(TramStore store, com.sun.management.ThreadMXBean threads, long threadId, long time,
+                                  int ticks) {
+        // contexts are created ahead so the measured loop only contains the tram update
+        Context[] contexts = new Context[ticks];
+        for (int i = 0; i < ticks; i++)
+            contexts[i] = new Context(700, 500, 1f, time + (long) (i + 1) * TICK);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (Context context : contexts)
+            store.update(context);
+        return threads.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private static void checkDispatch() {
+        RailwayModel model = NetworkGenerator.generate(400, 0);
+        try {
+            TrackGraph graph = model.getTrackGraph();
+            Router router = model.getRouter();
+            Random random = new Random(7);
+
+            // a line goes from a tranche of a loop to another tranche of the same loop, either way
+            Route[] lines = new Route[LINES];
+            for (int i = 0; i < lines.length; i++) {
+                int loop = random.nextInt(graph.size() / NetworkGenerator.TRANCHES_PER_LOOP);
+                int from = random.nextInt(NetworkGenerator.TRANCHES_PER_LOOP);
+                int to = (from + 1 + random.nextInt(NetworkGenerator.TRANCHES_PER_LOOP - 1)) % NetworkGenerator.TRANCHES_PER_LOOP;
+                AbstractTranche origin = graph.getTranche(graph.indexOfId(loop * NetworkGenerator.TRANCHES_PER_LOOP + from));
+                AbstractTranche destination = graph.getTranche(graph.indexOfId(loop * NetworkGenerator.TRANCHES_PER_LOOP + to));
+                lines[i] = router.findRoute(origin, destination, random.nextBoolean());
+            }
+            Timetable timetable = new Timetable();
+            for (int i = 0; i < DEPARTURES; i++)
+                timetable.add((long) (random.nextDouble() * SERVICE_TIME), lines[random.nextInt(lines.length)], 0.2,
+                        15, 20, 2, 5);
+            model.setTimetable(timetable);
+            Dispatcher dispatcher = model.getDispatcher();
+
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long threadId = Thread.currentThread().getId();
+            long before = threads.getThreadAllocatedBytes(threadId);
+            int ticks = 0;
+            int maxOut = 0;
+            while (dispatcher.getRetiredCount() < DEPARTURES && ticks < SERVICE_TIME / DISPATCH_TICK * 2) {
+                model.update(DISPATCH_TICK, false);
+                maxOut = Math.max(maxOut, dispatcher.getRunningCount() + dispatcher.getArrivedCount());
+                ticks++;
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+            System.out.println("dispatched " + dispatcher.getDispatchedCount() + " departures with "
+                    + dispatcher.getVehiclesCount() + " vehicles, at most " + maxOut + " out of the depot, "
+                    + allocated / ticks + " bytes per tick");
+            if (dispatcher.getRetiredCount() != DEPARTURES || !model.getTrams().isEmpty())
+                throw new AssertionError("the trams of the timetable are not all back in the depot, " + dispatcher);
+            if (dispatcher.getVehiclesCount() > maxOut)
+                throw new AssertionError(dispatcher.getVehiclesCount() + " vehicles were created for at most "
+                        + maxOut + " trams out of the depot");
+            if (allocated / ticks > MAX_DISPATCH_BYTES_PER_TICK)
+                throw new AssertionError("dispatching allocates " + allocated / ticks + " bytes per tick");
+        } finally {
+            model.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package dz.kalbo.emulator.test;
+
+import dz.kalbo.emulator.model.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * checks the tranches under a tram placed at the ends of a tranche both ways, and under a tram crossing a tranche
+ * shorter than one tick of travel
+ */
+public class TranchesUnderTramTest {
+
+    private static final int TICK = 15;
+
+    public static void main(String[] args) {
+        Context context = new Context(700, 500, 1f, 0);
+
+        // the tram is 95 long, shorter than the middle tranche
+        StraightTranche before = new StraightTranche(1, new ScalablePoint(0, 300, 1f), new ScalablePoint(100, 300, 1f), context);
+        StraightTranche middle = new StraightTranche(2, new ScalablePoint(100, 300, 1f), new ScalablePoint(400, 300, 1f), context);
+        StraightTranche after = new StraightTranche(3, new ScalablePoint(400, 300, 1f), new ScalablePoint(600, 300, 1f), context);
+        before.addNext(middle);
+        middle.addNext(after);
+
+        // head tranche first, the body trails toward the start going to the end and toward the end going to the start
+        checkPlaced(context, middle, 0f, false, middle, before);
+        checkPlaced(context, middle, 1f, false, middle);
+        checkPlaced(context, middle, 0f, true, middle);
+        checkPlaced(context, middle, 1f, true, middle, after);
+
+        StraightTranche left = new StraightTranche(4, new ScalablePoint(0, 100, 1f), new ScalablePoint(300, 100, 1f), context);
+        StraightTranche shortOne = new StraightTranche(5, new ScalablePoint(300, 100, 1f), new ScalablePoint(305, 100, 1f), context);
+        StraightTranche right = new StraightTranche(6, new ScalablePoint(305, 100, 1f), new ScalablePoint(600, 100, 1f), context);
+        left.addNext(shortOne);
+        shortOne.addNext(right);
+
+        // 12 per tick, the head goes over the 5 long tranche between two ticks
+        checkCrossed(context, left, 0.99f, false, right, shortOne, left);
+        checkCrossed(context, right, 0.01f, true, left, shortOne, right);
+        System.out.println("tranches under trams are right when placed at tranche ends and when crossing short tranches");
+    }
+
+    private static void checkPlaced(Context context, AbstractTranche tranche, float progress, boolean toStart,
+                                    AbstractTranche... expected) {
+        TramStore store = new TramStore(context);
+        try {
+            Tram tram = new Tram(store, 1, 15, 20, 4, 5);
+            tram.setDirectionToStart(toStart);
+            tram.updatePosition(tranche, progress, new Speed(0d));
+            check(tram, expected, "placed at " + progress + (toStart ? " heading to the start" : " heading to the end"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void checkCrossed(Context context, AbstractTranche tranche, float progress, boolean toStart,
+                                     AbstractTranche... expected) {
+        TramStore store = new TramStore(context);
+        store.setWorkers(1);
+        try {
+            Tram tram = new Tram(store, 1, 15, 20, 4, 5);
+            tram.setDirectionToStart(toStart);
+            tram.updatePosition(tranche, progress, new Speed(0.8d));
+            // the first update only starts the tram clock
+            store.update(new Context(700, 500, 1f, TICK));
+            store.update(new Context(700, 500, 1f, 2 * TICK));
+            check(tram, expected, "crossing a short tranche" + (toStart ? " heading to the start" : " heading to the end"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void check(Tram tram, AbstractTranche[] expected, String what) {
+        List<AbstractTranche> actual = tram.getTranchesUnderTram();
+        if (!actual.equals(Arrays.asList(expected)))
+            throw new AssertionError("tram " + what + " is over " + actual + " instead of " + Arrays.toString(expected));
+    }
+}
@@ -0,0 +1,184 @@
+package dz.kalbo.emulator.tools;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * A uniform grid that answers which items intersect a rectangle, an item is registered in every cell its
+ * bounds touch so the caller must remember the cells range to remove it.
+ * <p>
+ * Cells are found in an open addressing table keyed by primitive longs, so neither inserts nor queries box keys.
+ * Every registration remembers the first cell of its item, a query returns an item only from the first cell it
+ * shares with the area so results need no set to drop duplicates.
+ *
+ * @param <E>
+ */
+public final class GridIndex<E> {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final int cellSize;
+
+    // cells table, a null cell is an empty entry, cells are never removed
+    private long[] keys = new long[DEFAULT_CAPACITY];
+    private Cell[] cells = new Cell[DEFAULT_CAPACITY];
+    private int cellsCount;
+    private int count;
+
+    public GridIndex(int cellSize) {
+        if (cellSize <= 0)
+            throw new IllegalArgumentException("cell size must be positive");
+        this.cellSize = cellSize;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * @return number of items registrations, an item spanning many cells is counted many times
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public int cellOf(int coordinate) {
+        return Math.floorDiv(coordinate, cellSize);
+    }
+
+    private static long key(int cellX, int cellY) {
+        // multiplying by an odd constant keeps keys unique and spreads them, (x, y) and (y, x) would collide
+        // in Long.hashCode otherwise
+        return (((long) cellX << 32) | (cellY & 0xffffffffL)) * 0x9E3779B97F4A7C15L;
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int index = (int) (key ^ key >>> 32) & mask;
+        while (cells[index] != null && keys[index] != key)
+            index = (index + 1) & mask;
+        return index;
+    }
+
+    private Cell getCell(int cellX, int cellY) {
+        long key = key(cellX, cellY);
+        return cells[indexOf(key)];
+    }
+
+    private Cell getOrAddCell(int cellX, int cellY) {
+        long key = key(cellX, cellY);
+        int index = indexOf(key);
+        Cell cell = cells[index];
+        if (cell == null) {
+            if ((cellsCount + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+                index = indexOf(key);
+            }
+            cell = new Cell();
+            keys[index] = key;
+            cells[index] = cell;
+            cellsCount++;
+        }
+        return cell;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Cell[] oldCells = cells;
+        keys = new long[capacity];
+        cells = new Cell[capacity];
+        for (int i = 0; i < oldCells.length; i++)
+            if (oldCells[i] != null) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                cells[index] = oldCells[i];
+            }
+    }
+
+    public void insert(E item, Rectangle bounds) {
+        insert(item, cellOf(bounds.x), cellOf(bounds.y), cellOf(bounds.x + bounds.width), cellOf(bounds.y + bounds.height));
+    }
+
+    public void insert(E item, int minCellX, int minCellY, int maxCellX, int maxCellY) {
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++)
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                getOrAddCell(cellX, cellY).add(item, minCellX, minCellY);
+                count++;
+            }
+    }
+
+    public void remove(E item, int minCellX, int minCellY, int maxCellX, int maxCellY) {
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++)
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                Cell cell = getCell(cellX, cellY);
+                if (cell != null && cell.remove(item))
+                    count--;
+            }
+    }
+
+    /**
+     * add to the result every item registered in a cell touched by the area, each item once
+     */
+    @SuppressWarnings("unchecked")
+    public <C extends Collection<? super E>> C query(Rectangle area, C result) {
+        int minCellX = cellOf(area.x);
+        int minCellY = cellOf(area.y);
+        int maxCellX = cellOf(area.x + area.width);
+        int maxCellY = cellOf(area.y + area.height);
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++)
+            for (int cellY = minCellY; cellY <= maxCellY; cellY++) {
+                Cell cell = getCell(cellX, cellY);
+                if (cell == null)
+                    continue;
+                for (int i = 0; i < cell.size; i++) {
+                    // the first cell the item shares with the area is its first cell or a border of the area
+                    int firstX = Math.max(cell.origins[i * 2], minCellX);
+                    int firstY = Math.max(cell.origins[i * 2 + 1], minCellY);
+                    if (firstX == cellX && firstY == cellY)
+                        result.add((E) cell.items[i]);
+                }
+            }
+        return result;
+    }
+
+    public void clear() {
+        Arrays.fill(cells, null);
+        cellsCount = 0;
+        count = 0;
+    }
+
+    /**
+     * items of a cell with the first cell of each one
+     */
+    private static final class Cell {
+        private Object[] items = new Object[4];
+        private int[] origins = new int[8];
+        private int size;
+
+        void add(Object item, int originX, int originY) {
+            if (size == items.length) {
+                items = Arrays.copyOf(items, size * 2);
+                origins = Arrays.copyOf(origins, size * 4);
+            }
+            items[size] = item;
+            origins[size * 2] = originX;
+            origins[size * 2 + 1] = originY;
+            size++;
+        }
+
+        boolean remove(Object item) {
+            for (int i = size - 1; i >= 0; i--)
+                if (items[i] == item) {
+                    // order inside a cell does not matter, swap with the last one to avoid shifting
+                    int last = --size;
+                    items[i] = items[last];
+                    origins[i * 2] = origins[last * 2];
+                    origins[i * 2 + 1] = origins[last * 2 + 1];
+                    items[last] = null;
+                    return true;
+                }
+            return false;
+        }
+    }
+}
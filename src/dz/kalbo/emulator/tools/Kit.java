@@ -21,8 +21,50 @@ public class Kit {
     public static final boolean SHOW_ARC_RECT = false;
     public static final boolean SHOW_ARC_CIRCLE = false;
     public static final boolean SHOW_UPDATE_TIME = false;
+    public static final boolean SHOW_TICK_OVERRUNS = false;
     public static final boolean SHOW_TRAM_HEAD = true;
 
+    // trams are updated in parallel only when there is enough of them to pay for the hand off
+    public static final int DEFAULT_UPDATE_WORKERS = Runtime.getRuntime().availableProcessors();
+    public static final int PARALLEL_UPDATE_THRESHOLD = 1024;
+    public static final int PARALLEL_UPDATE_CHUNKS_PER_WORKER = 4;
+
+    // a late engine runs at most this many steps at once, and draws at most every few ticks when degrading
+    public static final int MAX_CATCH_UP_STEPS = 4;
+    public static final int MAX_RENDER_INTERVAL = 8;
+
+    // trams closer than this to the one ahead are reported, the track is searched that far ahead of every head
+    public static final float MIN_HEADWAY = 30f;
+    public static final float HEADWAY_LOOKAHEAD = 500f;
+
+    // signalled trams slow down to this part of their speed and stop that far before an occupied block
+    public static final float APPROACH_SPEED_FACTOR = 0.3f;
+    public static final float SIGNAL_STOP_DISTANCE = 5f;
+    public static final float DEFAULT_BLOCK_LENGTH = 300f;
+
+    // routes are searched with that many landmarks and the last answers are cached
+    public static final int ROUTING_LANDMARKS = 8;
+    public static final int ROUTE_CACHE_SIZE = 10_000;
+
+    // a checkpoint file gets a full frame every that many frames, restoring replays the frames from the last one
+    public static final int CHECKPOINT_FULL_FRAME_INTERVAL = 64;
+
+    // trams created by a timetable dispatcher are numbered from here, away from trams created by hand
+    public static final int FIRST_VEHICLE_ID = 1_000_000;
+    // dispatched trams wait at the end of their route at most that many ms and go back to the depot together
+    public static final long RETIRE_BATCH_DELAY = 5_000;
+
+    // metrics are dumped to this CSV file when the metrics.file system property is set
+    public static final String METRICS_DUMP_FILE = System.getProperty("metrics.file");
+    public static final long METRICS_DUMP_PERIOD = 10_000;
+
+    // number of equal length steps used to sample arcs
+    public static final int ARC_SAMPLES = 64;
+
+    // spatial indexes cell size in world units and extra space around trams tracks for their width
+    public static final int SPATIAL_CELL_SIZE = 128;
+    public static final int TRAM_INDEX_MARGIN = 8;
+
     // math constants
     public static final float PI_DIV_2 = (float) (Math.PI / 2);
     public static final double PI_x_2 = Math.PI * 2;
@@ -0,0 +1,148 @@
+package dz.kalbo.emulator.tools;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of int ids ordered by a time, an id is queued at most once so rescheduling it moves it in
+ * place. Ids are small dense ints like slots, positions are kept in an array indexed by id.
+ */
+public final class TimeQueue {
+
+    private static final int NOT_QUEUED = -1;
+
+    private int[] heap = new int[16];
+    private long[] times = new long[16];
+    private int[] positions = new int[0];
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int id) {
+        return id < positions.length && positions[id] != NOT_QUEUED;
+    }
+
+    /**
+     * @return the time of the earliest id, {@link Long#MAX_VALUE} when empty
+     */
+    public long peekTime() {
+        return size > 0 ? times[0] : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return one of the queued ids, indices from 0 to the size minus one give each of them once in no order
+     */
+    public int get(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("index " + index + " of " + size);
+        return heap[index];
+    }
+
+    public int peek() {
+        if (size == 0)
+            throw new IllegalStateException("queue is empty");
+        return heap[0];
+    }
+
+    /**
+     * @return the earliest id, removed from the queue
+     */
+    public int poll() {
+        int id = peek();
+        removeAt(0);
+        return id;
+    }
+
+    /**
+     * queue the id at the given time, or move it there if it is already queued
+     */
+    public void schedule(int id, long time) {
+        if (id >= positions.length) {
+            int length = positions.length;
+            positions = Arrays.copyOf(positions, Math.max(id + 1, length * 2));
+            Arrays.fill(positions, length, positions.length, NOT_QUEUED);
+        }
+
+        int position = positions[id];
+        if (position == NOT_QUEUED) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            position = size++;
+            heap[position] = id;
+            positions[id] = position;
+        } else if (time > times[position]) {
+            times[position] = time;
+            siftDown(position);
+            return;
+        }
+        times[position] = time;
+        siftUp(position);
+    }
+
+    public void remove(int id) {
+        if (contains(id))
+            removeAt(positions[id]);
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++)
+            positions[heap[i]] = NOT_QUEUED;
+        size = 0;
+    }
+
+    private void removeAt(int position) {
+        positions[heap[position]] = NOT_QUEUED;
+        int last = --size;
+        if (position != last) {
+            move(last, position);
+            siftDown(position);
+            siftUp(position);
+        }
+    }
+
+    private void siftUp(int position) {
+        int id = heap[position];
+        long time = times[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (times[parent] <= time)
+                break;
+            move(parent, position);
+            position = parent;
+        }
+        heap[position] = id;
+        times[position] = time;
+        positions[id] = position;
+    }
+
+    private void siftDown(int position) {
+        int id = heap[position];
+        long time = times[position];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            if (child + 1 < size && times[child + 1] < times[child])
+                child++;
+            if (time <= times[child])
+                break;
+            move(child, position);
+            position = child;
+        }
+        heap[position] = id;
+        times[position] = time;
+        positions[id] = position;
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        times[to] = times[from];
+        positions[heap[to]] = to;
+    }
+}
@@ -0,0 +1,44 @@
+package dz.kalbo.emulator.tram;
+
+/**
+ * Gives the simulated time to an engine, in model time units (milliseconds). The engine asks for the time once
+ * per tick and feeds the elapsed time to its updaters, so the clock decides how simulated time relates to the
+ * wall clock.
+ */
+public interface Clock {
+
+    /**
+     * @return the current time, only differences between two calls are meaningful
+     */
+    long getTime();
+
+    /**
+     * called by the engine at each tick
+     *
+     * @param tick the nominal tick of the engine
+     * @return the time after the tick
+     */
+    long tick(long tick);
+
+    /**
+     * time passes only when the engine ticks, each tick adds exactly the nominal tick whatever the real time
+     * spent. Runs are reproducible and a headless engine goes as fast as the CPU allows.
+     */
+    static Clock virtual() {
+        return new VirtualClock();
+    }
+
+    /**
+     * follows the wall clock, a late tick advances the simulation by the real elapsed time
+     */
+    static Clock realTime() {
+        return new ScaledClock(1d);
+    }
+
+    /**
+     * follows the wall clock sped up, or slowed down, by the given factor
+     */
+    static Clock scaled(double factor) {
+        return new ScaledClock(factor);
+    }
+}
@@ -0,0 +1,94 @@
+package dz.kalbo.emulator.tram;
+
+import dz.kalbo.emulator.metrics.Metrics;
+import dz.kalbo.emulator.model.RailwayModel;
+import dz.kalbo.emulator.model.TramStore;
+
+/**
+ * An engine that jumps from one tram event to the next instead of waking every tick. Trams are only moved when
+ * they reach the end of a tranche or their tail leaves one, stopped trams cost nothing. The whole model is
+ * brought to the same time, with its picture published, at the end of each run.
+ */
+public class DiscreteEventEngine {
+
+    private final RailwayModel model;
+    private final long startTime;
+
+    private volatile long simulatedTime;
+    private volatile long processedEvents;
+    private volatile double eventsPerSecond;
+
+    public DiscreteEventEngine(RailwayModel model) {
+        this.model = model;
+        this.startTime = model.getContext().getTime();
+        Metrics.getInstance().startReporting();
+        model.enableEvents();
+    }
+
+    /**
+     * @return simulated time of the next event since the engine creation or {@link TramStore#NO_EVENT}
+     */
+    public long getNextEventTime() {
+        long time = model.getNextEventTime();
+        return time == TramStore.NO_EVENT ? TramStore.NO_EVENT : time - startTime;
+    }
+
+    /**
+     * jump to the next event and process every event due at that time, only the trams of these events are moved
+     *
+     * @return false if there is no event left
+     */
+    public boolean step() {
+        long time = model.getNextEventTime();
+        if (time == TramStore.NO_EVENT)
+            return false;
+        processedEvents += model.processEvents(time);
+        simulatedTime = Math.max(simulatedTime, time - startTime);
+        return true;
+    }
+
+    /**
+     * process the events until the given time then bring the trams to it, the model update only visits the trams
+     * that have an event or were changed by hand so stopped trams still cost nothing
+     *
+     * @param time simulated time since the engine creation
+     * @return number of events processed
+     */
+    public long runUntil(long time) {
+        long startNanos = System.nanoTime();
+        long events = model.processEvents(startTime + time);
+        processedEvents += events;
+
+        long modelTime = model.getContext().getTime();
+        model.update(Math.max(startTime + time - modelTime, 0));
+        simulatedTime = Math.max(simulatedTime, time);
+
+        long elapsed = System.nanoTime() - startNanos;
+        if (events > 0 && elapsed > 0)
+            eventsPerSecond = events * 1_000_000_000d / elapsed;
+        return events;
+    }
+
+    /**
+     * @param duration simulated time to add
+     * @return number of events processed
+     */
+    public long runFor(long duration) {
+        return runUntil(simulatedTime + duration);
+    }
+
+    public long getSimulatedTime() {
+        return simulatedTime;
+    }
+
+    public long getProcessedEvents() {
+        return processedEvents;
+    }
+
+    /**
+     * @return events processed per wall clock second during the last run
+     */
+    public double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+}
@@ -1,8 +1,13 @@
 package dz.kalbo.emulator.tram;
 
+import dz.kalbo.emulator.metrics.Counter;
+import dz.kalbo.emulator.metrics.Histogram;
+import dz.kalbo.emulator.metrics.Metrics;
 import dz.kalbo.emulator.model.Updater;
+import dz.kalbo.emulator.tools.Kit;
 
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -12,32 +17,340 @@ public class EmulatorEngine {
 
     public static final int DEFAULT_TICK = 15;
 
-    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private static final Histogram RUN_TIME = Metrics.getInstance().histogram("engine.run");
+    private static final Counter TICKS = Metrics.getInstance().counter("engine.ticks");
+    private static final Counter OVERRUNS = Metrics.getInstance().counter("engine.overruns");
+    private static final Counter DROPPED_TICKS = Metrics.getInstance().counter("engine.ticks.dropped");
+    private static final Counter SKIPPED_RENDERS = Metrics.getInstance().counter("engine.renders.skipped");
+
+    private final ScheduledExecutorService executor;
     private final List<Updater> updaters = new CopyOnWriteArrayList<>();
+    private final Clock clock;
     public final int tick;
 
+    // clock time of the last tick, updaters are given the time elapsed since
+    private long clockTime;
+
+    // wall clock schedule, a run owes the ticks between the ones already handled and the current time
+    private final long periodNanos;
+    private long startNanos;
+    private long handledTicks;
+    private volatile OverrunPolicy overrunPolicy = OverrunPolicy.CATCH_UP;
+    private volatile int maxCatchUpSteps = Kit.MAX_CATCH_UP_STEPS;
+    private int renderInterval = 1;
+    private int runsSinceRender;
+
+    // overrun counters
+    private volatile long overruns;
+    private volatile long lateRuns;
+    private volatile long droppedTicks;
+    private volatile long droppedTime;
+    private volatile long catchUpSteps;
+    private volatile long coalescedRuns;
+    private volatile long skippedRenders;
+    private volatile long lag;
+    private volatile long lastRunNanos;
+    private volatile long maxRunNanos;
+
     private volatile boolean running = true;
 
     private volatile Long lastUpdate = null;
 
+    // simulated time and ticks done since the engine was created
+    private volatile long simulatedTime;
+    private volatile long simulatedTicks;
+    private volatile double ticksPerSecond;
+
     public EmulatorEngine() {
         this(DEFAULT_TICK);
     }
 
     public EmulatorEngine(int tick) {
+        this(tick, Clock.virtual());
+    }
+
+    /**
+     * @param tick  wall clock period of the updates
+     * @param clock gives the simulated time elapsed at each update, a virtual clock gives exactly the tick
+     */
+    public EmulatorEngine(int tick, Clock clock) {
+        this(tick, clock, false);
+    }
+
+    private EmulatorEngine(int tick, Clock clock, boolean headless) {
+        if (tick <= 0)
+            throw new IllegalArgumentException("tick must be positive");
         this.tick = tick;
-        executor.scheduleAtFixedRate(this::update, 0, tick, TimeUnit.MILLISECONDS);
+        this.clock = Objects.requireNonNull(clock);
+        this.clockTime = clock.getTime();
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+        this.startNanos = System.nanoTime();
+        Metrics.getInstance().startReporting();
+        if (headless) {
+            this.executor = null;
+        } else {
+            this.executor = Executors.newSingleThreadScheduledExecutor();
+            this.executor.scheduleAtFixedRate(this::update, 0, tick, TimeUnit.MILLISECONDS);
+        }
     }
 
+    /**
+     * creates an engine that is not bound to the wall clock, the caller drives it with {@link #step()}
+     * and {@link #runUntil(long)} as fast as the CPU allows
+     *
+     * @param tick simulated time added by each step
+     * @return a headless engine on a virtual clock
+     */
+    public static EmulatorEngine headless(int tick) {
+        return new EmulatorEngine(tick, Clock.virtual(), true);
+    }
+
+    public boolean isHeadless() {
+        return executor == null;
+    }
+
+    /**
+     * a run of the wall clock scheduler, it finds how many ticks are owed and applies the overrun policy when
+     * there is more than one
+     */
     private void update() {
-        if (running) {
-            for (Updater updater : updaters)
-                try {
-                    updater.update(tick);
-                } catch (RuntimeException e) {
-                    e.printStackTrace();
-                }
+        long runStart = System.nanoTime();
+        long dueTicks = (runStart - startNanos) / periodNanos + 1;
+        long missed = dueTicks - handledTicks;
+        if (!running) {
+            // time spent paused is not simulated
+            clockTime = clock.getTime();
+            handledTicks = Math.max(handledTicks, dueTicks);
+            return;
+        }
+        if (missed <= 0) {
+            // the scheduler fires late runs back to back, the ones already handled by a catch up are dropped
+            coalescedRuns++;
+            return;
+        }
+        handledTicks = dueTicks;
+        lag = (missed - 1) * tick;
+
+        long owed = 0;
+        for (long i = 0; i < missed; i++)
+            owed = clock.tick(tick) - clockTime;
+        clockTime += owed;
+
+        int steps = 1;
+        OverrunPolicy policy = overrunPolicy;
+        if (missed > 1) {
+            lateRuns++;
+            if (policy != OverrunPolicy.SKIP)
+                steps = (int) Math.min(missed, Math.max(maxCatchUpSteps, 1));
+            catchUpSteps += steps - 1;
+            droppedTicks += missed - steps;
+            DROPPED_TICKS.add(missed - steps);
+        }
+
+        boolean render = true;
+        if (policy == OverrunPolicy.DEGRADE_RENDER)
+            render = ++runsSinceRender >= renderInterval;
+        if (render)
+            runsSinceRender = 0;
+
+        // missed ticks are simulated as equal steps, a real time clock owes the time actually elapsed
+        long simulated = owed * steps / missed;
+        droppedTime += owed - simulated;
+        long done = 0;
+        for (int step = 1; step <= steps; step++) {
+            long next = simulated * step / steps;
+            boolean renderStep = policy != OverrunPolicy.DEGRADE_RENDER || (render && step == steps);
+            if (!renderStep) {
+                skippedRenders++;
+                SKIPPED_RENDERS.increment();
+            }
+            doUpdate(next - done, renderStep);
+            done = next;
         }
+
+        long runNanos = System.nanoTime() - runStart;
+        lastRunNanos = runNanos;
+        maxRunNanos = Math.max(maxRunNanos, runNanos);
+        RUN_TIME.record(runNanos);
+        boolean overrun = runNanos > periodNanos;
+        if (overrun) {
+            overruns++;
+            OVERRUNS.increment();
+            if (Kit.SHOW_TICK_OVERRUNS)
+                System.out.println("tick overrun: " + Kit.printAsMillis(runNanos) + " for a " + tick + "ms tick, "
+                        + lag + "ms late, " + (missed - steps) + " ticks dropped");
+        }
+        if (policy == OverrunPolicy.DEGRADE_RENDER)
+            renderInterval = overrun
+                    ? Math.min(renderInterval * 2, Kit.MAX_RENDER_INTERVAL)
+                    : Math.max(renderInterval / 2, 1);
+    }
+
+    private void doUpdate() {
+        long now = clock.tick(tick);
+        long elapsed = now - clockTime;
+        clockTime = now;
+        doUpdate(elapsed, true);
+    }
+
+    private void doUpdate(long elapsed, boolean render) {
+        if (elapsed <= 0)
+            return;
+
+        for (Updater updater : updaters)
+            try {
+                updater.update(elapsed, render);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        simulatedTime += elapsed;
+        simulatedTicks++;
+        TICKS.increment();
+    }
+
+    /**
+     * advance all updaters by one tick, only available in headless mode
+     */
+    public void step() {
+        checkHeadless();
+        doUpdate();
+    }
+
+    /**
+     * step until the simulated time reach the given time
+     *
+     * @param time simulated time since the engine creation
+     * @return number of ticks done
+     */
+    public long runUntil(long time) {
+        checkHeadless();
+        long startTime = System.nanoTime();
+        long ticks = 0;
+        while (simulatedTime + tick <= time && running) {
+            doUpdate();
+            ticks++;
+        }
+
+        long elapsed = System.nanoTime() - startTime;
+        if (ticks > 0 && elapsed > 0)
+            ticksPerSecond = ticks * 1_000_000_000d / elapsed;
+        return ticks;
+    }
+
+    /**
+     * step for the given amount of simulated time
+     *
+     * @param duration simulated time to add
+     * @return number of ticks done
+     */
+    public long runFor(long duration) {
+        return runUntil(simulatedTime + duration);
+    }
+
+    private void checkHeadless() {
+        if (!isHeadless())
+            throw new IllegalStateException("engine is driven by the wall clock");
+    }
+
+    public Clock getClock() {
+        return clock;
+    }
+
+    public OverrunPolicy getOverrunPolicy() {
+        return overrunPolicy;
+    }
+
+    public void setOverrunPolicy(OverrunPolicy overrunPolicy) {
+        this.overrunPolicy = Objects.requireNonNull(overrunPolicy);
+    }
+
+    public int getMaxCatchUpSteps() {
+        return maxCatchUpSteps;
+    }
+
+    /**
+     * @param maxCatchUpSteps most steps a late run may do, including its own tick
+     */
+    public void setMaxCatchUpSteps(int maxCatchUpSteps) {
+        if (maxCatchUpSteps < 1)
+            throw new IllegalArgumentException("at least one step is needed");
+        this.maxCatchUpSteps = maxCatchUpSteps;
+    }
+
+    /**
+     * @return runs that took longer than the tick
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /**
+     * @return runs that started more than a tick late
+     */
+    public long getLateRuns() {
+        return lateRuns;
+    }
+
+    /**
+     * @return ticks owed by the wall clock that were not simulated
+     */
+    public long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /**
+     * @return simulated time owed by the clock that was not simulated, how far the simulation fell behind it
+     */
+    public long getDroppedTime() {
+        return droppedTime;
+    }
+
+    /**
+     * @return extra steps done to catch up
+     */
+    public long getCatchUpSteps() {
+        return catchUpSteps;
+    }
+
+    /**
+     * @return late runs fired back to back by the scheduler and ignored since their ticks were already handled
+     */
+    public long getCoalescedRuns() {
+        return coalescedRuns;
+    }
+
+    public long getSkippedRenders() {
+        return skippedRenders;
+    }
+
+    /**
+     * @return how late the last run started, in simulated time
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    public long getLastRunNanos() {
+        return lastRunNanos;
+    }
+
+    public long getMaxRunNanos() {
+        return maxRunNanos;
+    }
+
+    public long getSimulatedTime() {
+        return simulatedTime;
+    }
+
+    public long getSimulatedTicks() {
+        return simulatedTicks;
+    }
+
+    /**
+     * @return simulated ticks per wall clock second measured during the last run
+     */
+    public double getTicksPerSecond() {
+        return ticksPerSecond;
     }
 
     public void addUpdater(Updater updater) {
@@ -52,4 +365,9 @@ public class EmulatorEngine {
     public boolean isRunning() {
         return running;
     }
+
+    public void shutdown() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
 }
@@ -0,0 +1,26 @@
+package dz.kalbo.emulator.tram;
+
+/**
+ * What a wall clock engine does when it is late, that is when updates took longer than the tick and the
+ * scheduler owes more than one tick
+ */
+public enum OverrunPolicy {
+
+    /**
+     * simulate a single tick and drop the time owed for the missed ones, the simulation slows down instead of
+     * piling up work
+     */
+    SKIP,
+
+    /**
+     * simulate the missed ticks as extra steps in the same run, at most the configured number of steps, what is
+     * beyond is dropped
+     */
+    CATCH_UP,
+
+    /**
+     * catch up like {@link #CATCH_UP} but only draw the last step of a run, and draw less often while updates
+     * keep overrunning
+     */
+    DEGRADE_RENDER
+}
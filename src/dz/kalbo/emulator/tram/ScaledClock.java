@@ -0,0 +1,35 @@
+package dz.kalbo.emulator.tram;
+
+/**
+ * A clock that follows {@link System#nanoTime()} multiplied by a factor, see {@link Clock#scaled(double)}
+ */
+public class ScaledClock implements Clock {
+
+    private final double factor;
+    private final long startNanos = System.nanoTime();
+
+    public ScaledClock(double factor) {
+        if (!(factor > 0) || Double.isInfinite(factor))
+            throw new IllegalArgumentException("factor must be positive");
+        this.factor = factor;
+    }
+
+    public double getFactor() {
+        return factor;
+    }
+
+    @Override
+    public long getTime() {
+        return (long) ((System.nanoTime() - startNanos) * factor / 1_000_000d);
+    }
+
+    @Override
+    public long tick(long tick) {
+        return getTime();
+    }
+
+    @Override
+    public String toString() {
+        return "ScaledClock{factor=" + factor + '}';
+    }
+}
@@ -0,0 +1,33 @@
+package dz.kalbo.emulator.tram;
+
+/**
+ * A clock that only moves when it is ticked, see {@link Clock#virtual()}
+ */
+public class VirtualClock implements Clock {
+
+    private long time;
+
+    public VirtualClock() {
+        this(0);
+    }
+
+    public VirtualClock(long time) {
+        this.time = time;
+    }
+
+    @Override
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public long tick(long tick) {
+        time += tick;
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "VirtualClock{time=" + time + '}';
+    }
+}
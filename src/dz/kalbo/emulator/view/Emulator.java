@@ -1,7 +1,8 @@
 package dz.kalbo.emulator.view;
 
+import dz.kalbo.emulator.metrics.Histogram;
+import dz.kalbo.emulator.metrics.Metrics;
 import dz.kalbo.emulator.model.*;
-import dz.kalbo.emulator.tools.Kit;
 import dz.kalbo.emulator.tram.EmulatorEngine;
 
 import javax.swing.*;
@@ -51,8 +52,12 @@ public class Emulator extends JFrame {
 
     private static final class RailwayCanvas extends Container {
 
+        private static final Histogram PAINT_TIME = Metrics.getInstance().histogram("view.paint");
+
         private final RailwayModel model;
         private final JFrame frame;
+        private final TrackLayerCache trackLayer = new TrackLayerCache();
+        private Rectangle requestedViewArea;
         private JScrollPane scrollPane;
 
         public RailwayCanvas(RailwayModel model, JFrame frame) {
@@ -80,13 +85,22 @@ public class Emulator extends JFrame {
             g.setColor(ColorPalette.BACKGROUND);
             g.fillRect(0, 0, width, height);
 
-            model.read(model -> paintFrame(g, model, width, height));
+            // the engine publishes a snapshot after each tick, painting never waits for the simulation
+            RenderSnapshot snapshot = model.getSnapshot();
+            if (snapshot != null) {
+                long paintTime = System.nanoTime();
+                paintFrame(g, snapshot, width, height);
+                PAINT_TIME.record(System.nanoTime() - paintTime);
+            }
         }
 
-        private void paintFrame(Graphics2D g, RailwayModel model, int windowWidth, int WindowHeight) {
-            int screenWidth = model.getContext().getScreenWidth();
-            int screenHeight = model.getContext().getScreenHeight();
-            g.translate(Math.max((windowWidth - screenWidth) / 2, 0), Math.max((WindowHeight - screenHeight) / 2, 0));
+        private void paintFrame(Graphics2D g, RenderSnapshot snapshot, int windowWidth, int WindowHeight) {
+            Context context = snapshot.getContext();
+            int screenWidth = context.getScreenWidth();
+            int screenHeight = context.getScreenHeight();
+            int offsetX = Math.max((windowWidth - screenWidth) / 2, 0);
+            int offsetY = Math.max((WindowHeight - screenHeight) / 2, 0);
+            g.translate(offsetX, offsetY);
 
             g.setColor(ColorPalette.CANVAS_BACKGROUND);
             g.fillRect(0, 0, screenWidth, screenHeight);
@@ -94,37 +108,42 @@ public class Emulator extends JFrame {
             g.setColor(Color.RED); // TODO remove this
             g.drawRect(0, 0, 1, 1); // TODO remove this
 
+            // only what intersects the visible part of the canvas is drawn
+            Rectangle visibleArea = g.getClipBounds();
+            if (visibleArea == null)
+                visibleArea = new Rectangle(0, 0, screenWidth, screenHeight);
+
+            // static roads come from the tiles cache, only trams are drawn every frame
+            float zoom = context.getZoom();
+            if (scrollPane != null)
+                trackLayer.setViewportSize(scrollPane.getViewport().getWidth(), scrollPane.getViewport().getHeight());
+            else
+                trackLayer.setViewportSize(windowWidth, WindowHeight);
+            trackLayer.paint(g, visibleArea, snapshot.getTrackIndex(), zoom);
+
             g.setColor(Color.BLACK);
 
-            for (Road road : model.getRoads()) {
-                int radios = road.getRadios();
-                int thickness = road.getThickness();
-                Stroke trancheStroke = new BasicStroke(radios * 2 + thickness, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
-
-                LinkedList<AbstractTranche> tranchesNeedDrawing = new LinkedList<>(road.getHeadTranches());
-                HashSet<AbstractTranche> alreadyDrawn = new HashSet<>();
-
-                // draw a label that indicate where the road start
-                if (Kit.SHOW_ROAD_START)
-                    for (AbstractTranche tranche : tranchesNeedDrawing)
-                        Kit.drawLabel(g, Kit.ROAD_START_LABEL + '#' + road.getId(), tranche.getStart().x, tranche.getStart().y);
-
-                while (!tranchesNeedDrawing.isEmpty()) {
-                    AbstractTranche currentTranche = tranchesNeedDrawing.pollFirst();
-                    if (currentTranche != null) {
-                        Iterable<AbstractTranche> nextTrances = currentTranche.getNext();
-                        for (AbstractTranche nextTrance : nextTrances)
-                            if (!alreadyDrawn.contains(nextTrance))
-                                tranchesNeedDrawing.add(nextTrance);
-
-                        currentTranche.draw(g, trancheStroke);
-                        alreadyDrawn.add(currentTranche);
-                    }
-                }
+            // the model is in world units, zoom is a single transform applied here
+            g.scale(zoom, zoom);
+
+            snapshot.drawTrams(g);
+
+            // snapshots only hold the trams of the view area, tell the model when it changes. The area is the
+            // viewport floored and grown by a unit, not the clip, so partial repaints do not change it
+            Rectangle viewArea = new Rectangle(0, 0, context.getWidth(), context.getHeight());
+            if (scrollPane != null) {
+                Rectangle viewRect = scrollPane.getViewport().getViewRect();
+                int minX = (int) Math.floor((viewRect.x - offsetX) / zoom);
+                int minY = (int) Math.floor((viewRect.y - offsetY) / zoom);
+                int maxX = (int) Math.ceil((viewRect.x + viewRect.width - offsetX) / zoom);
+                int maxY = (int) Math.ceil((viewRect.y + viewRect.height - offsetY) / zoom);
+                viewArea = new Rectangle(minX, minY, maxX - minX, maxY - minY);
+                viewArea.grow(1, 1);
+            }
+            if (!viewArea.equals(requestedViewArea)) {
+                requestedViewArea = viewArea;
+                model.setViewArea(viewArea);
             }
-
-            for (Tram tram : model.getTrams())
-                tram.draw(g);
 
 //            // TEST
 //            // top right
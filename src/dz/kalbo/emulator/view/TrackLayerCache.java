@@ -0,0 +1,116 @@
+package dz.kalbo.emulator.view;
+
+import dz.kalbo.emulator.model.AbstractTranche;
+import dz.kalbo.emulator.model.Road;
+import dz.kalbo.emulator.model.TrackIndex;
+import dz.kalbo.emulator.tools.Kit;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the static road layer rendered in screen tiles, tiles are drawn once and reused until the topology
+ * (a new {@link TrackIndex}) or the zoom changes
+ */
+final class TrackLayerCache {
+
+    static final int TILE_SIZE = 256;
+    private static final int MIN_TILES = 128;
+
+    // least recently used tiles are dropped first
+    private final Map<Long, BufferedImage> tiles = new LinkedHashMap<Long, BufferedImage>(MIN_TILES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > maxTiles;
+        }
+    };
+    private int maxTiles = MIN_TILES;
+    private final Map<Road, Stroke> roadStrokes = new HashMap<>();
+    // tranches of the tile being rendered
+    private final List<AbstractTranche> tileTranches = new ArrayList<>();
+
+    private TrackIndex trackIndex;
+    private float zoom;
+
+    /**
+     * keep the tiles of a whole viewport of the given size in screen units plus a ring of tiles around it, so
+     * scrolling by less than a tile never renders a tile again
+     */
+    void setViewportSize(int width, int height) {
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE + 2;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE + 2;
+        maxTiles = Math.max(columns * rows, MIN_TILES);
+        for (Iterator<Long> keys = tiles.keySet().iterator(); tiles.size() > maxTiles && keys.hasNext(); ) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    /**
+     * draw the tiles covering the given area
+     *
+     * @param g       graphics in screen units, without the zoom applied
+     * @param area    the area to draw in screen units
+     */
+    void paint(Graphics2D g, Rectangle area, TrackIndex trackIndex, float zoom) {
+        if (this.trackIndex != trackIndex || Float.compare(this.zoom, zoom) != 0)
+            invalidate(trackIndex, zoom);
+
+        int minTileX = Math.floorDiv(area.x, TILE_SIZE);
+        int minTileY = Math.floorDiv(area.y, TILE_SIZE);
+        int maxTileX = Math.floorDiv(area.x + area.width, TILE_SIZE);
+        int maxTileY = Math.floorDiv(area.y + area.height, TILE_SIZE);
+        for (int tileX = minTileX; tileX <= maxTileX; tileX++)
+            for (int tileY = minTileY; tileY <= maxTileY; tileY++) {
+                long key = ((long) tileX << 32) | (tileY & 0xffffffffL);
+                BufferedImage tile = tiles.get(key);
+                if (tile == null) {
+                    tile = renderTile(g.getDeviceConfiguration(), tileX, tileY);
+                    tiles.put(key, tile);
+                }
+                g.drawImage(tile, tileX * TILE_SIZE, tileY * TILE_SIZE, null);
+            }
+    }
+
+    void invalidate(TrackIndex trackIndex, float zoom) {
+        tiles.clear();
+        roadStrokes.clear();
+        this.trackIndex = trackIndex;
+        this.zoom = zoom;
+    }
+
+    private BufferedImage renderTile(GraphicsConfiguration configuration, int tileX, int tileY) {
+        BufferedImage tile = configuration.createCompatibleImage(TILE_SIZE, TILE_SIZE, Transparency.TRANSLUCENT);
+        Graphics2D g = tile.createGraphics();
+        try {
+            g.translate(-tileX * TILE_SIZE, -tileY * TILE_SIZE);
+            g.scale(zoom, zoom);
+
+            Rectangle worldArea = new Rectangle(
+                    (int) Math.floor(tileX * TILE_SIZE / zoom), (int) Math.floor(tileY * TILE_SIZE / zoom),
+                    (int) Math.ceil(TILE_SIZE / zoom) + 1, (int) Math.ceil(TILE_SIZE / zoom) + 1);
+            for (AbstractTranche tranche : trackIndex.query(worldArea, tileTranches)) {
+                Road road = trackIndex.getRoad(tranche);
+                tranche.draw(g, roadStrokes.computeIfAbsent(road, TrackLayerCache::newTrancheStroke));
+
+                // draw a label that indicate where the road start
+                if (Kit.SHOW_ROAD_START && road.getHeadTranches().contains(tranche))
+                    Kit.drawLabel(g, Kit.ROAD_START_LABEL + '#' + road.getId(), tranche.getStart().x, tranche.getStart().y);
+            }
+        } finally {
+            tileTranches.clear();
+            g.dispose();
+        }
+        return tile;
+    }
+
+    private static Stroke newTrancheStroke(Road road) {
+        return new BasicStroke(road.getRadios() * 2 + road.getThickness(), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    }
+}